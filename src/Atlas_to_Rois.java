@@ -23,6 +23,7 @@ import ij.WindowManager;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
+import utilities.parallelExecutor;
 import utilities.pluginsInfo;
 import utilities.tools;
 
@@ -98,6 +99,15 @@ public class Atlas_to_Rois implements PlugIn, DialogListener{
 	/** True if the Atlas Data Container should be sent to the data viewer */
 	boolean sendToViewer=Prefs.get("AtlasToRoi.sendToViewer", true);
 	
+	/** True if the included structure tree file should be displayed in a ResultsTable */
+	boolean showStructureTable=Prefs.get("AtlasToRoi.showStructureTable", false);
+	
+	/** Number of threads used for multi-threaded processes */
+	int parallelism=parallelExecutor.getParallelism();
+
+	/** Compression level of ZON files (0: none, 9: maximum) */
+	int zonCompression=AtlasDataContainer.getZONCompressionLevel();
+	
 	@Override
 	public void run(String arg) {
 		if(imagesList.length<1) {
@@ -139,6 +149,12 @@ public class Atlas_to_Rois implements PlugIn, DialogListener{
 		gd.addCheckbox("ZON_file", saveZON);
 		gd.addCheckbox("Add_to_RoiManager", addToRoiManager);
 		gd.addCheckbox("Send_to_Atlas_Viewer", sendToViewer);
+		gd.addCheckbox("Show_structure_tree_table", showStructureTable);
+		gd.addMessage("");
+		
+		gd.addMessage("<html><b>Performances</b></html>");
+		gd.addNumericField("Parallel_threads", parallelism, 0);
+		gd.addNumericField("ZON_compression_level (0-9)", zonCompression, 0);
 		
 		
 		gd.addMessage("");
@@ -166,6 +182,9 @@ public class Atlas_to_Rois implements PlugIn, DialogListener{
 		saveZON=gd.getNextBoolean();
 		addToRoiManager=gd.getNextBoolean();
 		sendToViewer=gd.getNextBoolean();
+		showStructureTable=gd.getNextBoolean();
+		parallelism=(int) gd.getNextNumber();
+		zonCompression=(int) gd.getNextNumber();
 		
 		
 		Prefs.set("AtlasToRoi.includedFile", includedFileIndex);
@@ -173,6 +192,9 @@ public class Atlas_to_Rois implements PlugIn, DialogListener{
 		Prefs.set("AtlasToRoi.saveZON", saveZON);
 		Prefs.set("AtlasToRoi.addToRoiManager", addToRoiManager);
 		Prefs.set("AtlasToRoi.sendToViewer", sendToViewer);	
+		Prefs.set("AtlasToRoi.showStructureTable", showStructureTable);
+		parallelExecutor.setParallelism(parallelism);
+		AtlasDataContainer.setZONCompressionLevel(zonCompression);
 	}
 	
 	/**
@@ -199,6 +221,7 @@ public class Atlas_to_Rois implements PlugIn, DialogListener{
 		adc.setStructureTreeFileInfos(sourceStructureFiles[source], source==0?resultsTable:includedStructureFiles[includedFileIndex]);
 		
 		readStructureFile rsf=new readStructureFile(adc);
+		rsf.setShowResultsTable(showStructureTable);
 		
 		switch (source) {
 			case 0:
@@ -0,0 +1,72 @@
+import java.io.IOException;
+
+import dataModel.ColumnarArchive;
+import ij.IJ;
+import ij.io.OpenDialog;
+import ij.io.SaveDialog;
+import ij.plugin.PlugIn;
+import utilities.pluginsInfo;
+import utilities.tools;
+
+/**
+ * Convert_Container.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This class implements the GUI to convert an Atlas Data Container from the ZON format
+ * to the binary, columnar format (see ColumnarArchive), and the other way round
+ */
+public class Convert_Container implements PlugIn{
+
+	@Override
+	public void run(String arg) {
+		OpenDialog od=new OpenDialog("Convert Atlas Data Container "+pluginsInfo.CONVERT_CONTAINER_VERSION+" ("+pluginsInfo.CONVERT_CONTAINER_DATE+")\nSelect the ZON or columnar file to convert");
+		String path=od.getPath();
+		if(path==null) return;
+
+		String name=od.getFileName().toLowerCase();
+		boolean fromZON=name.endsWith(".zon");
+		if(!fromZON && !name.endsWith(ColumnarArchive.EXTENSION)) {
+			IJ.error("The file extension should be ZON or "+ColumnarArchive.EXTENSION.substring(1).toUpperCase());
+			return;
+		}
+
+		String extension=fromZON?ColumnarArchive.EXTENSION:".zon";
+		SaveDialog sd=new SaveDialog("Save converted file as", od.getFileName().substring(0, od.getFileName().lastIndexOf('.')), extension);
+		if(sd.getFileName()==null) return;
+		String outPath=tools.checkFileExtension(sd.getDirectory()+sd.getFileName(), extension);
+
+		long start=System.currentTimeMillis();
+		try {
+			if(fromZON) {
+				ColumnarArchive.convertZONToColumnar(path, outPath);
+			}else {
+				ColumnarArchive.convertColumnarToZON(path, outPath);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			IJ.error("Convert Atlas Data Container", "The file could not be converted:\n"+e.getMessage());
+			return;
+		}
+		IJ.showStatus("!Convert Atlas Data Container - Done in "+tools.formatInterval(System.currentTimeMillis()-start));
+	}
+}
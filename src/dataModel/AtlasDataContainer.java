@@ -23,7 +23,9 @@
 
 package dataModel;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -31,11 +33,15 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -47,13 +53,19 @@ import com.google.gson.JsonSyntaxException;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.WindowManager;
 import ij.gui.NewImage;
 import ij.gui.Roi;
+import ij.io.RoiEncoder;
 import ij.measure.Calibration;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
-import ij.process.StackStatistics;
+import dataReader.labelCensus;
+import utilities.deferredRoiDecoder;
 import utilities.jsonRoiEntry;
+import utilities.parallelExecutor;
 import utilities.tools;
 
 /**
@@ -72,6 +84,24 @@ public class AtlasDataContainer{
 
 	/** Stores a table of selection profiles (name of the profile/ArrayList<Roi Indexes>) */
 	public TreeMap<String, Set<Integer>> selectionProfiles=new TreeMap<String, Set<Integer>>();
+
+	/** Stores the key of the measured image whose measurements are exposed through the Measurements fields (null if none) */
+	public String activeMeasurements=null;
+
+	/** The indexed ZON file from which Rois are read on demand (null if the AtlasDataContainer was not opened from such a file) */
+	transient ZonArchive archive=null;
+
+	/** The ZON file this AtlasDataContainer was opened from or last saved to, to which changes are journaled (null if none) */
+	transient String zonPath=null;
+
+	/** Changes made to the selection profiles and measurements since the ZON file was opened or saved, not journaled yet (see ZonJournal) */
+	transient ArrayList<ZonJournal.change> pendingChanges=null;
+
+	/** Index of the ontology, built on first request (see getOntologyIndex) and dropped as the Atlas changes */
+	transient OntologyIndex ontologyIndex=null;
+
+	/** Cache of the run-length masks of the Rois, created on first request (see getMaskCache) and emptied by close */
+	transient RoiMaskCache maskCache=null;
 	
 	
 	/** Analysis level */
@@ -82,6 +112,9 @@ public class AtlasDataContainer{
 	
 	/** Analysis normalization */
 	public static final String[]  ANALYSIS_NORM=new String[] {"No Normalization", "100%=All Structures", "100%=Selected Structures"};
+
+	/** Key used to store the compression level of ZON files in the ImageJ preferences */
+	public static final String ZON_COMPRESSION_PREF="AtlasUtilities.zonCompression";
 	
 
 	/**
@@ -129,6 +162,122 @@ public class AtlasDataContainer{
 	public void putInAtlas(int id, AtlasEntry entry) {
 		Atlas.put(id, entry);
 		nameId.put(entry.name, id);
+		ontologyIndex=null;
+	}
+
+	/**
+	 * Returns the index of the ontology described by the AtlasEntries, building it if required
+	 * @return the index of the ontology
+	 */
+	public OntologyIndex getOntologyIndex() {
+		if(ontologyIndex==null || ontologyIndex.size()!=Atlas.size()) ontologyIndex=new OntologyIndex(Atlas.values());
+		return ontologyIndex;
+	}
+
+	/**
+	 * Returns the cache of the run-length masks of the Rois of this AtlasDataContainer, creating it if required
+	 * @return the cache of the run-length masks
+	 */
+	public synchronized RoiMaskCache getMaskCache() {
+		if(maskCache==null) maskCache=new RoiMaskCache();
+		return maskCache;
+	}
+
+	/**
+	 * Releases the resources held by this AtlasDataContainer once it is not used anymore: the cached masks of the Rois
+	 * and the ZON file from which Rois are read on demand (reopened should Rois be read afterwards).
+	 * Unsaved changes are not written (see saveChanges)
+	 */
+	public synchronized void close() {
+		if(maskCache!=null) maskCache.clear();
+		maskCache=null;
+		if(archive!=null) archive.close();
+	}
+
+	/**
+	 * Creates or replaces a selection profile. The change is recorded, to be appended to the journal
+	 * of the ZON file (see saveChanges)
+	 * @param name name of the profile
+	 * @param ids ids of the selected structures
+	 */
+	public void putProfile(String name, Set<Integer> ids) {
+		selectionProfiles.put(name, ids);
+		addChange(ZonJournal.putProfile(name, ids));
+	}
+
+	/**
+	 * Removes a selection profile. The change is recorded, to be appended to the journal
+	 * of the ZON file (see saveChanges)
+	 * @param name name of the profile
+	 */
+	public void removeProfile(String name) {
+		selectionProfiles.remove(name);
+		addChange(ZonJournal.removeProfile(name));
+	}
+
+	/**
+	 * Records a change, to be appended to the journal of the ZON file. Changes are only recorded
+	 * when this AtlasDataContainer is bound to an existing ZON file (see isBoundToZON): otherwise,
+	 * nothing would ever write them out
+	 * @param change the change to record
+	 */
+	void addChange(ZonJournal.change change) {
+		if(!isBoundToZON()) return;
+		if(pendingChanges==null) pendingChanges=new ArrayList<ZonJournal.change>();
+		pendingChanges.add(change);
+	}
+
+	/**
+	 * Returns the path to the ZON file this AtlasDataContainer was opened from or last saved to
+	 * @return the path to the ZON file, or null if none
+	 */
+	public String getZONPath() {
+		return zonPath;
+	}
+
+	/**
+	 * Checks whether this AtlasDataContainer has been opened from or saved to a ZON file that still exists,
+	 * changes being then journaled to this file (see saveChanges)
+	 * @return true if this AtlasDataContainer is bound to an existing ZON file
+	 */
+	boolean isBoundToZON() {
+		return zonPath!=null && new File(zonPath).exists();
+	}
+
+	/**
+	 * Returns true if changes have been made to the selection profiles or measurements since the ZON file was opened or saved
+	 * @return true if some changes have not been saved yet
+	 */
+	public boolean hasPendingChanges() {
+		return pendingChanges!=null && !pendingChanges.isEmpty();
+	}
+
+	/**
+	 * Saves the changes made to the selection profiles and measurements since the ZON file was opened
+	 * or saved, by appending them to its journal (see ZonJournal): the ZON file itself is not rewritten
+	 * @return true if the changes have been saved, false if there is no ZON file to journal changes to
+	 */
+	public boolean saveChanges() {
+		if(!isBoundToZON()) return false;
+		if(!hasPendingChanges()) return true;
+
+		try {
+			ZonJournal.append(zonPath, pendingChanges);
+			pendingChanges.clear();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		IJ.showStatus("!Atlas Data Container changes saved to the ZON file's journal");
+		return true;
+	}
+
+	/**
+	 * Rewrites the ZON file this AtlasDataContainer was opened from or last saved to, including all
+	 * journaled and pending changes, then deletes its journal
+	 */
+	public void compact() {
+		if(zonPath!=null) saveAsZON(zonPath);
 	}
 
 	/**
@@ -136,187 +285,500 @@ public class AtlasDataContainer{
 	 */
 	public void rebuildNameIdMap() {
 		nameId=new TreeMap<String, Integer>();
+		ontologyIndex=null;
 		for(Integer key: Atlas.keySet()) nameId.put(Atlas.get(key).name, Atlas.get(key).id);
 	}
 
 	/**
-	 * (Re)calculates the measurements of each structure
+	 * (Re)calculates the measurements of each structure, for the active measurements as well as for each measured image.
+	 * Structures are processed in parallel, using the shared parallelExecutor: each one is only written by its own task.
+	 * The process can not be cancelled: all structures must be up to date before being rolled up the ontology.
+	 * Rois read lazily from a ZON file should be pinned beforehand (see loadAllRois).
 	 */
 	public void rebuildMeasurementsPerStructure() {
-		for(Integer id: Atlas.keySet()) {
-			MeasurementsEntry meStruct=new MeasurementsEntry();
-			int nIt=0;
-			for(Integer roi: Atlas.get(id).ROIs.keySet()){
-				MeasurementsEntry meRoi=Atlas.get(id).ROIs.get(roi).Measurements;
-				if(meRoi!=null) {
-					meStruct.volume+=meRoi.area;
-					meStruct.totalIntensity+=meRoi.totalIntensity;
-					meStruct.minIntensity=nIt==0?meRoi.minIntensity:Math.min(meRoi.minIntensity, meStruct.minIntensity);
-					meStruct.maxIntensity=nIt==0?meRoi.maxIntensity:Math.min(meRoi.maxIntensity, meStruct.maxIntensity);
-					meStruct.stdIntensity+=(meRoi.area-1)*meRoi.stdIntensity*meRoi.stdIntensity;
-					nIt++;
-				}
+		AtlasEntry[] entries=Atlas.values().toArray(new AtlasEntry[Atlas.size()]);
+		parallelExecutor.taskHandle handle=new parallelExecutor.taskHandle();
+		handle.cancelOnEscape=false;
+		if(!parallelExecutor.forEach(0, entries.length, index -> setStructureMeasurements(entries[index]), null, handle)) {
+			throw new IllegalStateException("Measurements per structure could not all be rebuilt");
+		}
+
+		rebuildMeasurementsWithDescendants();
+	}
+
+	/**
+	 * (Re)calculates the measurements of a structure, for the active measurements as well as for each measured image
+	 * @param ae the AtlasEntry of the structure
+	 */
+	void setStructureMeasurements(AtlasEntry ae) {
+		TreeMap<String, MeasurementsEntry> perImage=new TreeMap<String, MeasurementsEntry>();
+		for(RoiEntry re: ae.ROIs.values()) {
+			for(String key: re.MeasurementsPerImage.keySet()) {
+				if(!perImage.containsKey(key)) perImage.put(key, getStructureMeasurements(ae, key));
 			}
-			meStruct.meanIntensity=meStruct.volume==0?0:meStruct.totalIntensity/meStruct.volume;
-			meStruct.stdIntensity=(meStruct.volume-nIt)==0?0:Math.sqrt(meStruct.stdIntensity/(meStruct.volume-nIt));
-			Atlas.get(id).Measurements=meStruct;
 		}
+		ae.MeasurementsPerImage=perImage;
+		ae.Measurements=activeMeasurements!=null && perImage.containsKey(activeMeasurements)?perImage.get(activeMeasurements):getStructureMeasurements(ae, null);
 	}
 
-	//TODO: normalisation à 100% pour la somme de toutes les ROIs sélectionnées
-	public void measure(ImagePlus ip) {
-		long start=System.currentTimeMillis();
-		final AtomicInteger ai = new AtomicInteger(1);
-		final Thread[] threads=new Thread[Runtime.getRuntime().availableProcessors()];
+	/**
+	 * (Re)calculates, for each structure, the measurements of the structure together with all its descendants in the
+	 * ontology (see OntologyIndex), for the active measurements as well as for each measured image. The ontology is
+	 * walked once, in post-order: the statistics of each structure (see MeasurementsAccumulator) are merged into
+	 * those of its parent. Structures measured on none of their own Rois nor descendants' are left without
+	 * measurements with descendants for this image.
+	 */
+	public void rebuildMeasurementsWithDescendants() {
+		OntologyIndex oi=getOntologyIndex();
+		int n=oi.size();
+		AtlasEntry[] entries=new AtlasEntry[n];
+		for(int v=0; v<n; v++) {
+			entries[v]=Atlas.get(oi.ids[v]);
+			entries[v].MeasurementsWithDescendantsPerImage=new TreeMap<String, MeasurementsEntry>();
+		}
 
-		//Get an array with all ids
-		int[] ids=nameId.values().stream().mapToInt(Number::intValue).toArray();
+		ArrayList<String> keys=new ArrayList<String>(getMeasurementKeys());
+		keys.add(0, null);
+		MeasurementsAccumulator[] accumulators=new MeasurementsAccumulator[n];
+		for(String key: keys) {
+			for(int v=0; v<n; v++) accumulators[v]=getAccumulator(key==null?entries[v].Measurements:entries[v].MeasurementsPerImage.get(key));
+
+			//Children are numbered after their parent: walking backwards, each structure is complete when reached
+			for(int v=n-1; v>=0; v--) {
+				setMeasurementsWithDescendants(entries[v], key, accumulators[v]);
+				if(oi.parent[v]!=-1) accumulators[oi.parent[v]].add(accumulators[v]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics of a structure, as a MeasurementsAccumulator
+	 * @param me the measurements of the structure, null if none
+	 * @return a new MeasurementsAccumulator, empty if the structure has no measurements
+	 */
+	static MeasurementsAccumulator getAccumulator(MeasurementsEntry me) {
+		return MeasurementsAccumulator.fromMeasurementsEntry(me, me==null?0:me.volume);
+	}
+
+	/**
+	 * Stores the measurements with descendants of a structure
+	 * @param ae the AtlasEntry of the structure
+	 * @param key the key of the measured image, or null for the active measurements
+	 * @param accumulator the statistics of the structure and its descendants
+	 */
+	static void setMeasurementsWithDescendants(AtlasEntry ae, String key, MeasurementsAccumulator accumulator) {
+		MeasurementsEntry me=accumulator.toStructureMeasurementsEntry();
+
+		if(key==null) {
+			ae.MeasurementsWithDescendants=me;
+		}else if(accumulator.count>0) {
+			ae.MeasurementsWithDescendantsPerImage.put(key, me);
+		}else {
+			ae.MeasurementsWithDescendantsPerImage.remove(key);
+		}
+	}
+
+	/**
+	 * Calculates the measurements of a structure by merging the statistics of its Rois (see MeasurementsAccumulator)
+	 * @param ae the AtlasEntry of the structure
+	 * @param key the key of the measured image to use, or null to use the active measurements of each Roi
+	 * @return the measurements of the structure, as a MeasurementsEntry
+	 */
+	MeasurementsEntry getStructureMeasurements(AtlasEntry ae, String key) {
+		MeasurementsAccumulator accumulator=new MeasurementsAccumulator();
+		for(RoiEntry re: ae.ROIs.values()){
+			MeasurementsEntry meRoi=key==null?re.Measurements:re.MeasurementsPerImage.get(key);
+			if(meRoi!=null) accumulator.add(meRoi, meRoi.area);
+		}
+		return accumulator.toStructureMeasurementsEntry();
+	}
+
+	/**
+	 * Returns the keys of all measured images, as found on the structures (see rebuildMeasurementsPerStructure)
+	 * @return the keys of all measured images, sorted
+	 */
+	public TreeSet<String> getMeasurementKeys() {
+		TreeSet<String> out=new TreeSet<String>();
+		for(AtlasEntry ae: Atlas.values()) out.addAll(ae.MeasurementsPerImage.keySet());
+		return out;
+	}
+
+	/**
+	 * Exposes the measurements of the input measured image through the Measurements fields of all
+	 * RoiEntries and AtlasEntries. Rois not measured on this image only keep their area.
+	 * @param key the key of the measured image
+	 */
+	public void setActiveMeasurements(String key) {
+		activeMeasurements=key;
+		loadAllRois();
+
+		for(AtlasEntry ae: Atlas.values()) {
+			for(RoiEntry re: ae.ROIs.values()) {
+				MeasurementsEntry me=re.MeasurementsPerImage.get(key);
+				if(me==null) {
+					me=new MeasurementsEntry();
+					me.area=re.Measurements==null?0:re.Measurements.area;
+				}
+				re.Measurements=me;
+			}
+		}
 
-		//Prepare threads with what needs to be done
-		for (int ithread = 0; ithread < threads.length; ithread++){
-			//final int ithreadNb=ithread; // To be able to pass it in the run
-			threads[ithread] = new Thread(){
-				public void run() {
-					for (int id = 0; id <ids.length; id = ai.getAndIncrement()) {
-						ArrayList<Roi> rois=getRois(ids[id]);
-						for(int roiIndex=0; roiIndex<rois.size(); roiIndex++) {
-							Roi roi=rois.get(roiIndex); //Get the n-th roi
-							int slice=roi.getZPosition(); //Retrieve slice nb which also is the index in the ROIs objects
-
-							ImageProcessor iproc=ip.getStack().getProcessor(slice);
-							iproc.setRoi(roi);
-
-							//Builds new MeasurementsEntry object and pushes data to it
-							MeasurementsEntry me=new MeasurementsEntry();
-							me.area=iproc.getStatistics().area;
-							me.meanIntensity=iproc.getStatistics().umean;
-							me.stdIntensity=iproc.getStatistics().stdDev;
-							me.totalIntensity=me.meanIntensity*me.area;
-							me.minIntensity=iproc.getStatistics().min;
-							me.maxIntensity=iproc.getStatistics().max;
-
-							//Replaces the Measurements with new values
-							Atlas.get(ids[id]).ROIs.get(slice).Measurements=me;
-
-							iproc.resetRoi();
+		rebuildMeasurementsPerStructure();
+	}
+
+	/**
+	 * Returns the key under which measurements made on a channel/frame of an image are stored:
+	 * the image's title, followed by the channel and frame numbers for hyperstacks
+	 * @param ip the measured image
+	 * @param channel the channel number (1-based)
+	 * @param frame the frame number (1-based)
+	 * @return the key under which measurements are stored
+	 */
+	public static String getMeasurementKey(ImagePlus ip, int channel, int frame) {
+		if(ip.getNChannels()==1 && ip.getNFrames()==1) return ip.getTitle();
+		return ip.getTitle()+"_C"+channel+"_T"+frame;
+	}
+
+	/**
+	 * Splits the input images into the z-stacks to measure: one per image, or one per channel/frame
+	 * for hyperstacks. No pixel is copied, the z-stacks referring to the images' pixels arrays.
+	 * @param images the images to measure
+	 * @return the z-stacks to measure, indexed by measurement key (in the order of the input images)
+	 */
+	public static LinkedHashMap<String, ImageStack> getMeasurementStacks(ImagePlus[] images) {
+		LinkedHashMap<String, ImageStack> out=new LinkedHashMap<String, ImageStack>();
+
+		for(ImagePlus ip: images) {
+			ImageStack source=ip.getStack();
+			for(int frame=1; frame<=ip.getNFrames(); frame++) {
+				for(int channel=1; channel<=ip.getNChannels(); channel++) {
+					ImageStack stack=source;
+					if(ip.getNChannels()>1 || ip.getNFrames()>1) {
+						stack=new ImageStack(ip.getWidth(), ip.getHeight());
+						for(int z=1; z<=ip.getNSlices(); z++) {
+							int index=ip.getStackIndex(channel, z, frame);
+							stack.addSlice(source.getSliceLabel(index), source.getPixels(index));
 						}
-						//IJ.showStatus("!Measuring image - Thread "+(ithreadNb+1)+"/"+threads.length+" returned results for ID "+ids[id]+"("+rois.size()+" rois(s))");
 					}
+
+					//Images sharing the same title are told apart by a number
+					String key=getMeasurementKey(ip, channel, frame);
+					String uniqueKey=key;
+					for(int i=2; out.containsKey(uniqueKey); i++) uniqueKey=key+"-"+i;
+
+					out.put(uniqueKey, stack);
 				}
+			}
+		}
+
+		return out;
+	}
 
-			};
+	/**
+	 * Looks for the labeled image this AtlasDataContainer was built from amongst the opened images. An image
+	 * sharing its title is only used if its labels match the Rois (see isLabelImage)
+	 * @return the labeled image, if opened and its dimensions and labels match, null otherwise
+	 */
+	public ImagePlus getLabelImage() {
+		ImagePlus ip=WindowManager.getImage(Metadata.imgAnnotationsTitle);
+		if(ip!=null && ip.getWidth()==Metadata.imgWidth && ip.getHeight()==Metadata.imgHeight && ip.getStackSize()==Metadata.imgDepth && isLabelImage(ip)) return ip;
+		return null;
+	}
+
+	/**
+	 * Checks whether the input image holds the labels the Rois were decoded from: it should be an 8-, 16- or 32-bit
+	 * image of integer values, each non-zero value being the id of a structure, found on as many slices as the
+	 * structure has Rois, and all structures having Rois should be found. The image is walked once, slices being
+	 * scanned in parallel, and labels listed without boxing (see labelCensus).
+	 * @param ip the image to check
+	 * @return true if the labels of the image match the Rois
+	 */
+	public boolean isLabelImage(ImagePlus ip) {
+		int bitDepth=ip.getBitDepth();
+		if(bitDepth!=8 && bitDepth!=16 && bitDepth!=32) return false;
+
+		//Sorted distinct labels of each slice, null if a value is not an integer
+		int[][] labelsPerSlice=new int[ip.getStackSize()][];
+		boolean completed=parallelExecutor.forEach(0, labelsPerSlice.length, slice -> {
+			ImageProcessor iproc=ip.getStack().getProcessor(slice+1);
+			if(iproc.getPixels() instanceof float[]) {
+				for(float value: (float[]) iproc.getPixels()) if(value!=(int) value) return;
+			}
+			labelsPerSlice[slice]=labelCensus.scan(iproc, true).labels;
+		}, null, null);
+		if(!completed) return false;
+
+		HashMap<Integer, Integer> nSlices=new HashMap<Integer, Integer>();
+		for(int[] labels: labelsPerSlice) {
+			if(labels==null) return false;
+			for(int label: labels) nSlices.merge(label, 1, Integer::sum);
 		}
 
-		//Initialize threads
-		for (int ithread = 0; ithread < threads.length; ++ithread){
-			threads[ithread].setPriority(Thread.MAX_PRIORITY);//NORM_PRIORITY);
-			threads[ithread].start();
+		int nRois=0;
+		for(Map.Entry<Integer, AtlasEntry> entry: Atlas.entrySet()) {
+			int size=entry.getValue().ROIs.size();
+			if(size!=nSlices.getOrDefault(entry.getKey(), 0)) return false;
+			nRois+=size;
 		}
+		int nFound=0;
+		for(int n: nSlices.values()) nFound+=n;
+		return nRois==nFound;
+	}
 
-		try{
-			for (int ithread = 0; ithread < threads.length; ++ithread) {
-				threads[ithread].join();
-			}
-		} catch (InterruptedException ie){
-			throw new RuntimeException(ie);
+	/**
+	 * Measures the input image, within all Rois. In case the labeled image this AtlasDataContainer
+	 * was built from is still opened, it is used rather than the Rois (see LabelImageMeasurer)
+	 * @param ip the image to measure
+	 * @return true if the image has been measured, false if the process has been cancelled
+	 */
+	//TODO: normalisation à 100% pour la somme de toutes les ROIs sélectionnées
+	public boolean measure(ImagePlus ip) {
+		return measure(new ImagePlus[] {ip}, getLabelImage());
+	}
+
+	/**
+	 * Measures the input image. In case a labeled image is provided, both images are walked
+	 * together, once, to compute all measurements at once. Otherwise, each Roi is measured in turn
+	 * @param ip the image to measure
+	 * @param labels the labeled image this AtlasDataContainer was built from, or null to measure
+	 * within the Rois
+	 * @return true if the image has been measured, false if the process has been cancelled
+	 */
+	public boolean measure(ImagePlus ip, ImagePlus labels) {
+		return measure(new ImagePlus[] {ip}, labels);
+	}
+
+	/**
+	 * Measures all input images, as well as all channels/frames of hyperstacks, in a single pass
+	 * (see measure(ImagePlus[], ImagePlus))
+	 * @param images the images to measure
+	 * @return true if all images have been measured, false if the process has been cancelled
+	 */
+	public boolean measure(ImagePlus[] images) {
+		return measure(images, getLabelImage());
+	}
+
+	/**
+	 * Measures all input images, as well as all channels/frames of hyperstacks, in a single pass:
+	 * the labeled image or each Roi's mask is walked once, all images being measured at the same time.
+	 * Measurements are stored per image (see getMeasurementKey), previous measurements made on
+	 * other images being kept. The first measured image becomes the active one.
+	 * Should the process be cancelled, previous measurements are restored, and nothing is activated or journaled.
+	 * @param images the images to measure
+	 * @param labels the labeled image this AtlasDataContainer was built from, or null to measure
+	 * within the Rois
+	 * @return true if all images have been measured, false if the process has been cancelled
+	 * @throws IllegalArgumentException if the dimensions of an image do not match those of the labeled image (see checkDimensions)
+	 */
+	public boolean measure(ImagePlus[] images, ImagePlus labels) {
+		if(images==null || images.length==0) return false;
+		for(ImagePlus ip: images) checkDimensions(ip);
+
+		long start=System.currentTimeMillis();
+
+		LinkedHashMap<String, ImageStack> toMeasure=getMeasurementStacks(images);
+		String[] keys=toMeasure.keySet().toArray(new String[toMeasure.size()]);
+		ImageStack[] stacks=toMeasure.values().toArray(new ImageStack[toMeasure.size()]);
+
+		loadAllRois();
+		IdentityHashMap<RoiEntry, MeasurementsEntry[]> previous=saveMeasurements(keys);
+		boolean completed;
+		if(LabelImageMeasurer.isCompatible(labels, stacks)) {
+			completed=new LabelImageMeasurer(labels, stacks, keys, this).measure();
+		}else {
+			completed=measureWithinRois(stacks, keys);
 		}
 
 		long end=System.currentTimeMillis();
-		IJ.showStatus("!Measuring image - Done in "+tools.formatInterval(end-start));
+		if(!completed) {
+			restoreMeasurements(previous, keys);
+			IJ.showStatus("!Measuring "+keys.length+" image(s) - Cancelled in "+tools.formatInterval(end-start));
+			return false;
+		}
+		IJ.showStatus("!Measuring "+keys.length+" image(s) - Done in "+tools.formatInterval(end-start));
 
 		//Updates metadata
-		retrieveMetadataFromQuantifications(ip);
-		retrieveDimensions(ip);
+		retrieveMetadataFromQuantifications(images[0]);
+		retrieveDimensions(images[0]);
 
 		//Updates all per structure measurements
-		rebuildMeasurementsPerStructure(); 
+		setActiveMeasurements(keys[0]);
+
+		//Measurement records copy all structures and Rois: only built when journaled
+		if(isBoundToZON()) addChange(ZonJournal.measurements(this, keys));
+		return true;
 	}
 
 	/**
-	 * 
-	 * @param level 0: Per Structure, 1: Per Roi
-	 * @param type 0: Sum Intensity, 1: Mean Intensity, 2: Std Intensity, 3: Min Intensity, 4: Max Intensity, 5: ID
-	 * @param normType 0: No Normalization, 1: 100%=All Structures, 2: 100%=Selected Structures
+	 * Saves the measurements of each Roi made on the input images, so that they can be restored should
+	 * measuring be cancelled (see restoreMeasurements). Rois should have been loaded beforehand (see loadAllRois)
+	 * @param keys the keys of the images about to be measured
+	 * @return the previous measurements of each Roi, per key (null where there was none)
 	 */
-	public ImagePlus getImage(int level, int type, int norm, Integer[] ids) {		
-		String imgTitle=AtlasDataContainer.ANALYSIS_LEVEL[level]+"_"+AtlasDataContainer.ANALYSIS_MEASUREMENT[type]+"_"+AtlasDataContainer.ANALYSIS_NORM[norm];
-		ImagePlus ip=NewImage.createImage(imgTitle, Metadata.imgWidth, Metadata.imgHeight, Metadata.imgDepth, 32, NewImage.FILL_BLACK);
-
+	IdentityHashMap<RoiEntry, MeasurementsEntry[]> saveMeasurements(String[] keys) {
+		IdentityHashMap<RoiEntry, MeasurementsEntry[]> out=new IdentityHashMap<RoiEntry, MeasurementsEntry[]>();
+		for(AtlasEntry ae: Atlas.values()) {
+			for(RoiEntry re: ae.ROIs.values()) {
+				MeasurementsEntry[] mes=new MeasurementsEntry[keys.length];
+				for(int k=0; k<keys.length; k++) mes[k]=re.MeasurementsPerImage.get(keys[k]);
+				out.put(re, mes);
+			}
+		}
+		return out;
+	}
 
-		long start=System.currentTimeMillis();
-		final AtomicInteger ai = new AtomicInteger(1);
-		final Thread[] threads=new Thread[Runtime.getRuntime().availableProcessors()];
-		
-		//Prepare threads with what needs to be done
-		for (int ithread = 0; ithread < threads.length; ithread++){
-			threads[ithread] = new Thread(){
-				public void run() {
-					for (int id = 0; id <ids.length; id = ai.getAndIncrement()) {
-						ArrayList<Roi> rois=getRois(ids[id]);
-						MeasurementsEntry me=Atlas.get(ids[id]).Measurements;
-						for(int roiIndex=0; roiIndex<rois.size(); roiIndex++) {
-							Roi roi=rois.get(roiIndex); //Get the n-th roi
-							int slice=roi.getZPosition(); //Retrieve slice nb which also is the index in the ROIs objects
-							
-							if(level==1) me=Atlas.get(ids[id]).ROIs.get(slice).Measurements;
-
-							//Get the measurement
-							double fillValue=me.totalIntensity;
-							switch(type) {
-								case 0: //Sum Intensity, no need to update already the default
-									break;
-								case 1: //Mean Intensity
-									fillValue=me.meanIntensity;
-									break;
-								case 2: //Std Intensity
-									fillValue=me.stdIntensity;
-									break;
-								case 3: //Min Intensity
-									fillValue=me.minIntensity;
-									break;
-								case 4: //Max Intensity
-									fillValue=me.maxIntensity;
-									break;
-								case 5: //ID
-									fillValue=ids[id];
-									break;
-							}
-							
-							//Put it on image
-							ImageProcessor iproc=ip.getStack().getProcessor(slice);
-							iproc.setValue(fillValue);
-							iproc.fill(roi);
-							iproc.resetRoi();
-						}
-					}
+	/**
+	 * Restores the measurements of each Roi, as saved before measuring (see saveMeasurements): measurements
+	 * made on images that had not been measured before are removed
+	 * @param previous the previous measurements of each Roi, per key
+	 * @param keys the keys of the measured images (same order as when saved)
+	 */
+	void restoreMeasurements(IdentityHashMap<RoiEntry, MeasurementsEntry[]> previous, String[] keys) {
+		for(Map.Entry<RoiEntry, MeasurementsEntry[]> entry: previous.entrySet()) {
+			RoiEntry re=entry.getKey();
+			for(int k=0; k<keys.length; k++) {
+				MeasurementsEntry me=entry.getValue()[k];
+				if(me==null) {
+					re.MeasurementsPerImage.remove(keys[k]);
+				}else {
+					re.MeasurementsPerImage.put(keys[k], me);
 				}
-
-			};
+			}
 		}
+	}
 
-		//Initialize threads
-		for (int ithread = 0; ithread < threads.length; ++ithread){
-			threads[ithread].setPriority(Thread.MAX_PRIORITY);//NORM_PRIORITY);
-			threads[ithread].start();
+	/**
+	 * Checks that the input image has the same width, height and number of slices as the labeled image
+	 * the Rois were decoded from, as stored in the metadata
+	 * @param ip the image to check
+	 * @throws IllegalArgumentException if the dimensions do not match
+	 */
+	public void checkDimensions(ImagePlus ip) {
+		if(ip.getWidth()!=Metadata.imgWidth || ip.getHeight()!=Metadata.imgHeight || ip.getNSlices()!=Metadata.imgDepth) {
+			throw new IllegalArgumentException("The image "+ip.getTitle()+" ("+ip.getWidth()+"x"+ip.getHeight()+"x"+ip.getNSlices()+") can not be measured: its dimensions should match those of the labeled image ("
+					+Metadata.imgWidth+"x"+Metadata.imgHeight+"x"+Metadata.imgDepth+")");
 		}
+	}
 
-		try{
-			for (int ithread = 0; ithread < threads.length; ++ithread) {
-				threads[ithread].join();
+	/**
+	 * Measures the input stacks within each Roi, as a multi-threaded process.
+	 * Rois are not rasterized again: their run-length masks are retrieved from the RoiMaskCache,
+	 * and walked once for all stacks
+	 * @param stacks the stacks to measure
+	 * @param keys the keys under which the measurements of each stack are stored (same order as stacks)
+	 * @return true if all Rois have been measured, false if the process has been cancelled
+	 */
+	boolean measureWithinRois(ImageStack[] stacks, String[] keys) {
+		//Get an array with all ids
+		int[] ids=nameId.values().stream().mapToInt(Number::intValue).toArray();
+
+		boolean completed=parallelExecutor.forEach(0, ids.length, id -> {
+			AtlasEntry ae=Atlas.get(ids[id]);
+			if(ae==null) return;
+
+			for(RoiEntry re: ae.ROIs.values()) {
+				if(re.slice<1 || re.slice>stacks[0].getSize()) continue;
+
+				ImageProcessor[] iprocs=new ImageProcessor[stacks.length];
+				for(int k=0; k<stacks.length; k++) iprocs[k]=stacks[k].getProcessor(re.slice);
+
+				MeasurementsEntry[] mes=re.getMask(getMaskCache()).measure(iprocs);
+				for(int k=0; k<stacks.length; k++) re.MeasurementsPerImage.put(keys[k], mes[k]);
 			}
-		} catch (InterruptedException ie){
-			throw new RuntimeException(ie);
+		}, parallelExecutor.statusProgress("Measuring image"), null);
+
+		if(IJ.debugMode) IJ.log(getMaskCache().getStatistics());
+		return completed;
+	}
+
+	/**
+	 * Reads the Rois of all structures not read yet from the indexed ZON file this AtlasDataContainer
+	 * was opened from (see LazyRoiMap), and keeps them in memory. Should be called before any
+	 * process accessing or modifying the Rois of many structures, possibly from several threads
+	 */
+	public void loadAllRois() {
+		loadRois(Atlas.keySet().stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	/**
+	 * Reads the Rois of the input structures, as a multi-threaded process, if not read yet from the
+	 * indexed ZON file this AtlasDataContainer was opened from (see LazyRoiMap), and keeps them in memory.
+	 * The process can not be cancelled: callers write into the Rois, which should all be pinned.
+	 * @param ids the structures' ids
+	 */
+	public void loadRois(int[] ids) {
+		if(archive==null) return;
+
+		parallelExecutor.taskHandle handle=new parallelExecutor.taskHandle();
+		handle.cancelOnEscape=false;
+		if(!parallelExecutor.forEach(0, ids.length, index -> {
+			AtlasEntry ae=Atlas.get(ids[index]);
+			if(ae!=null && ae.ROIs instanceof LazyRoiMap) ((LazyRoiMap) ae.ROIs).pin();
+		}, parallelExecutor.statusProgress("Loading Rois"), handle)) {
+			throw new IllegalStateException("Rois could not all be loaded");
 		}
+	}
 
-		ip.setCalibration(Metadata.getCalibration());
-		
-		StackStatistics stats=new StackStatistics(ip);
-		ip.setDisplayRange(stats.min, stats.max);
-		
-		long end=System.currentTimeMillis();
-		IJ.showStatus("!Image creation - Done in "+tools.formatInterval(end-start));
-		
-		return ip;
+	/**
+	 * Creates a parametric map of the input structures (see MapRenderer), fully rendered
+	 * @param level 0: Per Structure, 1: Per Roi
+	 * @param type 0: Sum Intensity, 1: Mean Intensity, 2: Std Intensity, 3: Min Intensity, 4: Max Intensity, 5: ID
+	 * @param norm 0: No Normalization, 1: 100%=All Structures, 2: 100%=Selected Structures
+	 * @param ids the structures to render
+	 * @return the parametric map, as an ImagePlus, or null if rendering has been cancelled
+	 */
+	public ImagePlus getImage(int level, int type, int norm, Integer[] ids) {
+		ImagePlus[] out=getImages(new MapSpecification[] {new MapSpecification(level, type, norm)}, ids);
+		return out==null?null:out[0];
+	}
+
+	/**
+	 * Creates several parametric maps of the input structures at once, fully rendered: each slice is rendered
+	 * once for all maps
+	 * @param specs the maps to render
+	 * @param ids the structures to render
+	 * @return the parametric maps, as separate ImagePlus (same order as the specifications), or null if rendering has been cancelled
+	 */
+	public ImagePlus[] getImages(MapSpecification[] specs, Integer[] ids) {
+		return getImages(specs, ids, false);
+	}
+
+	/**
+	 * Creates several parametric maps of the input structures at once, each slice being rendered once for all maps
+	 * @param specs the maps to render
+	 * @param ids the structures to render
+	 * @param virtual true to get virtual stacks, rendering slices on demand from the measurements as they are now,
+	 * false to get fully rendered stacks
+	 * @return the parametric maps, as separate ImagePlus (same order as the specifications), or null if rendering has been cancelled
+	 */
+	public ImagePlus[] getImages(MapSpecification[] specs, Integer[] ids, boolean virtual) {
+		MapRenderer renderer=new MapRenderer(this, specs, ids);
+		return virtual?renderer.getVirtualImages():renderer.getImages();
+	}
+
+	/**
+	 * Creates several parametric maps of the input structures at once, as a single, fully rendered hyperstack:
+	 * each slice is rendered once for all maps
+	 * @param specs the maps to render
+	 * @param ids the structures to render
+	 * @return the parametric maps, as a single hyperstack (one channel per map, in the same order as the specifications),
+	 * or null if rendering has been cancelled
+	 */
+	public ImagePlus getImagesAsHyperstack(MapSpecification[] specs, Integer[] ids) {
+		return getImagesAsHyperstack(specs, ids, false);
+	}
+
+	/**
+	 * Creates several parametric maps of the input structures at once, each slice being rendered once for all maps
+	 * @param specs the maps to render
+	 * @param ids the structures to render
+	 * @param virtual true to get a virtual stack, rendering slices on demand, false to get a fully rendered stack
+	 * @return the parametric maps, as a single hyperstack (one channel per map, in the same order as the specifications),
+	 * or null if rendering has been cancelled
+	 */
+	public ImagePlus getImagesAsHyperstack(MapSpecification[] specs, Integer[] ids, boolean virtual) {
+		MapRenderer renderer=new MapRenderer(this, specs, ids);
+		return virtual?renderer.getVirtualHyperstack("Parametric maps"):renderer.getHyperstack("Parametric maps");
 	}
 
 	/**
@@ -359,31 +821,72 @@ public class AtlasDataContainer{
 	 * In case the input Set of indexes is either null or empty, sends all the Rois.
 	 * Rois are named after the anatomical region-Slice_(slice number, 4-digits)
 	 * or Unknown-Index_(index)-Slice_(slice number, 4-digits).
+	 * Rois are loaded in bulk: they are streamed to a temporary, uncompressed RoiSet (see toRoiSet),
+	 * which is opened by the Roi Manager while hidden, its list being populated without any
+	 * intermediate update.
 	 * NB: Before populating it, the Roi Manager is emptied
 	 */
 	public void toRoiManager(Set<Integer> ids) {
-		//Get All entries as a TreeMap to get sorted by names
-		TreeMap<String, Roi> allRois=new TreeMap<String, Roi>();
+		RoiManager rm= RoiManager.getRoiManager();
+		if(rm.getCount()!=0) rm.reset();
 
-		Set<Integer> indexes=(ids==null||ids.isEmpty())?Atlas.keySet():ids;
+		File tmp=null;
+		try {
+			tmp=File.createTempFile("AtlasRoiSet", ".zip");
+			tmp.deleteOnExit();
+			toRoiSet(tmp.getPath(), ids, 0);
+
+			boolean visible=rm.isVisible();
+			rm.setVisible(false);
+			rm.open(tmp.getPath());
+			rm.setVisible(visible);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if(tmp!=null) tmp.delete();
+		}
 
+		IJ.showStatus("!Atlas Data Container sent to RoiManager");
+	}
 
+	/**
+	 * Saves all the Rois from anatomical structure, for the provided indexes, as a RoiSet (zip file of
+	 * .roi files, as written by the Roi Manager), without going through the Roi Manager.
+	 * In case the input Set of indexes is either null or empty, saves all the Rois.
+	 * Rois are written in name order, one at a time: only their names and locations are kept in memory
+	 * beforehand. Rois sharing the same name are only written once. Unnamed Rois are named after their
+	 * anatomical region-Slice_(slice number, 4-digits).
+	 * @param path path to the RoiSet
+	 * @param ids the structures' ids
+	 * @param level the compression level, from 0 (none) to 9 (maximum)
+	 * @throws IOException
+	 */
+	public void toRoiSet(String path, Set<Integer> ids, int level) throws IOException {
+		Set<Integer> indexes=(ids==null||ids.isEmpty())?Atlas.keySet():ids;
+
+		//Get the location of each Rois, sorted by names: structure's id (high bits), slice (low bits)
+		TreeMap<String, Long> locations=new TreeMap<String, Long>();
 		for (Integer index : indexes) {
 			AtlasEntry ae=Atlas.get(index);
-			for (Map.Entry<Integer, RoiEntry> roiEntry : ae.ROIs.entrySet()) {
-				allRois.put(roiEntry.getValue().roi.getName(), roiEntry.getValue().roi);
+			if(ae==null) continue;
+			for (RoiEntry re : ae.ROIs.values()) {
+				if(re.roi!=null) locations.put(re.roi.getName()!=null?re.roi.getName():ae.name+"-Slice_"+IJ.pad(re.slice, 4), ((long) ae.id<<32)|(re.slice&0xFFFFFFFFL));
 			}
 		}
 
-		RoiManager rm= RoiManager.getRoiManager();
-		if(rm.getCount()!=0) rm.reset();
-
-		for (Map.Entry<String, Roi> entry : allRois.entrySet()) {
-			rm.addRoi(entry.getValue());
+		try(ZipOutputStream zos=new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1<<16))) {
+			zos.setLevel(Math.max(0, Math.min(9, level)));
+			int n=0;
+			for (Map.Entry<String, Long> entry : locations.entrySet()) {
+				RoiEntry re=Atlas.get((int) (entry.getValue()>>32)).ROIs.get((int) entry.getValue().longValue());
+				zos.putNextEntry(new ZipEntry(entry.getKey()+".roi"));
+				zos.write(RoiEncoder.saveAsByteArray(re.roi));
+				zos.closeEntry();
+				if(++n%1000==0) IJ.showProgress(n, locations.size());
+			}
 		}
-
-		allRois=null;
-		IJ.showStatus("!Atlas Data Container sent to RoiManager");
+		IJ.showProgress(1.0);
+		IJ.showStatus("!Atlas Data Container saved as a RoiSet");
 	}
 	
 	/**
@@ -428,53 +931,91 @@ public class AtlasDataContainer{
 	}
 
 	/**
-	 * Performs serialization of the current object and saves it as a ZON file 
-	 * (ZIP file containing the JSON file). The file is named AtlasDataContainer.zon 
-	 * and saved at the provided path
+	 * Performs serialization of the current object and saves it as a ZON file, using the indexed
+	 * layout (see ZonArchive): metadata, ontology, measurements and selection profiles are stored
+	 * as separate entries, together with one entry per structure holding its Rois
 	 * NB: a personalized serializer is used for Rois
-	 * @param path path of the folder where the AtlasDataContainer.zon file will be saved
+	 * The file holding all changes, its journal, if any, is deleted (see ZonJournal)
+	 * @param path path of the ZON file
 	 */
 	public void saveAsZON(String path) {
-		Gson gson = new GsonBuilder()
-				.registerTypeAdapter(RoiEntry.class, new jsonRoiEntry())
-				.setPrettyPrinting()
-				.create();
-
-		gson.toJson(this);
-
 		try {
-			FileOutputStream fos = new FileOutputStream(path);
-			ZipOutputStream zos = new ZipOutputStream(fos);
-			ZipEntry ze = new ZipEntry("AtlasDataContainer.json");
-			zos.putNextEntry(ze);
-			byte[] buffer = gson.toJson(this).getBytes();
-			zos.write(buffer);
-			zos.closeEntry();
-			zos.flush();
-			zos.close();
-			fos.flush();
-			fos.close();
+			ZonArchive.write(this, path, getZONCompressionLevel());
+			ZonJournal.delete(path);
+			zonPath=path;
+			pendingChanges=null;
+		} catch (JsonIOException e) {
+			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		IJ.showStatus("!Atlas Data Container saved as a ZON file");
 	}
 
+	/**
+	 * Saves the current object as a binary, columnar file (see ColumnarArchive)
+	 * @param path path of the columnar file
+	 */
+	public void saveAsColumnar(String path) {
+		try {
+			ColumnarArchive.write(this, path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		IJ.showStatus("!Atlas Data Container saved as a columnar file");
+	}
+
+	/**
+	 * Builds an AtlasDataContainer from a binary, columnar file (see ColumnarArchive)
+	 * @param path path to the columnar file
+	 * @return the AtlasDataContainer, or null if the file could not be read
+	 */
+	public static AtlasDataContainer openColumnar(String path) {
+		try(ColumnarArchive ca=ColumnarArchive.open(path)) {
+			AtlasDataContainer adc=ca.toAtlasDataContainer();
+			adc.rebuildMeasurementsWithDescendants();
+			IJ.showStatus("!Atlas Data Container opened from columnar file");
+			return adc;
+		} catch (IOException e) {
+			e.printStackTrace();
+			IJ.showStatus("!Could not build Atlas Data Container from columnar file");
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the compression level used to save ZON files, as stored in the ImageJ preferences
+	 * @return the compression level, from 0 (none) to 9 (maximum)
+	 */
+	public static int getZONCompressionLevel() {
+		return Math.max(0, Math.min(9, (int) Prefs.get(ZON_COMPRESSION_PREF, 6)));
+	}
+
+	/**
+	 * Sets and persists the compression level used to save ZON files
+	 * @param level the compression level, from 0 (none) to 9 (maximum)
+	 */
+	public static void setZONCompressionLevel(int level) {
+		Prefs.set(ZON_COMPRESSION_PREF, Math.max(0, Math.min(9, level)));
+	}
+
 	/**
 	 * Performs de-serialization of the input JSON file.
 	 * NB: a personalized de-serializer is used for Rois
 	 * @param path path to the input JSON file
 	 */
 	public static AtlasDataContainer openJSON(String path) {
+		//Rois are decoded in parallel while the file is being read
+		deferredRoiDecoder decoder=new deferredRoiDecoder();
 		Gson gson = new GsonBuilder()
-				.registerTypeAdapter(RoiEntry.class, new jsonRoiEntry())
+				.registerTypeAdapter(RoiEntry.class, new jsonRoiEntry(decoder))
 				.create();
 
 		AtlasDataContainer adc=null;
 		boolean success=true;
 
 		try {
-			adc=gson.fromJson(new FileReader(path), AtlasDataContainer.class);	
+			adc=gson.fromJson(new BufferedReader(new FileReader(path), 1<<16), AtlasDataContainer.class);
 		} catch (JsonSyntaxException e) {
 			e.printStackTrace();
 			success=false;
@@ -485,6 +1026,7 @@ public class AtlasDataContainer{
 			e.printStackTrace();
 			success=false;
 		}
+		decoder.await();
 
 		if(success) {
 			IJ.showStatus("!Atlas Data Container opened from JSON file");
@@ -493,19 +1035,31 @@ public class AtlasDataContainer{
 		}
 
 		adc.rebuildNameIdMap();
+		adc.rebuildMeasurementsWithDescendants();
 
 		return adc;
 	}
 	
 	/**
-	 * Performs de-serialization of the input ZON file 
-	 * (ZIP file containing the JSON file).
+	 * Performs de-serialization of the input ZON file. Indexed files (see ZonArchive) are opened
+	 * without reading any Roi, the Rois of each structure being read on first access. Former files
+	 * (ZIP file containing a single JSON file) are fully read.
+	 * The changes saved to the journal of the file, if any, are then replayed (see ZonJournal).
 	 * NB: a personalized serializer is used for Rois
 	 * @param path path to the input ZON file
 	 */
 	public static AtlasDataContainer openZON(String path) {
+		if(ZonArchive.isIndexed(path)) {
+			AtlasDataContainer adc=ZonArchive.open(path);
+			if(adc!=null) adc.replayJournal(path);
+			IJ.showStatus(adc!=null?"!Atlas Data Container opened from ZON file":"!Could not build Atlas Data Container from ZON file");
+			return adc;
+		}
+
+		//Rois are decoded in parallel while the file is being read
+		deferredRoiDecoder decoder=new deferredRoiDecoder();
 		Gson gson = new GsonBuilder()
-				.registerTypeAdapter(RoiEntry.class, new jsonRoiEntry())
+				.registerTypeAdapter(RoiEntry.class, new jsonRoiEntry(decoder))
 				.create();
 
 		AtlasDataContainer adc=null;
@@ -519,7 +1073,7 @@ public class AtlasDataContainer{
 				String fileName = ze.getName();
 
 				if(fileName.equals("AtlasDataContainer.json") ){
-					BufferedReader br = new BufferedReader(new InputStreamReader(zis));
+					BufferedReader br = new BufferedReader(new InputStreamReader(zis, StandardCharsets.UTF_8), 1<<16);
 					adc=gson.fromJson(br, AtlasDataContainer.class);
 					break;
 				}
@@ -537,6 +1091,7 @@ public class AtlasDataContainer{
 			e.printStackTrace();
 			success=false;
 		} 
+		decoder.await();
 
 		if(success) {
 			IJ.showStatus("!Atlas Data Container opened from ZON file");
@@ -545,10 +1100,22 @@ public class AtlasDataContainer{
 		}
 
 		adc.rebuildNameIdMap();
+		adc.replayJournal(path);
 
 		return adc;
 	}
 
+	/**
+	 * Binds this AtlasDataContainer to the ZON file it has been read from, and replays the changes
+	 * saved to its journal, if any (see ZonJournal)
+	 * @param path path to the ZON file
+	 */
+	void replayJournal(String path) {
+		zonPath=path;
+		ZonJournal.replay(this, path);
+		rebuildMeasurementsWithDescendants();
+	}
+
 	/**
 	 * Returns all Rois as a Roi ArrayList<Roi>, only for ids for which Roi was found
 	 * @return all Rois as a Roi ArrayList<Roi>
@@ -58,9 +58,18 @@ public class AtlasEntry {
 	/** Variables to store all extracted ROIs from the image */
 	public TreeMap<Integer, RoiEntry> ROIs=new TreeMap<Integer, RoiEntry>();
 
-	/** Variables to store all extracted measurements for the anatomical structure */
+	/** Variables to store all extracted measurements for the anatomical structure, for the active measured image */
 	public MeasurementsEntry Measurements=new MeasurementsEntry();;
 
+	/** Variables to store all extracted measurements for the anatomical structure, per measured image (key: image title) */
+	public TreeMap<String, MeasurementsEntry> MeasurementsPerImage=new TreeMap<String, MeasurementsEntry>();
+
+	/** Variables to store the measurements of the anatomical structure together with all its descendants in the ontology, for the active measured image (see AtlasDataContainer.rebuildMeasurementsWithDescendants) */
+	public transient MeasurementsEntry MeasurementsWithDescendants=new MeasurementsEntry();
+
+	/** Variables to store the measurements of the anatomical structure together with all its descendants in the ontology, per measured image (key: image title) */
+	public transient TreeMap<String, MeasurementsEntry> MeasurementsWithDescendantsPerImage=new TreeMap<String, MeasurementsEntry>();
+
 	/**
 	 * Creates a new empty AtlasEntry object. Numerical values are initialized to -1, String values to "Unkwown".
 	 */
@@ -125,13 +134,18 @@ public class AtlasEntry {
 	 * @return If found, returns the associated value, parsed as an Integer. If not found, returns -1.
 	 */
 	private int getInt(Map<String, String> description, String key) {
+		String value=description.get(key);
+
+		//Empty values are frequent in structure tree files: handled without throwing
+		if(value==null || value.isEmpty()) return -1;
+
 		int out=-1;
 		try {
-			out=Integer.parseInt(description.getOrDefault(key, "-1"));
-		} catch (Exception e) {
+			out=Integer.parseInt(value);
+		} catch (NumberFormatException e) {
 			/*
-			 * Do nothing, quietly handles the problem of empty 
-			 * values by catching any complain and returning -1
+			 * Do nothing, quietly handles the problem of non 
+			 * numerical values by returning -1
 			 */
 		}
 
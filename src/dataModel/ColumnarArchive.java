@@ -0,0 +1,1121 @@
+/**
+ * ColumnarArchive.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.awt.Color;
+import java.awt.Polygon;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.io.RoiDecoder;
+import ij.io.RoiEncoder;
+import ij.process.FloatPolygon;
+import utilities.tools;
+
+/**
+ * This class reads and writes AtlasDataContainers as a compact binary, columnar file (.acb).
+ * The file starts with a header and a directory of named, typed columns (int, float, double or byte),
+ * each being stored contiguously, little-endian, 8-bytes aligned:
+ * -structure.[field]: the AtlasEntries' fields, one value per structure, sorted by id. String fields
+ * are stored as a byte column of UTF-8 characters (.bytes) together with an offset table (.offsets)
+ * -structure.roiStart: offset table of the Rois of each structure, Rois being sorted by structure then slice
+ * -roi.slice, roi.position, roi.type, roi.color, roi.name: the Rois' attributes
+ * -roi.kind, roi.partStart, part.coordStart, coord.x, coord.y: the polygons' coordinates (one part per
+ * polygon, or per closed sub-path of a ShapeRoi). Other Rois are stored as .roi bytes (roi.encoded).
+ * -roi/structure.[active|m#].[field]: the measurements, for the active image and per measured image
+ * (# being the index of the measured image in measurement.keys). NaN stands for missing measurements.
+ * -container.json: the metadata, selection profiles and active measurements key.
+ * Opened files are memory-mapped, column by column: measurements can be queried without building any
+ * RoiEntry nor MeasurementsEntry (see toAtlasDataContainer to build them all, e.g. to export them with
+ * MeasurementsExporter).
+ */
+public class ColumnarArchive implements Closeable{
+	/** Identifies the file format ("ACB1") */
+	static final int MAGIC=0x31424341;
+
+	/** Version of the file format */
+	public static final int VERSION=1;
+
+	/** Extension of the files */
+	public static final String EXTENSION=".acb";
+
+	/** Length of a column name, in the directory */
+	static final int NAME_LENGTH=48;
+
+	/** Length of a directory entry: name, type, count, offset and length */
+	static final int ENTRY_LENGTH=NAME_LENGTH+24;
+
+	/** Length of the header: magic, version, number of columns, reserved */
+	static final int HEADER_LENGTH=16;
+
+	/** Column type: int */
+	static final int INT=1;
+
+	/** Column type: float */
+	static final int FLOAT=2;
+
+	/** Column type: double */
+	static final int DOUBLE=3;
+
+	/** Column type: byte */
+	static final int BYTE=4;
+
+	/** Roi kind: no Roi */
+	static final byte ROI_NONE=0;
+
+	/** Roi kind: PolygonRoi, integer coordinates */
+	static final byte ROI_POLYGON=1;
+
+	/** Roi kind: PolygonRoi, sub-pixel coordinates */
+	static final byte ROI_FLOAT_POLYGON=2;
+
+	/** Roi kind: ShapeRoi made of closed polygons */
+	static final byte ROI_SHAPE=3;
+
+	/** Roi kind: any other Roi, stored in ImageJ's binary format */
+	static final byte ROI_ENCODED=4;
+
+	/** Integer fields of AtlasEntry, stored as int columns */
+	static final String[] STRUCTURE_INT_FIELDS=new String[] {"id", "atlas_id", "ontology_id", "hemisphere_id", "weight", "parent_structure_id", "depth", "graph_id", "graph_order", "sphinx_id"};
+
+	/** String fields of AtlasEntry, stored as string columns */
+	static final String[] STRUCTURE_STRING_FIELDS=new String[] {"name", "acronym", "st_level", "structure_id_path", "color_hex_triplet", "neuro_name_structure_id", "neuro_name_structure_id_path", "failed", "structure_name_facet", "failed_facet", "safe_name"};
+
+	/** Names of the columns holding the integer fields of AtlasEntry */
+	static final String[] STRUCTURE_INT_COLUMNS=getColumnNames(STRUCTURE_INT_FIELDS);
+
+	/** Names of the columns holding the string fields of AtlasEntry */
+	static final String[] STRUCTURE_STRING_COLUMNS=getColumnNames(STRUCTURE_STRING_FIELDS);
+
+	/** Integer fields of AtlasEntry, resolved once */
+	static final Field[] STRUCTURE_INT_REFS=getFields(STRUCTURE_INT_FIELDS);
+
+	/** String fields of AtlasEntry, resolved once */
+	static final Field[] STRUCTURE_STRING_REFS=getFields(STRUCTURE_STRING_FIELDS);
+
+	/** Fields of MeasurementsEntry, stored as double columns */
+	public static final String[] MEASUREMENT_FIELDS=new String[] {"area", "volume", "totalIntensity", "meanIntensity", "stdIntensity", "minIntensity", "maxIntensity"};
+
+	/** The opened file */
+	private RandomAccessFile file=null;
+
+	/** The directory: type, count, offset and length of each column */
+	private HashMap<String, long[]> directory=new HashMap<String, long[]>();
+
+	/** Columns mapped so far */
+	private HashMap<String, ByteBuffer> mapped=new HashMap<String, ByteBuffer>();
+
+	/** Keys of the measured images */
+	private String[] keys=new String[0];
+
+	/** Number of structures */
+	private int nStructures=0;
+
+	/** Number of Rois */
+	private int nRois=0;
+
+	/**
+	 * Opens a columnar file: only its directory is read, columns being mapped on first access
+	 * @param path path to the file
+	 * @return the opened file
+	 * @throws IOException
+	 */
+	public static ColumnarArchive open(String path) throws IOException {
+		ColumnarArchive ca=new ColumnarArchive();
+		ca.file=new RandomAccessFile(path, "r");
+
+		try {
+			ByteBuffer header=ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			ca.file.getChannel().read(header, 0);
+			ByteBuffer dir=ByteBuffer.allocate(checkHeader(header, path)*ENTRY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			ca.file.getChannel().read(dir, HEADER_LENGTH);
+			dir.flip();
+			ca.readDirectory(dir);
+		} catch (IOException e) {
+			ca.close();
+			throw e;
+		}
+
+		ca.readCounts();
+		return ca;
+	}
+
+	/**
+	 * Reads a columnar file from a stream, such as a resource enclosed in the jar file: the whole
+	 * content is read in memory, columns being sliced from it
+	 * @param is the stream to read from
+	 * @param name name of the file, used in error messages
+	 * @return the read file
+	 * @throws IOException
+	 */
+	public static ColumnarArchive read(InputStream is, String name) throws IOException {
+		ColumnarArchive ca=new ColumnarArchive();
+		ByteBuffer content=ByteBuffer.wrap(tools.readAllBytes(is)).order(ByteOrder.LITTLE_ENDIAN);
+		if(content.capacity()<HEADER_LENGTH) throw new IOException(name+" is not an Atlas columnar file");
+
+		int nColumns=checkHeader(slice(content, 0, HEADER_LENGTH), name);
+		ca.readDirectory(slice(content, HEADER_LENGTH, nColumns*ENTRY_LENGTH));
+		for(Map.Entry<String, long[]> entry: ca.directory.entrySet()) {
+			long[] column=entry.getValue();
+			ca.mapped.put(entry.getKey(), slice(content, (int) column[2], (int) column[3]));
+		}
+
+		ca.readCounts();
+		return ca;
+	}
+
+	/**
+	 * Returns a little-endian view on a part of a buffer (ByteBuffer.slice(int, int) requires Java 13)
+	 * @param bb the buffer
+	 * @param index the position of the first byte of the view
+	 * @param length the number of bytes of the view
+	 * @return the view
+	 */
+	static ByteBuffer slice(ByteBuffer bb, int index, int length) {
+		ByteBuffer copy=bb.duplicate();
+		copy.position(index);
+		copy.limit(index+length);
+		return copy.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Checks the header of a columnar file
+	 * @param header the header
+	 * @param name name of the file, used in error messages
+	 * @return the number of columns
+	 * @throws IOException if the file is not a columnar file, or its version is not supported
+	 */
+	static int checkHeader(ByteBuffer header, String name) throws IOException {
+		if(header.getInt(0)!=MAGIC) throw new IOException(name+" is not an Atlas columnar file");
+		if(header.getInt(4)>VERSION) throw new IOException("Unsupported Atlas columnar file version: "+header.getInt(4));
+		return header.getInt(8);
+	}
+
+	/**
+	 * Reads the directory of a columnar file
+	 * @param dir the directory
+	 */
+	void readDirectory(ByteBuffer dir) {
+		byte[] name=new byte[NAME_LENGTH];
+		while(dir.remaining()>=ENTRY_LENGTH) {
+			dir.get(name);
+			int length=0;
+			while(length<NAME_LENGTH && name[length]!=0) length++;
+			directory.put(new String(name, 0, length, StandardCharsets.UTF_8), new long[] {dir.getInt(), dir.getInt(), dir.getLong(), dir.getLong()});
+		}
+	}
+
+	/**
+	 * Reads the number of structures, of Rois and the keys of the measured images. Files holding
+	 * no measurement.keys column (see OntologyCache) hold no measurement
+	 */
+	void readCounts() {
+		nStructures=getCount("structure.id");
+		nRois=getCount("roi.slice");
+		keys=new String[Math.max(0, getCount("measurement.keys.offsets")-1)];
+		for(int i=0; i<keys.length; i++) keys[i]=getString("measurement.keys", i);
+	}
+
+	/**
+	 * Closes the file
+	 */
+	@Override
+	public void close() {
+		try {
+			if(file!=null) file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file=null;
+		mapped.clear();
+	}
+
+	/**
+	 * Returns the number of values of a column
+	 * @param name the column's name
+	 * @return the number of values, 0 if the column does not exist
+	 */
+	int getCount(String name) {
+		long[] entry=directory.get(name);
+		return entry==null?0:(int) entry[1];
+	}
+
+	/**
+	 * Maps a column, if not already done
+	 * @param name the column's name
+	 * @return the column's bytes, or null if the column does not exist
+	 */
+	synchronized ByteBuffer getColumn(String name) {
+		ByteBuffer out=mapped.get(name);
+		if(out==null) {
+			long[] entry=directory.get(name);
+			if(entry==null) return null;
+			try {
+				out=file.getChannel().map(FileChannel.MapMode.READ_ONLY, entry[2], entry[3]).order(ByteOrder.LITTLE_ENDIAN);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			mapped.put(name, out);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns an int column
+	 * @param name the column's name
+	 * @return the column, as an IntBuffer (absolute accesses only)
+	 */
+	public IntBuffer getInts(String name) {
+		ByteBuffer bb=getColumn(name);
+		return bb==null?null:bb.asIntBuffer();
+	}
+
+	/**
+	 * Returns a float column
+	 * @param name the column's name
+	 * @return the column, as a FloatBuffer (absolute accesses only)
+	 */
+	public FloatBuffer getFloats(String name) {
+		ByteBuffer bb=getColumn(name);
+		return bb==null?null:bb.asFloatBuffer();
+	}
+
+	/**
+	 * Returns a double column
+	 * @param name the column's name
+	 * @return the column, as a DoubleBuffer (absolute accesses only)
+	 */
+	public DoubleBuffer getDoubles(String name) {
+		ByteBuffer bb=getColumn(name);
+		return bb==null?null:bb.asDoubleBuffer();
+	}
+
+	/**
+	 * Reads bytes from an absolute position of a buffer, without changing its position
+	 * (ByteBuffer.get(int, byte[]) requires Java 13)
+	 * @param bb the buffer
+	 * @param index the position of the first byte to read
+	 * @param dst the array to fill
+	 */
+	static void get(ByteBuffer bb, int index, byte[] dst) {
+		ByteBuffer copy=bb.duplicate();
+		copy.position(index);
+		copy.get(dst);
+	}
+
+	/**
+	 * Reads floats from an absolute position of a buffer, without changing its position
+	 * (FloatBuffer.get(int, float[]) requires Java 13)
+	 * @param fb the buffer
+	 * @param index the position of the first float to read
+	 * @param dst the array to fill
+	 */
+	static void get(FloatBuffer fb, int index, float[] dst) {
+		FloatBuffer copy=fb.duplicate();
+		copy.position(index);
+		copy.get(dst);
+	}
+
+	/**
+	 * Returns a value of a string column
+	 * @param name the column's name (without the .offsets/.bytes suffix)
+	 * @param index the index of the value
+	 * @return the value
+	 */
+	public String getString(String name, int index) {
+		IntBuffer offsets=getInts(name+".offsets");
+		ByteBuffer bytes=getColumn(name+".bytes");
+		int start=offsets.get(index);
+		byte[] value=new byte[offsets.get(index+1)-start];
+		get(bytes, start, value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of structures
+	 * @return the number of structures
+	 */
+	public int getNStructures() {
+		return nStructures;
+	}
+
+	/**
+	 * Returns the number of Rois
+	 * @return the number of Rois
+	 */
+	public int getNRois() {
+		return nRois;
+	}
+
+	/**
+	 * Returns the keys of the measured images
+	 * @return the keys of the measured images
+	 */
+	public String[] getMeasurementKeys() {
+		return keys.clone();
+	}
+
+	/**
+	 * Returns the id of a structure
+	 * @param structure the structure's index
+	 * @return the structure's id
+	 */
+	public int getStructureId(int structure) {
+		return getInts("structure.id").get(structure);
+	}
+
+	/**
+	 * Returns the index of a structure, structures being sorted by id
+	 * @param id the structure's id
+	 * @return the structure's index, or -1 if not found
+	 */
+	public int getStructureIndex(int id) {
+		IntBuffer ids=getInts("structure.id");
+		int low=0;
+		int high=nStructures-1;
+		while(low<=high) {
+			int middle=(low+high)>>>1;
+			int value=ids.get(middle);
+			if(value<id) {
+				low=middle+1;
+			}else if(value>id) {
+				high=middle-1;
+			}else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the first Roi of a structure
+	 * @param structure the structure's index
+	 * @return the index of the first Roi of the structure
+	 */
+	public int getRoiStart(int structure) {
+		return getInts("structure.roiStart").get(structure);
+	}
+
+	/**
+	 * Returns the index following the last Roi of a structure
+	 * @param structure the structure's index
+	 * @return the index following the last Roi of the structure
+	 */
+	public int getRoiEnd(int structure) {
+		return getInts("structure.roiStart").get(structure+1);
+	}
+
+	/**
+	 * Returns the slice of a Roi
+	 * @param roi the Roi's index
+	 * @return the slice of the Roi
+	 */
+	public int getRoiSlice(int roi) {
+		return getInts("roi.slice").get(roi);
+	}
+
+	/**
+	 * Returns the name of the measurement columns of a measured image
+	 * @param level "roi" or "structure"
+	 * @param key the key of the measured image, or null for the active measurements
+	 * @param field the measurement field (see MEASUREMENT_FIELDS)
+	 * @return the name of the column, or null if the image has not been measured
+	 */
+	String getMeasurementColumn(String level, String key, String field) {
+		if(key==null) return level+".active."+field;
+		int index=Arrays.asList(keys).indexOf(key);
+		return index<0?null:level+".m"+index+"."+field;
+	}
+
+	/**
+	 * Returns a measurement of a Roi
+	 * @param roi the Roi's index
+	 * @param key the key of the measured image, or null for the active measurements
+	 * @param field the measurement field (see MEASUREMENT_FIELDS)
+	 * @return the measurement, NaN if not measured
+	 */
+	public double getRoiMeasurement(int roi, String key, String field) {
+		String column=getMeasurementColumn("roi", key, field);
+		DoubleBuffer values=column==null?null:getDoubles(column);
+		return values==null?Double.NaN:values.get(roi);
+	}
+
+	/**
+	 * Returns a measurement of a structure
+	 * @param structure the structure's index
+	 * @param key the key of the measured image, or null for the active measurements
+	 * @param field the measurement field (see MEASUREMENT_FIELDS)
+	 * @return the measurement, NaN if not measured
+	 */
+	public double getStructureMeasurement(int structure, String key, String field) {
+		String column=getMeasurementColumn("structure", key, field);
+		DoubleBuffer values=column==null?null:getDoubles(column);
+		return values==null?Double.NaN:values.get(structure);
+	}
+
+	/**
+	 * Builds the MeasurementsEntry of a Roi or structure
+	 * @param level "roi" or "structure"
+	 * @param index the Roi's or structure's index
+	 * @param key the key of the measured image, or null for the active measurements
+	 * @return the MeasurementsEntry, or null if not measured
+	 */
+	MeasurementsEntry getMeasurementsEntry(String level, int index, String key) {
+		double[] values=new double[MEASUREMENT_FIELDS.length];
+		for(int i=0; i<values.length; i++) {
+			String column=getMeasurementColumn(level, key, MEASUREMENT_FIELDS[i]);
+			DoubleBuffer db=column==null?null:getDoubles(column);
+			values[i]=db==null?Double.NaN:db.get(index);
+		}
+		if(Double.isNaN(values[0])) return null;
+
+		MeasurementsEntry me=new MeasurementsEntry();
+		me.area=values[0];
+		me.volume=values[1];
+		me.totalIntensity=values[2];
+		me.meanIntensity=values[3];
+		me.stdIntensity=values[4];
+		me.minIntensity=values[5];
+		me.maxIntensity=values[6];
+		return me;
+	}
+
+	/**
+	 * Rebuilds a Roi
+	 * @param roi the Roi's index
+	 * @return the Roi, or null if none was stored
+	 */
+	public Roi getRoi(int roi) {
+		byte kind=getColumn("roi.kind").get(roi);
+		Roi out=null;
+
+		switch(kind) {
+			case ROI_ENCODED:
+				IntBuffer encodedStart=getInts("roi.encodedStart");
+				int start=encodedStart.get(roi);
+				byte[] bytes=new byte[encodedStart.get(roi+1)-start];
+				get(getColumn("roi.encoded"), start, bytes);
+				return RoiDecoder.openFromByteArray(bytes);
+
+			case ROI_POLYGON:
+			case ROI_FLOAT_POLYGON:
+			case ROI_SHAPE:
+				IntBuffer partStart=getInts("roi.partStart");
+				IntBuffer coordStart=getInts("part.coordStart");
+				FloatBuffer x=getFloats("coord.x");
+				FloatBuffer y=getFloats("coord.y");
+				int type=getInts("roi.type").get(roi);
+
+				if(kind==ROI_SHAPE) {
+					GeneralPath path=new GeneralPath(GeneralPath.WIND_EVEN_ODD);
+					for(int part=partStart.get(roi); part<partStart.get(roi+1); part++) {
+						for(int i=coordStart.get(part); i<coordStart.get(part+1); i++) {
+							if(i==coordStart.get(part)) {
+								path.moveTo(x.get(i), y.get(i));
+							}else {
+								path.lineTo(x.get(i), y.get(i));
+							}
+						}
+						path.closePath();
+					}
+					out=new ShapeRoi(path);
+				}else {
+					int part=partStart.get(roi);
+					int from=coordStart.get(part);
+					int n=coordStart.get(part+1)-from;
+					if(kind==ROI_POLYGON) {
+						int[] xi=new int[n];
+						int[] yi=new int[n];
+						for(int i=0; i<n; i++) {
+							xi[i]=(int) x.get(from+i);
+							yi[i]=(int) y.get(from+i);
+						}
+						out=new PolygonRoi(new Polygon(xi, yi, n), type);
+					}else {
+						float[] xf=new float[n];
+						float[] yf=new float[n];
+						get(x, from, xf);
+						get(y, from, yf);
+						out=new PolygonRoi(new FloatPolygon(xf, yf, n), type);
+					}
+				}
+
+				String name=getString("roi.name", roi);
+				if(!name.isEmpty()) out.setName(name);
+				int position=getInts("roi.position").get(roi);
+				if(position!=0) out.setPosition(position);
+				int color=getInts("roi.color").get(roi);
+				if(color!=0) out.setStrokeColor(new Color(color, true));
+				return out;
+
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Builds an AtlasDataContainer holding all structures, Rois and measurements
+	 * @return the AtlasDataContainer
+	 */
+	public AtlasDataContainer toAtlasDataContainer() {
+		AtlasDataContainer adc=new AtlasDataContainer();
+
+		container c=new Gson().fromJson(new String(getBytes("container.json"), StandardCharsets.UTF_8), container.class);
+		if(c.Metadata!=null) adc.Metadata=c.Metadata;
+		if(c.selectionProfiles!=null) adc.selectionProfiles=c.selectionProfiles;
+		adc.activeMeasurements=c.activeMeasurements;
+
+		for(int s=0; s<nStructures; s++) {
+			AtlasEntry ae=getAtlasEntry(s);
+
+			MeasurementsEntry me=getMeasurementsEntry("structure", s, null);
+			if(me!=null) ae.Measurements=me;
+			for(String key: keys) {
+				me=getMeasurementsEntry("structure", s, key);
+				if(me!=null) ae.MeasurementsPerImage.put(key, me);
+			}
+
+			for(int r=getRoiStart(s); r<getRoiEnd(s); r++) {
+				RoiEntry re=new RoiEntry();
+				re.slice=getRoiSlice(r);
+				re.roi=getRoi(r);
+				re.Measurements=getMeasurementsEntry("roi", r, null);
+				for(String key: keys) {
+					me=getMeasurementsEntry("roi", r, key);
+					if(me!=null) re.MeasurementsPerImage.put(key, me);
+				}
+				ae.ROIs.put(re.slice, re);
+			}
+
+			adc.Atlas.put(ae.id, ae);
+		}
+
+		adc.rebuildNameIdMap();
+		return adc;
+	}
+
+	/**
+	 * Builds the AtlasEntry describing a structure, without its Rois nor measurements
+	 * @param structure the structure's index
+	 * @return the AtlasEntry
+	 */
+	public AtlasEntry getAtlasEntry(int structure) {
+		AtlasEntry ae=new AtlasEntry();
+		try {
+			for(int i=0; i<STRUCTURE_INT_REFS.length; i++) STRUCTURE_INT_REFS[i].setInt(ae, getInts(STRUCTURE_INT_COLUMNS[i]).get(structure));
+			for(int i=0; i<STRUCTURE_STRING_REFS.length; i++) STRUCTURE_STRING_REFS[i].set(ae, getString(STRUCTURE_STRING_COLUMNS[i], structure));
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+		return ae;
+	}
+
+	/**
+	 * Resolves fields of AtlasEntry
+	 * @param names the fields' names
+	 * @return the fields
+	 */
+	static Field[] getFields(String[] names) {
+		Field[] out=new Field[names.length];
+		try {
+			for(int i=0; i<names.length; i++) out[i]=AtlasEntry.class.getField(names[i]);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		}
+		return out;
+	}
+
+	/**
+	 * Prefixes the names of fields of AtlasEntry with "structure."
+	 * @param names the fields' names
+	 * @return the columns' names
+	 */
+	static String[] getColumnNames(String[] names) {
+		String[] out=new String[names.length];
+		for(int i=0; i<names.length; i++) out[i]="structure."+names[i];
+		return out;
+	}
+
+	/**
+	 * Returns the content of a byte column
+	 * @param name the column's name
+	 * @return the content of the column
+	 */
+	byte[] getBytes(String name) {
+		ByteBuffer bb=getColumn(name);
+		byte[] out=new byte[bb.capacity()];
+		get(bb, 0, out);
+		return out;
+	}
+
+	/**
+	 * Saves an AtlasDataContainer as a columnar file. Structures are walked once, their Rois being
+	 * read one structure at a time when the container was opened from an indexed ZON file.
+	 * @param adc the AtlasDataContainer to save
+	 * @param path path to the file
+	 * @throws IOException
+	 */
+	public static void write(AtlasDataContainer adc, String path) throws IOException {
+		LinkedHashMap<String, column> columns=new LinkedHashMap<String, column>();
+		String[] keys=adc.getMeasurementKeys().toArray(new String[0]);
+
+		column[] intFields=new column[STRUCTURE_INT_FIELDS.length];
+		for(int i=0; i<intFields.length; i++) intFields[i]=addColumn(columns, "structure."+STRUCTURE_INT_FIELDS[i], INT);
+		column[][] stringFields=new column[STRUCTURE_STRING_FIELDS.length][];
+		for(int i=0; i<stringFields.length; i++) stringFields[i]=addStringColumn(columns, "structure."+STRUCTURE_STRING_FIELDS[i]);
+		column roiStart=addColumn(columns, "structure.roiStart", INT);
+
+		column[] keyColumn=addStringColumn(columns, "measurement.keys");
+		for(String key: keys) addString(keyColumn, key);
+
+		column slice=addColumn(columns, "roi.slice", INT);
+		column position=addColumn(columns, "roi.position", INT);
+		column type=addColumn(columns, "roi.type", INT);
+		column color=addColumn(columns, "roi.color", INT);
+		column[] name=addStringColumn(columns, "roi.name");
+		column kind=addColumn(columns, "roi.kind", BYTE);
+		column partStart=addColumn(columns, "roi.partStart", INT);
+		column coordStart=addColumn(columns, "part.coordStart", INT);
+		column x=addColumn(columns, "coord.x", FLOAT);
+		column y=addColumn(columns, "coord.y", FLOAT);
+		column encodedStart=addColumn(columns, "roi.encodedStart", INT);
+		column encoded=addColumn(columns, "roi.encoded", BYTE);
+
+		column[][] structureMeasurements=new column[keys.length+1][];
+		column[][] roiMeasurements=new column[keys.length+1][];
+		for(int k=0; k<=keys.length; k++) {
+			String block=k==0?"active":"m"+(k-1);
+			structureMeasurements[k]=new column[MEASUREMENT_FIELDS.length];
+			roiMeasurements[k]=new column[MEASUREMENT_FIELDS.length];
+			for(int i=0; i<MEASUREMENT_FIELDS.length; i++) {
+				structureMeasurements[k][i]=addColumn(columns, "structure."+block+"."+MEASUREMENT_FIELDS[i], DOUBLE);
+				roiMeasurements[k][i]=addColumn(columns, "roi."+block+"."+MEASUREMENT_FIELDS[i], DOUBLE);
+			}
+		}
+
+		roiStart.add(0);
+		partStart.add(0);
+		coordStart.add(0);
+		encodedStart.add(0);
+
+		for(AtlasEntry ae: adc.Atlas.values()) {
+			try {
+				for(int i=0; i<intFields.length; i++) intFields[i].add(STRUCTURE_INT_REFS[i].getInt(ae));
+				for(int i=0; i<stringFields.length; i++) addString(stringFields[i], (String) STRUCTURE_STRING_REFS[i].get(ae));
+			} catch (ReflectiveOperationException e) {
+				throw new IOException(e);
+			}
+
+			for(int k=0; k<=keys.length; k++) addMeasurements(structureMeasurements[k], k==0?ae.Measurements:ae.MeasurementsPerImage.get(keys[k-1]));
+
+			for(RoiEntry re: ae.ROIs.values()) {
+				slice.add(re.slice);
+				for(int k=0; k<=keys.length; k++) addMeasurements(roiMeasurements[k], k==0?re.Measurements:re.MeasurementsPerImage.get(keys[k-1]));
+
+				Roi roi=re.roi;
+				position.add(roi==null?0:roi.getPosition());
+				type.add(roi==null?-1:roi.getType());
+				color.add(roi==null || roi.getStrokeColor()==null?0:roi.getStrokeColor().getRGB());
+				addString(name, roi==null || roi.getName()==null?"":roi.getName());
+
+				byte roiKind=addCoordinates(roi, partStart, coordStart, x, y);
+				if(roiKind==ROI_ENCODED) encoded.add(RoiEncoder.saveAsByteArray(roi));
+				kind.add(roiKind);
+				encodedStart.add(encoded.size);
+			}
+			roiStart.add(slice.size);
+		}
+
+		container c=new container();
+		c.Metadata=adc.Metadata;
+		c.selectionProfiles=adc.selectionProfiles;
+		c.activeMeasurements=adc.activeMeasurements;
+		addColumn(columns, "container.json", BYTE).add(new Gson().toJson(c).getBytes(StandardCharsets.UTF_8));
+
+		writeColumns(columns, path);
+	}
+
+	/**
+	 * Stores the coordinates of a Roi, if it is a polygon or a ShapeRoi made of closed polygons
+	 * bearing no other attribute than its name, position and stroke color
+	 * @param roi the Roi
+	 * @param partStart offset table of the parts of each Roi
+	 * @param coordStart offset table of the coordinates of each part
+	 * @param x the x coordinates
+	 * @param y the y coordinates
+	 * @return the kind of Roi: ROI_ENCODED if the Roi could not be stored as coordinates
+	 */
+	static byte addCoordinates(Roi roi, column partStart, column coordStart, column x, column y) {
+		if(roi==null) {
+			partStart.add(coordStart.size-1);
+			return ROI_NONE;
+		}
+
+		boolean plain=roi.getFillColor()==null && roi.getStroke()==null && roi.getProperties()==null && !roi.hasHyperStackPosition() && roi.getGroup()==0;
+		if(plain && roi.getClass()==PolygonRoi.class) {
+			FloatPolygon fp=roi.getFloatPolygon();
+			for(int i=0; i<fp.npoints; i++) {
+				x.add(fp.xpoints[i]);
+				y.add(fp.ypoints[i]);
+			}
+			coordStart.add(x.size);
+			partStart.add(coordStart.size-1);
+			return roi.subPixelResolution()?ROI_FLOAT_POLYGON:ROI_POLYGON;
+		}
+
+		if(plain && roi.getClass()==ShapeRoi.class) {
+			int xStart=x.size;
+			int partsStart=coordStart.size;
+			boolean closed=true;
+			float[] coords=new float[6];
+			PathIterator pi=((ShapeRoi) roi).getShape().getPathIterator(AffineTransform.getTranslateInstance(roi.getXBase(), roi.getYBase()));
+			for(; !pi.isDone(); pi.next()) {
+				int segment=pi.currentSegment(coords);
+				if(segment==PathIterator.SEG_MOVETO) {
+					if(!closed) break;
+					closed=false;
+					x.add(coords[0]);
+					y.add(coords[1]);
+				}else if(segment==PathIterator.SEG_LINETO && !closed) {
+					x.add(coords[0]);
+					y.add(coords[1]);
+				}else if(segment==PathIterator.SEG_CLOSE && !closed) {
+					closed=true;
+					coordStart.add(x.size);
+				}else {
+					closed=false;
+					break;
+				}
+			}
+
+			if(closed && pi.isDone()) {
+				partStart.add(coordStart.size-1);
+				return ROI_SHAPE;
+			}
+
+			//Rolls back: the Roi is stored in ImageJ's binary format
+			x.size=xStart;
+			y.size=xStart;
+			coordStart.size=partsStart;
+		}
+
+		partStart.add(coordStart.size-1);
+		return ROI_ENCODED;
+	}
+
+	/**
+	 * Adds the values of a MeasurementsEntry to the measurement columns (NaN if null)
+	 * @param columns the measurement columns, in the order of MEASUREMENT_FIELDS
+	 * @param me the MeasurementsEntry
+	 */
+	static void addMeasurements(column[] columns, MeasurementsEntry me) {
+		columns[0].add(me==null?Double.NaN:me.area);
+		columns[1].add(me==null?Double.NaN:me.volume);
+		columns[2].add(me==null?Double.NaN:me.totalIntensity);
+		columns[3].add(me==null?Double.NaN:me.meanIntensity);
+		columns[4].add(me==null?Double.NaN:me.stdIntensity);
+		columns[5].add(me==null?Double.NaN:me.minIntensity);
+		columns[6].add(me==null?Double.NaN:me.maxIntensity);
+	}
+
+	/**
+	 * Creates and registers a column
+	 * @param columns the registered columns
+	 * @param name the column's name
+	 * @param type the column's type
+	 * @return the column
+	 */
+	static column addColumn(Map<String, column> columns, String name, int type) {
+		column c=new column(type);
+		columns.put(name, c);
+		return c;
+	}
+
+	/**
+	 * Creates and registers a string column: an offset table and a byte column
+	 * @param columns the registered columns
+	 * @param name the column's name
+	 * @return the offset table and the byte column
+	 */
+	static column[] addStringColumn(Map<String, column> columns, String name) {
+		column[] out=new column[] {addColumn(columns, name+".offsets", INT), addColumn(columns, name+".bytes", BYTE)};
+		out[0].add(0);
+		return out;
+	}
+
+	/**
+	 * Adds a value to a string column
+	 * @param stringColumn the offset table and the byte column
+	 * @param value the value to add
+	 */
+	static void addString(column[] stringColumn, String value) {
+		stringColumn[1].add((value==null?"":value).getBytes(StandardCharsets.UTF_8));
+		stringColumn[0].add(stringColumn[1].size);
+	}
+
+	/**
+	 * Writes the header, the directory and all columns
+	 * @param columns the columns to write
+	 * @param path path to the file
+	 * @throws IOException
+	 */
+	static void writeColumns(LinkedHashMap<String, column> columns, String path) throws IOException {
+		ByteBuffer buffer=ByteBuffer.allocate(1<<20).order(ByteOrder.LITTLE_ENDIAN);
+
+		try(RandomAccessFile raf=new RandomAccessFile(path, "rw")) {
+			raf.setLength(0);
+			FileChannel fc=raf.getChannel();
+
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(columns.size()).putInt(0);
+
+			long offset=align(HEADER_LENGTH+(long) columns.size()*ENTRY_LENGTH);
+			for(Map.Entry<String, column> entry: columns.entrySet()) {
+				byte[] name=entry.getKey().getBytes(StandardCharsets.UTF_8);
+				if(name.length>NAME_LENGTH) throw new IOException("Column name too long: "+entry.getKey());
+
+				column c=entry.getValue();
+				buffer.put(name).put(new byte[NAME_LENGTH-name.length]);
+				buffer.putInt(c.type).putInt(c.size).putLong(offset).putLong(c.getByteLength());
+				offset=align(offset+c.getByteLength());
+				if(buffer.remaining()<ENTRY_LENGTH) flush(fc, buffer);
+			}
+			flush(fc, buffer);
+
+			for(column c: columns.values()) {
+				fc.position(align(fc.position()));
+				c.write(fc, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Rounds an offset up to the next multiple of 8
+	 * @param offset the offset
+	 * @return the aligned offset
+	 */
+	static long align(long offset) {
+		return (offset+7)&~7L;
+	}
+
+	/**
+	 * Writes the content of the buffer to the channel, then clears the buffer
+	 * @param fc the channel
+	 * @param buffer the buffer
+	 * @throws IOException
+	 */
+	static void flush(FileChannel fc, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) fc.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Converts a ZON file into a columnar file
+	 * @param zonPath path to the ZON file
+	 * @param columnarPath path to the columnar file
+	 * @throws IOException
+	 */
+	public static void convertZONToColumnar(String zonPath, String columnarPath) throws IOException {
+		AtlasDataContainer adc=AtlasDataContainer.openZON(zonPath);
+		if(adc==null) throw new IOException("Could not open "+zonPath);
+		write(adc, columnarPath);
+	}
+
+	/**
+	 * Converts a columnar file into a ZON file
+	 * @param columnarPath path to the columnar file
+	 * @param zonPath path to the ZON file
+	 * @throws IOException
+	 */
+	public static void convertColumnarToZON(String columnarPath, String zonPath) throws IOException {
+		try(ColumnarArchive ca=open(columnarPath)) {
+			ca.toAtlasDataContainer().saveAsZON(zonPath);
+		}
+	}
+
+	/**
+	 * This class holds the content of the container.json column
+	 */
+	static class container{
+		/** The metadata */
+		MetadataContainer Metadata;
+
+		/** The selection profiles */
+		TreeMap<String, Set<Integer>> selectionProfiles;
+
+		/** Key of the active measurements */
+		String activeMeasurements;
+	}
+
+	/**
+	 * This class holds a column being built, as a growable primitive array
+	 */
+	static class column{
+		/** The column's type */
+		final int type;
+
+		/** The number of values */
+		int size=0;
+
+		/** Values of int columns */
+		int[] ints;
+
+		/** Values of float columns */
+		float[] floats;
+
+		/** Values of double columns */
+		double[] doubles;
+
+		/** Values of byte columns */
+		byte[] bytes;
+
+		/**
+		 * Creates a new empty column
+		 * @param type the column's type
+		 */
+		column(int type) {
+			this.type=type;
+			switch(type) {
+				case INT: ints=new int[16]; break;
+				case FLOAT: floats=new float[16]; break;
+				case DOUBLE: doubles=new double[16]; break;
+				default: bytes=new byte[16];
+			}
+		}
+
+		/**
+		 * Returns the capacity to use to store the input number of values
+		 * @param length the current capacity
+		 * @param required the number of values to store
+		 * @return the new capacity
+		 */
+		static int grow(int length, int required) {
+			return Math.max(required, length+(length>>1));
+		}
+
+		/**
+		 * Adds a value to an int column
+		 * @param value the value
+		 */
+		void add(int value) {
+			if(size==ints.length) ints=Arrays.copyOf(ints, grow(ints.length, size+1));
+			ints[size++]=value;
+		}
+
+		/**
+		 * Adds a value to a float column
+		 * @param value the value
+		 */
+		void add(float value) {
+			if(size==floats.length) floats=Arrays.copyOf(floats, grow(floats.length, size+1));
+			floats[size++]=value;
+		}
+
+		/**
+		 * Adds a value to a double column
+		 * @param value the value
+		 */
+		void add(double value) {
+			if(size==doubles.length) doubles=Arrays.copyOf(doubles, grow(doubles.length, size+1));
+			doubles[size++]=value;
+		}
+
+		/**
+		 * Adds a value to a byte column
+		 * @param value the value
+		 */
+		void add(byte value) {
+			if(size==bytes.length) bytes=Arrays.copyOf(bytes, grow(bytes.length, size+1));
+			bytes[size++]=value;
+		}
+
+		/**
+		 * Adds values to a byte column
+		 * @param values the values
+		 */
+		void add(byte[] values) {
+			if(size+values.length>bytes.length) bytes=Arrays.copyOf(bytes, grow(bytes.length, size+values.length));
+			System.arraycopy(values, 0, bytes, size, values.length);
+			size+=values.length;
+		}
+
+		/**
+		 * Returns the length of the column, in bytes
+		 * @return the length of the column, in bytes
+		 */
+		long getByteLength() {
+			switch(type) {
+				case INT: return 4L*size;
+				case FLOAT: return 4L*size;
+				case DOUBLE: return 8L*size;
+				default: return size;
+			}
+		}
+
+		/**
+		 * Writes the column's values
+		 * @param fc the channel to write to
+		 * @param buffer the buffer to use
+		 * @throws IOException
+		 */
+		void write(FileChannel fc, ByteBuffer buffer) throws IOException {
+			buffer.clear();
+			for(int i=0; i<size; i++) {
+				if(buffer.remaining()<8) flush(fc, buffer);
+				switch(type) {
+					case INT: buffer.putInt(ints[i]); break;
+					case FLOAT: buffer.putFloat(floats[i]); break;
+					case DOUBLE: buffer.putDouble(doubles[i]); break;
+					default: buffer.put(bytes[i]);
+				}
+			}
+			flush(fc, buffer);
+		}
+	}
+}
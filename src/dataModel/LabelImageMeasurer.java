@@ -0,0 +1,194 @@
+/**
+ * LabelImageMeasurer.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import utilities.parallelExecutor;
+
+/**
+ * This class measures an intensity image using the labeled image the AtlasDataContainer was built from,
+ * rather than its Rois: both stacks are walked together, once, slice by slice. For each slice,
+ * count/sum/sum of squares/min/max are accumulated per label in primitive arrays indexed by a compact
+ * label index, then pushed to the corresponding RoiEntry. No Roi nor mask is involved.
+ * Several intensity stacks can be measured at once: the labels are then decoded only once per slice.
+ */
+public class LabelImageMeasurer {
+	/** The labeled image */
+	ImagePlus labels=null;
+
+	/** The stacks to measure */
+	ImageStack[] intensities=null;
+
+	/** The keys under which the measurements of each stack are stored (same order as intensities) */
+	String[] keys=null;
+
+	/** The AtlasDataContainer in which to store measurements */
+	AtlasDataContainer adc=null;
+
+	/** Sorted ids of the structures having Rois: the position in this array is the compact label index */
+	int[] ids=new int[0];
+
+	/** Correspondence table label/compact index for 8- and 16-bit labeled images (null otherwise) */
+	int[] denseIndex=null;
+
+	/**
+	 * Creates a new LabelImageMeasurer
+	 * @param labels the labeled image the AtlasDataContainer was built from
+	 * @param intensities the stacks to measure, each having as many slices as the labeled image
+	 * @param keys the keys under which the measurements of each stack are stored (same order as intensities)
+	 * @param adc the AtlasDataContainer in which to store measurements
+	 */
+	public LabelImageMeasurer(ImagePlus labels, ImageStack[] intensities, String[] keys, AtlasDataContainer adc) {
+		this.labels=labels;
+		this.intensities=intensities;
+		this.keys=keys;
+		this.adc=adc;
+
+		ids=adc.Atlas.entrySet().stream().filter(e -> !e.getValue().ROIs.isEmpty()).mapToInt(Map.Entry::getKey).toArray();
+
+		int bitDepth=labels.getBitDepth();
+		if(bitDepth==8 || bitDepth==16) {
+			denseIndex=new int[bitDepth==8?256:65536];
+			Arrays.fill(denseIndex, -1);
+			for(int i=0; i<ids.length; i++) if(ids[i]>=0 && ids[i]<denseIndex.length) denseIndex[ids[i]]=i;
+		}
+	}
+
+	/**
+	 * Checks whether the labeled image and all stacks to measure have the same dimensions
+	 * @param labels the labeled image
+	 * @param intensities the stacks to measure
+	 * @return true if all stacks have the same width, height and number of slices as the labeled image
+	 */
+	public static boolean isCompatible(ImagePlus labels, ImageStack[] intensities) {
+		if(labels==null || intensities==null) return false;
+
+		for(ImageStack stack: intensities) {
+			if(stack.getWidth()!=labels.getWidth() || stack.getHeight()!=labels.getHeight() || stack.getSize()!=labels.getStackSize()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Performs the measurements, as a multi-threaded process (one slice per task)
+	 * @return true if all slices have been measured, false if the process has been cancelled
+	 */
+	public boolean measure() {
+		return parallelExecutor.forEach(1, labels.getStackSize()+1, slice -> measureSlice(slice), parallelExecutor.statusProgress("Measuring image"), null);
+	}
+
+	/**
+	 * Converts the labels of a slice into compact label indexes, reading the pixels array directly
+	 * @param labelProc the labeled slice
+	 * @return the compact label index of each pixel, -1 for labels without Rois
+	 */
+	int[] getCompactIndexes(ImageProcessor labelProc) {
+		Object pixels=labelProc.getPixels();
+		int nPixels=labelProc.getPixelCount();
+		int[] out=new int[nPixels];
+
+		if(pixels instanceof byte[]) {
+			byte[] p=(byte[]) pixels;
+			for(int i=0; i<nPixels; i++) out[i]=denseIndex[p[i]&0xff];
+		}else if(pixels instanceof short[]) {
+			short[] p=(short[]) pixels;
+			for(int i=0; i<nPixels; i++) out[i]=denseIndex[p[i]&0xffff];
+		}else {
+			int lastLabel=0;
+			int lastIndex=Arrays.binarySearch(ids, 0);
+			for(int i=0; i<nPixels; i++) {
+				int label=(int) labelProc.getf(i);
+				if(label!=lastLabel) {
+					lastLabel=label;
+					lastIndex=Arrays.binarySearch(ids, label);
+				}
+				out[i]=lastIndex<0?-1:lastIndex;
+			}
+		}
+
+		return out;
+	}
+
+	/**
+	 * Measures a single slice of all stacks and pushes the results to the RoiEntries of this slice
+	 * @param slice the slice to measure
+	 */
+	void measureSlice(int slice) {
+		ImageProcessor labelProc=labels.getStack().getProcessor(slice);
+		int nPixels=labelProc.getPixelCount();
+		int n=ids.length;
+		int nImages=intensities.length;
+
+		int[] count=new int[n];
+		int[] compact=getCompactIndexes(labelProc);
+		for(int i=0; i<nPixels; i++) if(compact[i]>=0) count[compact[i]]++;
+
+		for(int k=0; k<nImages; k++) {
+			ImageProcessor intensityProc=intensities[k].getProcessor(slice);
+
+			double[] sum=new double[n];
+			double[] shift=new double[n];
+			boolean[] shiftSet=new boolean[n];
+			double[] sumShifted=new double[n];
+			double[] sum2Shifted=new double[n];
+			double[] min=new double[n];
+			double[] max=new double[n];
+			Arrays.fill(min, Double.MAX_VALUE);
+			Arrays.fill(max, -Double.MAX_VALUE);
+
+			for(int i=0; i<nPixels; i++) {
+				int index=compact[i];
+				if(index<0) continue;
+
+				double value=intensityProc.getf(i);
+				if(!shiftSet[index]) {
+					//Squares are accumulated around the first value of each label (see MeasurementsAccumulator.fromSums)
+					shift[index]=value;
+					shiftSet[index]=true;
+				}
+				double shifted=value-shift[index];
+				sum[index]+=value;
+				sumShifted[index]+=shifted;
+				sum2Shifted[index]+=shifted*shifted;
+				if(value<min[index]) min[index]=value;
+				if(value>max[index]) max[index]=value;
+			}
+
+			//Pushes results to the RoiEntries: each one is only written by the task handling its slice
+			for(int index=0; index<n; index++) {
+				if(count[index]==0) continue;
+
+				RoiEntry re=adc.Atlas.get(ids[index]).ROIs.get(slice);
+				if(re==null) continue;
+
+				re.MeasurementsPerImage.put(keys[k], MeasurementsEntry.fromMoments(count[index], sum[index], shift[index], sumShifted[index], sum2Shifted[index], min[index], max[index]));
+			}
+		}
+	}
+}
@@ -0,0 +1,420 @@
+/**
+ * LazyRoiMap.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This class stores the Rois of a structure read from an indexed ZON file (see ZonArchive): they are only
+ * read from the file on first access. The number of Rois being known from the index, size and isEmpty
+ * do not trigger any reading. Unmodified, unpinned maps are evicted (their Rois being read again on next
+ * access) once too many structures of the same archive are loaded, or when memory runs low.
+ * As an unpinned map may be evicted by another thread at any time, its views (values, keySet, entrySet,
+ * sub-maps...) are read-only snapshots, and each read is atomic with respect to eviction. Pinned maps,
+ * which are never evicted, hand out live views. RoiEntries read from an unpinned map should not be modified
+ * in place, as such changes are lost once the map is evicted: the map should be pinned first (see pin).
+ * Bulk parallel processes should pin the maps they use (see AtlasDataContainer.loadAllRois).
+ */
+public class LazyRoiMap extends TreeMap<Integer, RoiEntry> {
+	private static final long serialVersionUID = 1L;
+
+	/** Key used to store the maximum number of loaded, unpinned structures per ZON file in the ImageJ preferences */
+	public static final String MAX_LOADED_PREF="AtlasUtilities.maxLoadedStructures";
+
+	/** The archive from which the Rois are read */
+	final transient ZonArchive archive;
+
+	/** The id of the structure */
+	final int id;
+
+	/** The number of Rois, as stored in the archive's index */
+	final int count;
+
+	/** True once the Rois have been read */
+	private volatile boolean loaded=false;
+
+	/** True once the map has been modified, or pinned: it can then not be evicted anymore */
+	private volatile boolean pinned=false;
+
+	/**
+	 * Creates a new LazyRoiMap
+	 * @param archive the archive from which the Rois are read
+	 * @param id the id of the structure
+	 * @param count the number of Rois, as stored in the archive's index
+	 */
+	LazyRoiMap(ZonArchive archive, int id, int count) {
+		this.archive=archive;
+		this.id=id;
+		this.count=count;
+	}
+
+	/**
+	 * Returns true if the Rois have been read from the archive
+	 * @return true if the Rois have been read from the archive
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Reads the Rois, if not already done, and prevents them from being evicted
+	 */
+	public void pin() {
+		pinned=true;
+		archive.forget(this);
+		synchronized(this) {
+			load();
+		}
+	}
+
+	/**
+	 * Reads the Rois from the archive if not already done. Should be called while holding the lock on the map
+	 */
+	private void load() {
+		if(!loaded) {
+			for(RoiEntry re: archive.readRois(id)) super.put(re.slice, re);
+			loaded=true;
+		}
+	}
+
+	/**
+	 * Performs a read operation on the loaded map, without any eviction happening meanwhile,
+	 * then marks the map as recently used (which may evict other maps of the archive)
+	 * @param reader the read operation
+	 * @return the result of the read operation
+	 */
+	private <T> T read(Supplier<T> reader) {
+		T out;
+		synchronized(this) {
+			load();
+			out=reader.get();
+		}
+		if(!pinned) archive.touch(this);
+		return out;
+	}
+
+	/**
+	 * Returns a copy of the loaded map. Should be called while holding the lock on the map
+	 * @return a copy of the loaded map
+	 */
+	private TreeMap<Integer, RoiEntry> snapshot() {
+		TreeMap<Integer, RoiEntry> out=new TreeMap<Integer, RoiEntry>();
+		for(Map.Entry<Integer, RoiEntry> entry: super.entrySet()) out.put(entry.getKey(), entry.getValue());
+		return out;
+	}
+
+	/**
+	 * Drops the Rois from memory, unless the map has been modified or pinned in the meantime.
+	 * Only called by the archive, when the map is the least recently used one
+	 */
+	synchronized void evict() {
+		if(loaded && !pinned) {
+			super.clear();
+			loaded=false;
+		}
+	}
+
+	/**
+	 * Marks the map as modified: it will not be evicted anymore
+	 */
+	private void modified() {
+		if(!pinned) pin();
+	}
+
+	@Override
+	public synchronized int size() {
+		return loaded?super.size():count;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size()==0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return read(() -> super.containsKey(key));
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return read(() -> super.containsValue(value));
+	}
+
+	@Override
+	public RoiEntry get(Object key) {
+		return read(() -> super.get(key));
+	}
+
+	@Override
+	public Comparator<? super Integer> comparator() {
+		return super.comparator();
+	}
+
+	@Override
+	public Integer firstKey() {
+		return read(() -> super.firstKey());
+	}
+
+	@Override
+	public Integer lastKey() {
+		return read(() -> super.lastKey());
+	}
+
+	@Override
+	public void putAll(Map<? extends Integer, ? extends RoiEntry> map) {
+		modified();
+		super.putAll(map);
+	}
+
+	@Override
+	public RoiEntry put(Integer key, RoiEntry value) {
+		modified();
+		return super.put(key, value);
+	}
+
+	@Override
+	public RoiEntry remove(Object key) {
+		modified();
+		return super.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		modified();
+		super.clear();
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> firstEntry() {
+		return read(() -> super.firstEntry());
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> lastEntry() {
+		return read(() -> super.lastEntry());
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> pollFirstEntry() {
+		modified();
+		return super.pollFirstEntry();
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> pollLastEntry() {
+		modified();
+		return super.pollLastEntry();
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> lowerEntry(Integer key) {
+		return read(() -> super.lowerEntry(key));
+	}
+
+	@Override
+	public Integer lowerKey(Integer key) {
+		return read(() -> super.lowerKey(key));
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> floorEntry(Integer key) {
+		return read(() -> super.floorEntry(key));
+	}
+
+	@Override
+	public Integer floorKey(Integer key) {
+		return read(() -> super.floorKey(key));
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> ceilingEntry(Integer key) {
+		return read(() -> super.ceilingEntry(key));
+	}
+
+	@Override
+	public Integer ceilingKey(Integer key) {
+		return read(() -> super.ceilingKey(key));
+	}
+
+	@Override
+	public Map.Entry<Integer, RoiEntry> higherEntry(Integer key) {
+		return read(() -> super.higherEntry(key));
+	}
+
+	@Override
+	public Integer higherKey(Integer key) {
+		return read(() -> super.higherKey(key));
+	}
+
+	@Override
+	public Set<Integer> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<Integer> navigableKeySet() {
+		return read(() -> pinned?super.navigableKeySet():Collections.unmodifiableNavigableSet(snapshot().navigableKeySet()));
+	}
+
+	@Override
+	public NavigableSet<Integer> descendingKeySet() {
+		return read(() -> pinned?super.descendingKeySet():Collections.unmodifiableNavigableSet(snapshot().descendingKeySet()));
+	}
+
+	@Override
+	public Collection<RoiEntry> values() {
+		return read(() -> pinned?super.values():Collections.unmodifiableCollection(snapshot().values()));
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, RoiEntry>> entrySet() {
+		return read(() -> pinned?super.entrySet():Collections.unmodifiableSet(snapshot().entrySet()));
+	}
+
+	@Override
+	public NavigableMap<Integer, RoiEntry> descendingMap() {
+		return read(() -> pinned?super.descendingMap():Collections.unmodifiableNavigableMap(snapshot().descendingMap()));
+	}
+
+	@Override
+	public NavigableMap<Integer, RoiEntry> subMap(Integer fromKey, boolean fromInclusive, Integer toKey, boolean toInclusive) {
+		return read(() -> pinned?super.subMap(fromKey, fromInclusive, toKey, toInclusive):Collections.unmodifiableNavigableMap(snapshot().subMap(fromKey, fromInclusive, toKey, toInclusive)));
+	}
+
+	@Override
+	public NavigableMap<Integer, RoiEntry> headMap(Integer toKey, boolean inclusive) {
+		return read(() -> pinned?super.headMap(toKey, inclusive):Collections.unmodifiableNavigableMap(snapshot().headMap(toKey, inclusive)));
+	}
+
+	@Override
+	public NavigableMap<Integer, RoiEntry> tailMap(Integer fromKey, boolean inclusive) {
+		return read(() -> pinned?super.tailMap(fromKey, inclusive):Collections.unmodifiableNavigableMap(snapshot().tailMap(fromKey, inclusive)));
+	}
+
+	@Override
+	public SortedMap<Integer, RoiEntry> subMap(Integer fromKey, Integer toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<Integer, RoiEntry> headMap(Integer toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<Integer, RoiEntry> tailMap(Integer fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public boolean replace(Integer key, RoiEntry oldValue, RoiEntry newValue) {
+		modified();
+		return super.replace(key, oldValue, newValue);
+	}
+
+	@Override
+	public RoiEntry replace(Integer key, RoiEntry value) {
+		modified();
+		return super.replace(key, value);
+	}
+
+	@Override
+	public RoiEntry putIfAbsent(Integer key, RoiEntry value) {
+		modified();
+		return super.putIfAbsent(key, value);
+	}
+
+	@Override
+	public RoiEntry computeIfAbsent(Integer key, Function<? super Integer, ? extends RoiEntry> mappingFunction) {
+		modified();
+		return super.computeIfAbsent(key, mappingFunction);
+	}
+
+	@Override
+	public RoiEntry computeIfPresent(Integer key, BiFunction<? super Integer, ? super RoiEntry, ? extends RoiEntry> remappingFunction) {
+		modified();
+		return super.computeIfPresent(key, remappingFunction);
+	}
+
+	@Override
+	public RoiEntry compute(Integer key, BiFunction<? super Integer, ? super RoiEntry, ? extends RoiEntry> remappingFunction) {
+		modified();
+		return super.compute(key, remappingFunction);
+	}
+
+	@Override
+	public RoiEntry merge(Integer key, RoiEntry value, BiFunction<? super RoiEntry, ? super RoiEntry, ? extends RoiEntry> remappingFunction) {
+		modified();
+		return super.merge(key, value, remappingFunction);
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super Integer, ? super RoiEntry> action) {
+		//Iterates outside of the lock: the action may read other maps, which may evict this one
+		for(Map.Entry<Integer, RoiEntry> entry: entrySet()) action.accept(entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public void replaceAll(BiFunction<? super Integer, ? super RoiEntry, ? extends RoiEntry> function) {
+		modified();
+		super.replaceAll(function);
+	}
+
+	@Override
+	public RoiEntry getOrDefault(Object key, RoiEntry defaultValue) {
+		return read(() -> super.getOrDefault(key, defaultValue));
+	}
+
+	@Override
+	public Object clone() {
+		return read(() -> snapshot());
+	}
+
+	/**
+	 * LazyRoiMaps are compared by identity: they are used as keys of the eviction table, and
+	 * comparing their content would require reading it
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return this==o;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+}
@@ -0,0 +1,488 @@
+/**
+ * MapRenderer.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.CompositeImage;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+import utilities.parallelExecutor;
+import utilities.tools;
+
+/**
+ * This class renders several parametric maps at once, slice by slice. When the labeled image the
+ * AtlasDataContainer was built from is available, each slice is produced by a per-pixel lookup from label to
+ * value through a float look-up table (dense for 8- and 16-bit labeled images): no Roi is involved.
+ * Otherwise, each Roi is rasterized once (using its cached run-length mask), the values of all requested
+ * maps being written at the same time. Maps can be retrieved as separate images, or as a single hyperstack
+ * (one channel per map), either fully rendered or as virtual stacks rendering slices on demand
+ * (see ParametricMapStack): the last rendered slices are then kept in a small LRU cache.
+ * The values of all Rois are computed once, when the renderer is created: all slices show the measurements
+ * available at that time, whenever they are rendered. Virtual stacks never read the labeled image, which
+ * may be closed while the maps are displayed: their slices are rendered from the Rois.
+ */
+public class MapRenderer {
+	/** The AtlasDataContainer holding the Rois and measurements */
+	AtlasDataContainer adc=null;
+
+	/** The maps to render */
+	MapSpecification[] specs=null;
+
+	/** The structures to render */
+	Integer[] ids=null;
+
+	/** The labeled image the AtlasDataContainer was built from, or null to fill the Rois */
+	ImagePlus labels=null;
+
+	/** Sorted ids of the structures to render having Rois: the position in this array is the compact label index */
+	int[] sortedIds=new int[0];
+
+	/** Correspondence table label/compact index for 8- and 16-bit labeled images (null otherwise) */
+	int[] denseIndex=null;
+
+	/** Normalization factor per map */
+	double[] factors=null;
+
+	/** Per structure maps' values, per map and per compact label index (null for per Roi maps) */
+	float[][] structureValues=null;
+
+	/** Rois to render on each slice (1-based, index 0 being unused), in the order of sortedIds */
+	RoiEntry[][] roisPerSlice=null;
+
+	/** Compact label index of each Roi to render, per slice (same order as roisPerSlice) */
+	int[][] indexesPerSlice=null;
+
+	/** Values of each Roi to render, per slice and per map (same order as roisPerSlice) */
+	float[][][] valuesPerSlice=null;
+
+	/** Per structure maps' dense look-up tables, per map and per label (null for per Roi maps or 32-bit labeled images) */
+	float[][] structureLuts=null;
+
+	/** Key used to store the number of rendered slices kept in memory for virtual stacks in the ImageJ preferences */
+	public static final String CACHE_SIZE_PREF="AtlasUtilities.mapCacheSlices";
+
+	/** Last rendered slices (all maps), indexed by z slice, in access order */
+	LinkedHashMap<Integer, float[][]> sliceCache=new LinkedHashMap<Integer, float[][]>(16, 0.75f, true);
+
+	/** Minimum value per map (including the background) */
+	double[] min=null;
+
+	/** Maximum value per map (including the background) */
+	double[] max=null;
+
+	/**
+	 * Creates a new MapRenderer, using the labeled image the AtlasDataContainer was built from if opened
+	 * @param adc the AtlasDataContainer holding the Rois and measurements
+	 * @param specs the maps to render
+	 * @param ids the structures to render
+	 */
+	public MapRenderer(AtlasDataContainer adc, MapSpecification[] specs, Integer[] ids) {
+		this(adc, specs, ids, adc.getLabelImage());
+	}
+
+	/**
+	 * Creates a new MapRenderer
+	 * @param adc the AtlasDataContainer holding the Rois and measurements
+	 * @param specs the maps to render
+	 * @param ids the structures to render
+	 * @param labels the labeled image the AtlasDataContainer was built from, or null to fill the Rois
+	 */
+	public MapRenderer(AtlasDataContainer adc, MapSpecification[] specs, Integer[] ids, ImagePlus labels) {
+		this.adc=adc;
+		this.specs=specs;
+		this.ids=ids;
+		if(labels!=null && labels.getWidth()==adc.Metadata.imgWidth && labels.getHeight()==adc.Metadata.imgHeight && labels.getStackSize()==adc.Metadata.imgDepth) this.labels=labels;
+
+		prepare();
+	}
+
+	/**
+	 * Computes the normalization factors, the values of all Rois, the look-up tables of per structure maps and the
+	 * extrema of each map, from the measurements only
+	 */
+	void prepare() {
+		int nMaps=specs.length;
+
+		sortedIds=Arrays.stream(ids).filter(id -> adc.Atlas.containsKey(id) && !adc.Atlas.get(id).ROIs.isEmpty()).mapToInt(Integer::intValue).sorted().distinct().toArray();
+		adc.loadRois(sortedIds); //Rois are accessed from several threads while rendering: they are read once and kept in memory
+
+		if(labels!=null && (labels.getBitDepth()==8 || labels.getBitDepth()==16)) {
+			denseIndex=new int[labels.getBitDepth()==8?256:65536];
+			Arrays.fill(denseIndex, -1);
+			for(int i=0; i<sortedIds.length; i++) if(sortedIds[i]>=0 && sortedIds[i]<denseIndex.length) denseIndex[sortedIds[i]]=i;
+		}
+
+		factors=new double[nMaps];
+		structureValues=new float[nMaps][];
+		min=new double[nMaps]; //Background is 0: extrema are initialized to 0
+		max=new double[nMaps];
+
+		for(int map=0; map<nMaps; map++) {
+			factors[map]=specs[map].getNormalizationFactor(adc, ids);
+			if(specs[map].level==0) structureValues[map]=new float[sortedIds.length];
+		}
+
+		//Values of all Rois, grouped per slice
+		int depth=adc.Metadata.imgDepth;
+		ArrayList<ArrayList<Integer>> indexes=new ArrayList<ArrayList<Integer>>();
+		ArrayList<ArrayList<RoiEntry>> rois=new ArrayList<ArrayList<RoiEntry>>();
+		for(int slice=0; slice<=depth; slice++) {
+			indexes.add(new ArrayList<Integer>());
+			rois.add(new ArrayList<RoiEntry>());
+		}
+		for(int index=0; index<sortedIds.length; index++) {
+			for(RoiEntry re: adc.Atlas.get(sortedIds[index]).ROIs.values()) {
+				if(re.slice<1 || re.slice>depth) continue;
+				indexes.get(re.slice).add(index);
+				rois.get(re.slice).add(re);
+			}
+		}
+
+		roisPerSlice=new RoiEntry[depth+1][];
+		indexesPerSlice=new int[depth+1][];
+		valuesPerSlice=new float[depth+1][nMaps][];
+		for(int slice=1; slice<=depth; slice++) {
+			roisPerSlice[slice]=rois.get(slice).toArray(new RoiEntry[0]);
+			indexesPerSlice[slice]=indexes.get(slice).stream().mapToInt(Integer::intValue).toArray();
+
+			for(int map=0; map<nMaps; map++) {
+				float[] values=new float[roisPerSlice[slice].length];
+				for(int r=0; r<values.length; r++) {
+					int index=indexesPerSlice[slice][r];
+					float value=getValue(map, sortedIds[index], adc.Atlas.get(sortedIds[index]), roisPerSlice[slice][r]);
+					values[r]=value;
+					if(value<min[map]) min[map]=value;
+					if(value>max[map]) max[map]=value;
+					if(structureValues[map]!=null) structureValues[map][index]=value; //Same value for all Rois of the structure
+				}
+				valuesPerSlice[slice][map]=values;
+			}
+		}
+
+		structureLuts=new float[nMaps][];
+		if(denseIndex!=null) {
+			for(int map=0; map<nMaps; map++) if(structureValues[map]!=null) structureLuts[map]=getDenseLut(structureValues[map]);
+		}
+	}
+
+	/**
+	 * Builds a dense look-up table, indexed by label, from values indexed by compact label index
+	 * @param values the values, per compact label index
+	 * @return the dense look-up table (0 for labels not rendered)
+	 */
+	float[] getDenseLut(float[] values) {
+		float[] lut=new float[denseIndex.length];
+		for(int index=0; index<sortedIds.length; index++) if(sortedIds[index]>=0 && sortedIds[index]<lut.length) lut[sortedIds[index]]=values[index];
+		return lut;
+	}
+
+	/**
+	 * Returns the normalized value to display for a Roi
+	 * @param map the index of the map
+	 * @param id the id of the structure the Roi belongs to
+	 * @param ae the AtlasEntry of the structure
+	 * @param re the RoiEntry
+	 * @return the normalized value to display
+	 */
+	float getValue(int map, int id, AtlasEntry ae, RoiEntry re) {
+		return (float) (specs[map].getValue(id, ae, re)*factors[map]);
+	}
+
+	/**
+	 * Returns the number of maps
+	 * @return the number of maps
+	 */
+	public int getNMaps() {
+		return specs.length;
+	}
+
+	/**
+	 * Returns the specification of a map
+	 * @param map the index of the map
+	 * @return the specification of the map
+	 */
+	public MapSpecification getSpecification(int map) {
+		return specs[map];
+	}
+
+	/**
+	 * Returns the minimum value of a map (including the background)
+	 * @param map the index of the map
+	 * @return the minimum value of the map
+	 */
+	public double getMin(int map) {
+		return min[map];
+	}
+
+	/**
+	 * Returns the maximum value of a map (including the background)
+	 * @param map the index of the map
+	 * @return the maximum value of the map
+	 */
+	public double getMax(int map) {
+		return max[map];
+	}
+
+	/**
+	 * Renders a single slice of all maps
+	 * @param slice the slice to render (1-based)
+	 * @return the rendered pixels, per map
+	 */
+	public float[][] renderSlice(int slice) {
+		int width=adc.Metadata.imgWidth;
+		int height=adc.Metadata.imgHeight;
+
+		float[][] out=new float[specs.length][width*height];
+		if(labels!=null) {
+			renderSliceFromLabels(slice, out);
+		}else {
+			renderSliceFromRois(slice, out);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns a single slice of all maps, from the LRU cache or rendered if not cached
+	 * @param slice the slice to retrieve (1-based)
+	 * @return the rendered pixels, per map
+	 */
+	public float[][] getSlice(int slice) {
+		synchronized(sliceCache) {
+			float[][] out=sliceCache.get(slice);
+			if(out!=null) return out;
+		}
+
+		float[][] out=renderSlice(slice);
+
+		synchronized(sliceCache) {
+			sliceCache.put(slice, out);
+
+			int capacity=Math.max(1, (int) Prefs.get(CACHE_SIZE_PREF, 8));
+			Iterator<Map.Entry<Integer, float[][]>> it=sliceCache.entrySet().iterator();
+			while(sliceCache.size()>capacity && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+
+		return out;
+	}
+
+	/**
+	 * Renders a single slice of all maps from the labeled image, through per map look-up tables
+	 * @param slice the slice to render (1-based)
+	 * @param out the pixels arrays to fill, per map
+	 */
+	void renderSliceFromLabels(int slice, float[][] out) {
+		ImageProcessor labelProc=labels.getStack().getProcessor(slice);
+		Object labelPixels=labelProc.getPixels();
+		int nPixels=labelProc.getPixelCount();
+
+		for(int map=0; map<specs.length; map++) {
+			//Values per compact index: per Roi maps depend on the slice
+			float[] values=structureValues[map];
+			if(values==null) {
+				values=new float[sortedIds.length];
+				for(int r=0; r<indexesPerSlice[slice].length; r++) values[indexesPerSlice[slice][r]]=valuesPerSlice[slice][map][r];
+			}
+
+			float[] pixels=out[map];
+			if(denseIndex!=null) {
+				//Dense look-up table, indexed by label
+				float[] lut=structureLuts[map]!=null?structureLuts[map]:getDenseLut(values);
+
+				if(labelPixels instanceof byte[]) {
+					byte[] p=(byte[]) labelPixels;
+					for(int i=0; i<nPixels; i++) pixels[i]=lut[p[i]&0xff];
+				}else {
+					short[] p=(short[]) labelPixels;
+					for(int i=0; i<nPixels; i++) pixels[i]=lut[p[i]&0xffff];
+				}
+			}else {
+				int lastLabel=0;
+				int lastIndex=Arrays.binarySearch(sortedIds, 0);
+				for(int i=0; i<nPixels; i++) {
+					int label=(int) labelProc.getf(i);
+					if(label!=lastLabel) {
+						lastLabel=label;
+						lastIndex=Arrays.binarySearch(sortedIds, label);
+					}
+					if(lastIndex>=0) pixels[i]=values[lastIndex];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders a single slice of all maps by filling the Rois found on this slice, each one being rasterized once
+	 * @param slice the slice to render (1-based)
+	 * @param out the pixels arrays to fill, per map
+	 */
+	void renderSliceFromRois(int slice, float[][] out) {
+		int width=adc.Metadata.imgWidth;
+		int height=adc.Metadata.imgHeight;
+
+		RoiEntry[] rois=roisPerSlice[slice];
+		for(int r=0; r<rois.length; r++) {
+			RoiMask mask=rois[r].getMask(adc.getMaskCache());
+			for(int map=0; map<specs.length; map++) mask.fill(out[map], width, height, valuesPerSlice[slice][map][r]);
+		}
+	}
+
+	/**
+	 * Renders all slices of all maps, as a multi-threaded process (one slice per task)
+	 * @return the rendered pixels, per map and per slice (slices are 1-based, index 0 being unused),
+	 * or null if the process has been cancelled
+	 */
+	float[][][] render() {
+		long start=System.currentTimeMillis();
+
+		int depth=adc.Metadata.imgDepth;
+		float[][][] pixels=new float[specs.length][depth+1][];
+
+		boolean completed=parallelExecutor.forEach(1, depth+1, slice -> {
+			float[][] rendered=renderSlice(slice);
+			for(int map=0; map<specs.length; map++) pixels[map][slice]=rendered[map];
+		}, parallelExecutor.statusProgress("Creating images"), null);
+
+		long end=System.currentTimeMillis();
+		IJ.showStatus("!Image creation - "+(completed?"Done":"Cancelled")+" in "+tools.formatInterval(end-start));
+
+		return completed?pixels:null;
+	}
+
+	/**
+	 * Returns all maps as separate images, backed by virtual stacks: slices are only rendered when displayed,
+	 * from the Rois (see releaseLabels). All images share this renderer, and therefore its cache of rendered slices.
+	 * @return the maps, as an array of ImagePlus (same order as the specifications)
+	 */
+	public ImagePlus[] getVirtualImages() {
+		releaseLabels();
+
+		ImagePlus[] out=new ImagePlus[specs.length];
+		for(int map=0; map<specs.length; map++) {
+			out[map]=new ImagePlus(specs[map].getTitle(), new ParametricMapStack(this, new int[] {map}));
+			out[map].setCalibration(adc.Metadata.getCalibration());
+			out[map].setDisplayRange(min[map], max[map]);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Returns all maps as a single hyperstack, one channel per map, backed by a virtual stack:
+	 * slices are only rendered when displayed
+	 * @param title the title of the hyperstack
+	 * @return the maps, as a hyperstack (channels in the same order as the specifications)
+	 */
+	public ImagePlus getVirtualHyperstack(String title) {
+		releaseLabels();
+
+		int[] maps=new int[specs.length];
+		for(int map=0; map<specs.length; map++) maps[map]=map;
+
+		ImagePlus ip=new ImagePlus(title, new ParametricMapStack(this, maps));
+		return toHyperstack(ip);
+	}
+
+	/**
+	 * Stops using the labeled image: virtual stacks render their slices long after the renderer has been created,
+	 * when the labeled image may have been closed (its stack is then flushed), and should not keep it in memory.
+	 * Slices are rendered from the Rois instead.
+	 */
+	void releaseLabels() {
+		labels=null;
+		denseIndex=null;
+		structureLuts=new float[specs.length][];
+	}
+
+	/**
+	 * Renders all maps and returns them as separate images
+	 * @return the maps, as an array of ImagePlus (same order as the specifications), or null if rendering has been cancelled
+	 */
+	public ImagePlus[] getImages() {
+		float[][][] pixels=render();
+		if(pixels==null) return null;
+
+		ImagePlus[] out=new ImagePlus[specs.length];
+		for(int map=0; map<specs.length; map++) {
+			ImageStack stack=new ImageStack(adc.Metadata.imgWidth, adc.Metadata.imgHeight);
+			for(int slice=1; slice<pixels[map].length; slice++) stack.addSlice("", pixels[map][slice]);
+
+			out[map]=new ImagePlus(specs[map].getTitle(), stack);
+			out[map].setCalibration(adc.Metadata.getCalibration());
+			out[map].setDisplayRange(min[map], max[map]);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Renders all maps and returns them as a single hyperstack, one channel per map
+	 * @param title the title of the hyperstack
+	 * @return the maps, as a hyperstack (channels in the same order as the specifications), or null if rendering has been cancelled
+	 */
+	public ImagePlus getHyperstack(String title) {
+		float[][][] pixels=render();
+		if(pixels==null) return null;
+
+		ImageStack stack=new ImageStack(adc.Metadata.imgWidth, adc.Metadata.imgHeight);
+		for(int slice=1; slice<=adc.Metadata.imgDepth; slice++) {
+			for(int map=0; map<specs.length; map++) stack.addSlice(specs[map].getTitle(), pixels[map][slice]);
+		}
+
+		return toHyperstack(new ImagePlus(title, stack));
+	}
+
+	/**
+	 * Sets the dimensions, calibration and display ranges of a hyperstack holding all maps
+	 * @param ip the image holding all maps, ordered as channel=map, then z
+	 * @return the hyperstack (a CompositeImage when several maps are displayed)
+	 */
+	ImagePlus toHyperstack(ImagePlus ip) {
+		ip.setDimensions(specs.length, adc.Metadata.imgDepth, 1);
+		ip.setCalibration(adc.Metadata.getCalibration());
+		if(specs.length==1) {
+			ip.setDisplayRange(min[0], max[0]);
+			return ip;
+		}
+
+		CompositeImage ci=new CompositeImage(ip, IJ.GRAYSCALE);
+		for(int map=0; map<specs.length; map++) {
+			ci.setPositionWithoutUpdate(map+1, 1, 1);
+			ci.setDisplayRange(min[map], max[map]);
+		}
+		ci.setPositionWithoutUpdate(1, 1, 1);
+
+		return ci;
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * MapSpecification.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+/**
+ * This class describes a parametric map to render: the analysis level, the measurement
+ * to display and the normalization to apply (see AtlasDataContainer.ANALYSIS_LEVEL,
+ * ANALYSIS_MEASUREMENT and ANALYSIS_NORM).
+ */
+public class MapSpecification {
+	/** Analysis level: 0: Per Structure, 1: Per Roi */
+	public final int level;
+
+	/** Measurement: 0: Sum Intensity, 1: Mean Intensity, 2: Std Intensity, 3: Min Intensity, 4: Max Intensity, 5: ID */
+	public final int type;
+
+	/** Normalization: 0: No Normalization, 1: 100%=All Structures, 2: 100%=Selected Structures */
+	public final int norm;
+
+	/**
+	 * Creates a new MapSpecification
+	 * @param level 0: Per Structure, 1: Per Roi
+	 * @param type 0: Sum Intensity, 1: Mean Intensity, 2: Std Intensity, 3: Min Intensity, 4: Max Intensity, 5: ID
+	 * @param norm 0: No Normalization, 1: 100%=All Structures, 2: 100%=Selected Structures
+	 */
+	public MapSpecification(int level, int type, int norm) {
+		this.level=level;
+		this.type=type;
+		this.norm=norm;
+	}
+
+	/**
+	 * Returns the title of the map
+	 * @return the title of the map, as a String
+	 */
+	public String getTitle() {
+		return AtlasDataContainer.ANALYSIS_LEVEL[level]+"_"+AtlasDataContainer.ANALYSIS_MEASUREMENT[type]+"_"+AtlasDataContainer.ANALYSIS_NORM[norm];
+	}
+
+	/**
+	 * Returns the raw value to display for a Roi, before normalization
+	 * @param id the id of the structure the Roi belongs to
+	 * @param ae the AtlasEntry of the structure
+	 * @param re the RoiEntry
+	 * @return the raw value to display, or NaN if no measurement is available
+	 */
+	public double getValue(int id, AtlasEntry ae, RoiEntry re) {
+		if(type==5) return id;
+		return getMeasurement(level==1?re.Measurements:ae.Measurements);
+	}
+
+	/**
+	 * Extracts the measurement to display from a MeasurementsEntry
+	 * @param me the MeasurementsEntry
+	 * @return the measurement to display, or NaN if the MeasurementsEntry is null
+	 */
+	double getMeasurement(MeasurementsEntry me) {
+		if(me==null) return Double.NaN;
+
+		switch(type) {
+			case 1: return me.meanIntensity;
+			case 2: return me.stdIntensity;
+			case 3: return me.minIntensity;
+			case 4: return me.maxIntensity;
+			default: return me.totalIntensity;
+		}
+	}
+
+	/**
+	 * Returns the factor to apply to the raw values so that 100% corresponds to the sum of the
+	 * measurement over the reference structures (all structures, or the selected ones).
+	 * Ids are never normalized.
+	 * @param adc the AtlasDataContainer holding the measurements
+	 * @param ids the selected structures
+	 * @return the factor to apply to the raw values (1 when no normalization applies)
+	 */
+	public double getNormalizationFactor(AtlasDataContainer adc, Integer[] ids) {
+		if(norm==0 || type==5) return 1;
+
+		double reference=0;
+		if(norm==1) {
+			for(AtlasEntry ae: adc.Atlas.values()) if(!ae.ROIs.isEmpty()) reference+=valueOrZero(getMeasurement(ae.Measurements));
+		}else {
+			for(Integer id: ids) {
+				AtlasEntry ae=adc.Atlas.get(id);
+				if(ae!=null && !ae.ROIs.isEmpty()) reference+=valueOrZero(getMeasurement(ae.Measurements));
+			}
+		}
+
+		return reference==0?1:100/reference;
+	}
+
+	/**
+	 * Replaces NaN by zero
+	 * @param value the value to check
+	 * @return the value, or zero if NaN
+	 */
+	static double valueOrZero(double value) {
+		return Double.isNaN(value)?0:value;
+	}
+}
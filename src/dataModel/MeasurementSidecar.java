@@ -0,0 +1,193 @@
+/**
+ * MeasurementSidecar.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+
+import ij.IJ;
+
+/**
+ * This class reads and writes measurement sidecar files: files holding only the measurements made
+ * on some images, the Rois they were made within remaining stored once, in the parent ZON file.
+ * Sidecar files use the columnar format (see ColumnarArchive), with the following columns only:
+ * -structure.id, structure.roiStart, roi.slice: the structures and their Rois, sorted by id then slice
+ * -measurement.keys: the keys of the measured images
+ * -structure/roi.m#.[field]: the measurements, per measured image. NaN stands for missing measurements.
+ * -sidecar.json: the name of the parent ZON file, the hash of its Rois (see ZonArchive.getRoisHash)
+ * and the title/path of the measured image.
+ * Any number of sidecar files can be attached to the AtlasDataContainer opened from the parent ZON file.
+ */
+public class MeasurementSidecar {
+	/** Extension of the files */
+	public static final String EXTENSION=".acm";
+
+	/** Name of the column holding the description of the sidecar file */
+	static final String SIDECAR="sidecar.json";
+
+	/**
+	 * Saves the measurements made on the input images as a sidecar file. The AtlasDataContainer
+	 * should have been opened from or saved as a ZON file, which becomes the parent of the sidecar file
+	 * @param adc the AtlasDataContainer holding the measurements
+	 * @param keys the keys of the measured images to save
+	 * @param path path to the sidecar file
+	 * @throws IOException if the AtlasDataContainer is not bound to a ZON file, or the file can not be written
+	 */
+	public static void write(AtlasDataContainer adc, String[] keys, String path) throws IOException {
+		if(adc.getZONPath()==null || !new File(adc.getZONPath()).exists()) throw new IOException("The Atlas Data Container should be saved as a ZON file first");
+
+		LinkedHashMap<String, ColumnarArchive.column> columns=new LinkedHashMap<String, ColumnarArchive.column>();
+		ColumnarArchive.column id=ColumnarArchive.addColumn(columns, "structure.id", ColumnarArchive.INT);
+		ColumnarArchive.column roiStart=ColumnarArchive.addColumn(columns, "structure.roiStart", ColumnarArchive.INT);
+		ColumnarArchive.column slice=ColumnarArchive.addColumn(columns, "roi.slice", ColumnarArchive.INT);
+
+		ColumnarArchive.column[] keyColumn=ColumnarArchive.addStringColumn(columns, "measurement.keys");
+		for(String key: keys) ColumnarArchive.addString(keyColumn, key);
+
+		ColumnarArchive.column[][] structureMeasurements=new ColumnarArchive.column[keys.length][];
+		ColumnarArchive.column[][] roiMeasurements=new ColumnarArchive.column[keys.length][];
+		for(int k=0; k<keys.length; k++) {
+			structureMeasurements[k]=new ColumnarArchive.column[ColumnarArchive.MEASUREMENT_FIELDS.length];
+			roiMeasurements[k]=new ColumnarArchive.column[ColumnarArchive.MEASUREMENT_FIELDS.length];
+			for(int i=0; i<ColumnarArchive.MEASUREMENT_FIELDS.length; i++) {
+				structureMeasurements[k][i]=ColumnarArchive.addColumn(columns, "structure.m"+k+"."+ColumnarArchive.MEASUREMENT_FIELDS[i], ColumnarArchive.DOUBLE);
+				roiMeasurements[k][i]=ColumnarArchive.addColumn(columns, "roi.m"+k+"."+ColumnarArchive.MEASUREMENT_FIELDS[i], ColumnarArchive.DOUBLE);
+			}
+		}
+
+		roiStart.add(0);
+		for(AtlasEntry ae: adc.Atlas.values()) {
+			id.add(ae.id);
+			for(int k=0; k<keys.length; k++) ColumnarArchive.addMeasurements(structureMeasurements[k], ae.MeasurementsPerImage.get(keys[k]));
+
+			for(RoiEntry re: ae.ROIs.values()) {
+				slice.add(re.slice);
+				for(int k=0; k<keys.length; k++) ColumnarArchive.addMeasurements(roiMeasurements[k], re.MeasurementsPerImage.get(keys[k]));
+			}
+			roiStart.add(slice.size);
+		}
+
+		sidecar sc=new sidecar();
+		sc.parentName=new File(adc.getZONPath()).getName();
+		sc.parentHash=ZonArchive.getRoisHash(adc.getZONPath());
+		sc.imgQuantificationsTitle=adc.Metadata.imgQuantificationsTitle;
+		sc.imgQuantificationsPath=adc.Metadata.imgQuantificationsPath;
+		ColumnarArchive.addColumn(columns, SIDECAR, ColumnarArchive.BYTE).add(new Gson().toJson(sc).getBytes(StandardCharsets.UTF_8));
+
+		ColumnarArchive.writeColumns(columns, path);
+		IJ.showStatus("!Measurements saved as a sidecar file");
+	}
+
+	/**
+	 * Attaches a sidecar file to an AtlasDataContainer: its measurements are added to the measurements
+	 * per image of the structures and Rois. Keys already in use are suffixed with the name of the sidecar
+	 * file. The Rois' measurements of structures whose Rois have not been read yet are handed to the
+	 * ZonArchive, to be applied when the Rois are read. The active measurements remain unchanged.
+	 * @param adc the AtlasDataContainer, opened from the parent ZON file
+	 * @param path path to the sidecar file
+	 * @return the keys under which the measurements have been attached
+	 * @throws IOException if the file can not be read, or does not refer to the ZON file the AtlasDataContainer was opened from
+	 */
+	public static String[] attach(AtlasDataContainer adc, String path) throws IOException {
+		if(adc.getZONPath()==null || !new File(adc.getZONPath()).exists()) throw new IOException("The Atlas Data Container should be opened from a ZON file first");
+
+		try(ColumnarArchive ca=ColumnarArchive.open(path)) {
+			sidecar sc=getSidecar(ca);
+			if(sc==null) throw new IOException(path+" is not a measurement sidecar file");
+			if(!sc.parentHash.equals(ZonArchive.getRoisHash(adc.getZONPath()))) throw new IOException(new File(path).getName()+" does not refer to the Rois of "+new File(adc.getZONPath()).getName()+" (its parent is "+sc.parentName+")");
+
+			String[] keys=ca.getMeasurementKeys();
+			String[] newKeys=new String[keys.length];
+			Set<String> existing=adc.getMeasurementKeys();
+			for(int k=0; k<keys.length; k++) {
+				newKeys[k]=existing.contains(keys[k])?keys[k]+" ("+new File(path).getName()+")":keys[k];
+			}
+
+			for(int s=0; s<ca.getNStructures(); s++) {
+				AtlasEntry ae=adc.Atlas.get(ca.getStructureId(s));
+				if(ae==null) continue;
+
+				for(int k=0; k<keys.length; k++) {
+					MeasurementsEntry me=ca.getMeasurementsEntry("structure", s, keys[k]);
+					if(me!=null) ae.MeasurementsPerImage.put(newKeys[k], me);
+				}
+
+				TreeMap<Integer, TreeMap<String, MeasurementsEntry>> patch=new TreeMap<Integer, TreeMap<String, MeasurementsEntry>>();
+				for(int r=ca.getRoiStart(s); r<ca.getRoiEnd(s); r++) {
+					TreeMap<String, MeasurementsEntry> perImage=new TreeMap<String, MeasurementsEntry>();
+					for(int k=0; k<keys.length; k++) {
+						MeasurementsEntry me=ca.getMeasurementsEntry("roi", r, keys[k]);
+						if(me!=null) perImage.put(newKeys[k], me);
+					}
+					if(!perImage.isEmpty()) patch.put(ca.getRoiSlice(r), perImage);
+				}
+				if(patch.isEmpty()) continue;
+
+				ZonJournal.apply(ae, patch, adc.activeMeasurements);
+			}
+
+			adc.rebuildMeasurementsWithDescendants();
+			IJ.showStatus("!Measurements attached from "+new File(path).getName());
+			return newKeys;
+		}
+	}
+
+	/**
+	 * Reads the description of a sidecar file
+	 * @param ca the opened sidecar file
+	 * @return the description, or null if the file is not a sidecar file
+	 */
+	static sidecar getSidecar(ColumnarArchive ca) {
+		ByteBuffer bb=ca.getColumn(SIDECAR);
+		if(bb==null) return null;
+
+		byte[] json=new byte[bb.remaining()];
+		bb.duplicate().get(json);
+		return new Gson().fromJson(new String(json, StandardCharsets.UTF_8), sidecar.class);
+	}
+
+	/**
+	 * This class holds the content of the sidecar.json column
+	 */
+	static class sidecar{
+		/** Name of the parent ZON file */
+		String parentName;
+
+		/** Hash of the Rois of the parent ZON file (see ZonArchive.getRoisHash) */
+		String parentHash;
+
+		/** Title of the measured image */
+		String imgQuantificationsTitle;
+
+		/** Path to the measured image */
+		String imgQuantificationsPath;
+	}
+}
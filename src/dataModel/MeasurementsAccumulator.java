@@ -0,0 +1,192 @@
+/**
+ * MeasurementsAccumulator.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dataModel;
+
+/**
+ * This class accumulates the statistics of a set of intensities: number of pixels, sum, mean, sum of squared
+ * deviations from the mean (M2), min and max. Intensities may be added one at a time (Welford's update), and
+ * accumulators may be merged (Chan et al.'s pairwise update), whatever the order: the statistics of a group
+ * of Rois, or of a structure and its descendants, match those of all their pixels accumulated at once, up to
+ * floating-point rounding. Both updates avoid subtracting large sums of squares, which loses precision when
+ * the spread of the intensities is small compared to their mean.
+ * The number of pixels is stored as a double, as Rois may report calibrated areas.
+ */
+public class MeasurementsAccumulator {
+	/** Number of pixels */
+	public double count=0;
+
+	/** Sum of intensities */
+	public double sum=0;
+
+	/** Mean intensity */
+	public double mean=0;
+
+	/** Sum of squared deviations from the mean intensity */
+	public double m2=0;
+
+	/** Min intensity */
+	public double min=Double.POSITIVE_INFINITY;
+
+	/** Max intensity */
+	public double max=Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Builds a new MeasurementsAccumulator from the moments of a set of pixels' intensities, as accumulated by
+	 * a single pass over the pixels. Squares are accumulated around a shift, any intensity of the set (e.g. the
+	 * first one read): being close to the mean, it keeps the subtraction giving the sum of squared deviations
+	 * from cancelling most significant digits
+	 * @param count the number of pixels
+	 * @param sum the sum of intensities
+	 * @param shift the shift
+	 * @param sumShifted the sum of differences between intensities and the shift
+	 * @param sum2Shifted the sum of squared differences between intensities and the shift
+	 * @param min the minimum intensity
+	 * @param max the maximum intensity
+	 * @return a new MeasurementsAccumulator
+	 */
+	public static MeasurementsAccumulator fromSums(double count, double sum, double shift, double sumShifted, double sum2Shifted, double min, double max) {
+		MeasurementsAccumulator out=new MeasurementsAccumulator();
+		if(count<=0) return out;
+
+		out.count=count;
+		out.sum=sum;
+		out.mean=sum/count;
+		out.m2=Math.max(0, sum2Shifted-sumShifted*sumShifted/count);
+		out.min=min;
+		out.max=max;
+		return out;
+	}
+
+	/**
+	 * Builds a new MeasurementsAccumulator from a MeasurementsEntry
+	 * @param me the MeasurementsEntry, null if none
+	 * @param count the number of pixels the MeasurementsEntry was measured on (its area for a Roi, its volume for a structure)
+	 * @return a new MeasurementsAccumulator, empty if the MeasurementsEntry is null or if the count is not positive
+	 */
+	public static MeasurementsAccumulator fromMeasurementsEntry(MeasurementsEntry me, double count) {
+		MeasurementsAccumulator out=new MeasurementsAccumulator();
+		out.add(me, count);
+		return out;
+	}
+
+	/**
+	 * Adds a single intensity
+	 * @param value the intensity
+	 */
+	public void add(double value) {
+		count++;
+		sum+=value;
+		double delta=value-mean;
+		mean+=delta/count;
+		m2+=delta*(value-mean);
+		if(value<min) min=value;
+		if(value>max) max=value;
+	}
+
+	/**
+	 * Merges the statistics held by a MeasurementsEntry into this accumulator
+	 * @param me the MeasurementsEntry, null if none
+	 * @param count the number of pixels the MeasurementsEntry was measured on (its area for a Roi, its volume for a structure)
+	 */
+	public void add(MeasurementsEntry me, double count) {
+		if(me==null || count<=0) return;
+		merge(count, me.totalIntensity, me.meanIntensity, count>1?me.stdIntensity*me.stdIntensity*(count-1):0, me.minIntensity, me.maxIntensity);
+	}
+
+	/**
+	 * Merges another accumulator into this one
+	 * @param other the accumulator to merge
+	 */
+	public void add(MeasurementsAccumulator other) {
+		if(other==null || other.count<=0) return;
+		merge(other.count, other.sum, other.mean, other.m2, other.min, other.max);
+	}
+
+	/**
+	 * Merges the statistics of another set of intensities into this accumulator
+	 * @param n the number of pixels
+	 * @param s the sum of intensities
+	 * @param m the mean intensity
+	 * @param sq the sum of squared deviations from the mean intensity
+	 * @param mn the min intensity
+	 * @param mx the max intensity
+	 */
+	void merge(double n, double s, double m, double sq, double mn, double mx) {
+		double total=count+n;
+		double delta=m-mean;
+		mean+=delta*n/total;
+		m2+=sq+delta*delta*count*n/total;
+		count=total;
+		sum+=s;
+		if(mn<min) min=mn;
+		if(mx>max) max=mx;
+	}
+
+	/**
+	 * Returns a copy of this accumulator
+	 * @return a copy of this accumulator
+	 */
+	public MeasurementsAccumulator copy() {
+		MeasurementsAccumulator out=new MeasurementsAccumulator();
+		out.add(this);
+		return out;
+	}
+
+	/**
+	 * Returns the sample standard deviation of the intensities
+	 * @return the sample standard deviation, zero if less than two pixels have been accumulated
+	 */
+	public double getStd() {
+		return count>1?Math.sqrt(m2/(count-1)):0;
+	}
+
+	/**
+	 * Returns the statistics as the MeasurementsEntry of a Roi, the number of pixels being stored as its area
+	 * @return a new MeasurementsEntry
+	 */
+	public MeasurementsEntry toMeasurementsEntry() {
+		MeasurementsEntry me=new MeasurementsEntry();
+		me.area=count;
+		me.totalIntensity=sum;
+		if(count>0) {
+			me.meanIntensity=mean;
+			me.stdIntensity=getStd();
+			me.minIntensity=min;
+			me.maxIntensity=max;
+		}
+		return me;
+	}
+
+	/**
+	 * Returns the statistics as the MeasurementsEntry of a structure, the number of pixels being stored as its volume
+	 * @return a new MeasurementsEntry
+	 */
+	public MeasurementsEntry toStructureMeasurementsEntry() {
+		MeasurementsEntry me=toMeasurementsEntry();
+		me.volume=me.area;
+		me.area=0;
+		return me;
+	}
+}
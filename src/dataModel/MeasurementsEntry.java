@@ -48,4 +48,20 @@ public class MeasurementsEntry {
 	
 	/** Roi/Group of Rois max intensity */
 	public double maxIntensity;
+
+	/**
+	 * Builds a new MeasurementsEntry from the moments of a set of pixels' intensities, squares being accumulated
+	 * around a shift (see MeasurementsAccumulator.fromSums)
+	 * @param count the number of pixels
+	 * @param sum the sum of intensities
+	 * @param shift the shift, any intensity of the set
+	 * @param sumShifted the sum of differences between intensities and the shift
+	 * @param sum2Shifted the sum of squared differences between intensities and the shift
+	 * @param min the minimum intensity
+	 * @param max the maximum intensity
+	 * @return a new MeasurementsEntry (standard deviation is the sample one, zero if count<2)
+	 */
+	public static MeasurementsEntry fromMoments(int count, double sum, double shift, double sumShifted, double sum2Shifted, double min, double max) {
+		return MeasurementsAccumulator.fromSums(count, sum, shift, sumShifted, sum2Shifted, min, max).toMeasurementsEntry();
+	}
 }
@@ -0,0 +1,441 @@
+/**
+ * MeasurementsExporter.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.measure.ResultsTable;
+
+/**
+ * This class exports the measurements of an AtlasDataContainer as a table: one row per structure
+ * (or per Roi) and per measured image, holding the structure's ontology fields, the slice (per Roi
+ * export), the measured image's key and all MeasurementsEntry fields.
+ * Rows are streamed, one at a time, to a rowWriter: a delimited text file (see delimitedWriter)
+ * or a series of ResultsTables (see resultsTableWriter). Per Roi exports read the Rois one
+ * structure at a time, without pinning them (see LazyRoiMap). When writing to a file, memory use
+ * therefore does not depend on the number of rows. ResultsTables, being displayed, all remain in
+ * memory: their size only bounds each table, not the total.
+ */
+public class MeasurementsExporter {
+	/** Key used to store the maximum number of rows of exported ResultsTables in the ImageJ preferences */
+	public static final String RESULTS_TABLE_ROWS_PREF="AtlasUtilities.resultsTableRows";
+
+	/** Fields of MeasurementsEntry, exported as numeric columns */
+	public static final String[] MEASUREMENT_FIELDS=ColumnarArchive.MEASUREMENT_FIELDS;
+
+	/** The AtlasDataContainer to export */
+	AtlasDataContainer adc;
+
+	/** True to export one row per Roi, false to export one row per structure */
+	boolean perRoi;
+
+	/** Keys of the measured images to export, null standing for the active measurements */
+	String[] keys;
+
+	/** True to export, per structure, the measurements of the structure together with its descendants (see AtlasDataContainer.rebuildMeasurementsWithDescendants) */
+	boolean withDescendants=false;
+
+	/** Integer ontology fields */
+	Field[] intFields;
+
+	/** String ontology fields */
+	Field[] stringFields;
+
+	/** Headings of the columns */
+	String[] headings;
+
+	/** True for numeric columns, false for text columns */
+	boolean[] numeric;
+
+	/**
+	 * Creates a new MeasurementsExporter
+	 * @param adc the AtlasDataContainer to export
+	 * @param perRoi true to export one row per Roi, false to export one row per structure
+	 * @param keys keys of the measured images to export, null standing for the active measurements
+	 */
+	public MeasurementsExporter(AtlasDataContainer adc, boolean perRoi, String[] keys) {
+		this.adc=adc;
+		this.perRoi=perRoi;
+		this.keys=keys;
+
+		intFields=ColumnarArchive.STRUCTURE_INT_REFS;
+		stringFields=ColumnarArchive.STRUCTURE_STRING_REFS;
+
+		int nColumns=intFields.length+stringFields.length+(perRoi?1:0)+1+MEASUREMENT_FIELDS.length;
+		headings=new String[nColumns];
+		numeric=new boolean[nColumns];
+
+		int column=0;
+		for(String field: ColumnarArchive.STRUCTURE_INT_FIELDS) {
+			numeric[column]=true;
+			headings[column++]=field;
+		}
+		for(String field: ColumnarArchive.STRUCTURE_STRING_FIELDS) headings[column++]=field;
+		if(perRoi) {
+			numeric[column]=true;
+			headings[column++]="slice";
+		}
+		headings[column++]="image";
+		for(String field: MEASUREMENT_FIELDS) {
+			numeric[column]=true;
+			headings[column++]=field;
+		}
+	}
+
+	/**
+	 * Streams the measurements of the input structures to a rowWriter, sorted by id. Structures or Rois
+	 * not measured on an image are skipped
+	 * @param out the rowWriter
+	 * @param ids ids of the structures to export, all structures being exported if null or empty
+	 * @return the number of exported rows
+	 * @throws IOException
+	 */
+	public long export(rowWriter out, Set<Integer> ids) throws IOException {
+		String[] texts=new String[headings.length];
+		double[] numbers=new double[headings.length];
+		long nRows=0;
+		int nStructures=0;
+
+		Set<Integer> indexes=(ids==null||ids.isEmpty())?adc.Atlas.keySet():new TreeSet<Integer>(ids);
+
+		out.start(headings, numeric);
+		for(Integer id: indexes) {
+			AtlasEntry ae=adc.Atlas.get(id);
+			if(ae==null) continue;
+
+			int column=0;
+			try {
+				for(Field f: intFields) numbers[column++]=f.getInt(ae);
+				for(Field f: stringFields) texts[column++]=(String) f.get(ae);
+			} catch (IllegalAccessException e) {
+				throw new IOException(e);
+			}
+
+			if(perRoi) {
+				for(RoiEntry re: ae.ROIs.values()) {
+					numbers[column]=re.slice;
+					for(String key: keys) {
+						MeasurementsEntry me=key==null?re.Measurements:re.MeasurementsPerImage.get(key);
+						if(me==null) continue;
+						fill(texts, numbers, column+1, key, me);
+						out.write(texts, numbers);
+						nRows++;
+					}
+				}
+			}else {
+				for(String key: keys) {
+					MeasurementsEntry me=withDescendants?(key==null?ae.MeasurementsWithDescendants:ae.MeasurementsWithDescendantsPerImage.get(key)):(key==null?ae.Measurements:ae.MeasurementsPerImage.get(key));
+					if(me==null) continue;
+					fill(texts, numbers, column, key, me);
+					out.write(texts, numbers);
+					nRows++;
+				}
+			}
+
+			if(++nStructures%100==0) IJ.showProgress(nStructures, indexes.size());
+		}
+		out.end();
+
+		IJ.showProgress(1.0);
+		return nRows;
+	}
+
+	/**
+	 * Sets whether the per structure export holds the measurements of each structure together with all its
+	 * descendants in the ontology, rather than the measurements of its own Rois only. Per Roi exports are not affected
+	 * @param withDescendants true to export the measurements with descendants
+	 * @return this MeasurementsExporter
+	 */
+	public MeasurementsExporter setWithDescendants(boolean withDescendants) {
+		this.withDescendants=withDescendants;
+		return this;
+	}
+
+	/**
+	 * Fills the image and measurements cells of a row
+	 * @param texts the text cells
+	 * @param numbers the numeric cells
+	 * @param column index of the image column
+	 * @param key the key of the measured image, null for the active measurements
+	 * @param me the measurements
+	 */
+	void fill(String[] texts, double[] numbers, int column, String key, MeasurementsEntry me) {
+		texts[column++]=key!=null?key:(adc.activeMeasurements!=null?adc.activeMeasurements:"");
+		numbers[column++]=me.area;
+		numbers[column++]=me.volume;
+		numbers[column++]=me.totalIntensity;
+		numbers[column++]=me.meanIntensity;
+		numbers[column++]=me.stdIntensity;
+		numbers[column++]=me.minIntensity;
+		numbers[column]=me.maxIntensity;
+	}
+
+	/**
+	 * Exports the measurements of the input structures as a delimited text file
+	 * @param path path to the file
+	 * @param separator the separator: ',' for CSV, '\t' for TSV
+	 * @param ids ids of the structures to export, all structures being exported if null or empty
+	 * @return the number of exported rows
+	 * @throws IOException
+	 */
+	public long toFile(String path, char separator, Set<Integer> ids) throws IOException {
+		try(Writer w=new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1<<16)) {
+			long nRows=export(new delimitedWriter(w, separator), ids);
+			IJ.showStatus("!"+nRows+" row(s) exported");
+			return nRows;
+		}
+	}
+
+	/**
+	 * Exports the measurements of the input structures as ResultsTables, a new table being
+	 * started each time the maximum number of rows is reached (see getResultsTableRows). All tables remain open,
+	 * memory use growing with the number of rows: use toFile for large exports
+	 * @param title title of the ResultsTables, subsequent ones being numbered
+	 * @param ids ids of the structures to export, all structures being exported if null or empty
+	 * @return the number of exported rows
+	 */
+	public long toResultsTables(String title, Set<Integer> ids) {
+		try {
+			long nRows=export(new resultsTableWriter(title, getResultsTableRows()), ids);
+			IJ.showStatus("!"+nRows+" row(s) exported");
+			return nRows;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the maximum number of rows of exported ResultsTables, as stored in the ImageJ preferences
+	 * @return the maximum number of rows of exported ResultsTables
+	 */
+	public static int getResultsTableRows() {
+		return Math.max(1, (int) Prefs.get(RESULTS_TABLE_ROWS_PREF, 100000));
+	}
+
+	/**
+	 * Sets and persists the maximum number of rows of exported ResultsTables
+	 * @param rows the maximum number of rows of exported ResultsTables
+	 */
+	public static void setResultsTableRows(int rows) {
+		Prefs.set(RESULTS_TABLE_ROWS_PREF, Math.max(1, rows));
+	}
+
+	/**
+	 * This interface is implemented by the destinations of the exported rows
+	 */
+	public interface rowWriter{
+		/**
+		 * Starts the table
+		 * @param headings headings of the columns
+		 * @param numeric true for numeric columns, false for text columns
+		 * @throws IOException
+		 */
+		void start(String[] headings, boolean[] numeric) throws IOException;
+
+		/**
+		 * Writes a row. The arrays are reused from one row to the next
+		 * @param texts values of the text columns (other cells should be ignored)
+		 * @param numbers values of the numeric columns (other cells should be ignored)
+		 * @throws IOException
+		 */
+		void write(String[] texts, double[] numbers) throws IOException;
+
+		/**
+		 * Ends the table
+		 * @throws IOException
+		 */
+		void end() throws IOException;
+	}
+
+	/**
+	 * This class writes rows as delimited text (CSV or TSV). CSV text cells are quoted when
+	 * required; TSV text cells have their tabs and line breaks replaced by spaces
+	 */
+	public static class delimitedWriter implements rowWriter{
+		/** The Writer to write to */
+		Writer out;
+
+		/** The separator */
+		char separator;
+
+		/** True for numeric columns */
+		boolean[] numeric;
+
+		/** Reusable line buffer */
+		StringBuilder line=new StringBuilder(256);
+
+		/**
+		 * Creates a new delimitedWriter
+		 * @param out the Writer to write to
+		 * @param separator the separator: ',' for CSV, '\t' for TSV
+		 */
+		public delimitedWriter(Writer out, char separator) {
+			this.out=out;
+			this.separator=separator;
+		}
+
+		@Override
+		public void start(String[] headings, boolean[] numeric) throws IOException {
+			this.numeric=numeric;
+			line.setLength(0);
+			for(int i=0; i<headings.length; i++) {
+				if(i>0) line.append(separator);
+				appendText(headings[i]);
+			}
+			out.write(line.append('\n').toString());
+		}
+
+		@Override
+		public void write(String[] texts, double[] numbers) throws IOException {
+			line.setLength(0);
+			for(int i=0; i<numeric.length; i++) {
+				if(i>0) line.append(separator);
+				if(numeric[i]) {
+					double value=numbers[i];
+					if(value==(long) value) {
+						line.append((long) value);
+					}else {
+						line.append(value);
+					}
+				}else {
+					appendText(texts[i]);
+				}
+			}
+			out.write(line.append('\n').toString());
+		}
+
+		@Override
+		public void end() throws IOException {
+			out.flush();
+		}
+
+		/**
+		 * Appends a text cell to the line buffer
+		 * @param value the cell's value
+		 */
+		void appendText(String value) {
+			if(value==null) return;
+
+			if(separator=='\t') {
+				line.append(value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+			}else if(value.indexOf(separator)>=0 || value.indexOf('"')>=0 || value.indexOf('\n')>=0 || value.indexOf('\r')>=0) {
+				line.append('"').append(value.replace("\"", "\"\"")).append('"');
+			}else {
+				line.append(value);
+			}
+		}
+	}
+
+	/**
+	 * This class writes rows to ResultsTables: each table is displayed once full, and a new one is
+	 * started, so that no single table grows beyond the maximum number of rows. Displayed tables are
+	 * kept by their windows, the total memory use growing with the number of rows. Cells are set by
+	 * column index
+	 */
+	public static class resultsTableWriter implements rowWriter{
+		/** Title of the tables */
+		String title;
+
+		/** Maximum number of rows per table */
+		int maxRows;
+
+		/** Headings of the columns */
+		String[] headings;
+
+		/** True for numeric columns */
+		boolean[] numeric;
+
+		/** Column index of each column, in the current table */
+		int[] columns;
+
+		/** The current table */
+		ResultsTable rt=null;
+
+		/** Number of tables displayed so far */
+		int nTables=0;
+
+		/**
+		 * Creates a new resultsTableWriter
+		 * @param title title of the tables, subsequent ones being numbered
+		 * @param maxRows maximum number of rows per table
+		 */
+		public resultsTableWriter(String title, int maxRows) {
+			this.title=title;
+			this.maxRows=Math.max(1, maxRows);
+		}
+
+		@Override
+		public void start(String[] headings, boolean[] numeric) {
+			this.headings=headings;
+			this.numeric=numeric;
+			columns=new int[headings.length];
+		}
+
+		@Override
+		public void write(String[] texts, double[] numbers) {
+			if(rt==null) {
+				rt=new ResultsTable();
+				rt.showRowNumbers(false);
+				for(int i=0; i<headings.length; i++) columns[i]=rt.getFreeColumn(headings[i]);
+			}
+
+			rt.incrementCounter();
+			int row=rt.size()-1;
+			for(int i=0; i<columns.length; i++) {
+				if(numeric[i]) {
+					rt.setValue(columns[i], row, numbers[i]);
+				}else {
+					rt.setValue(columns[i], row, texts[i]==null?"":texts[i]);
+				}
+			}
+
+			if(rt.size()==maxRows) flush();
+		}
+
+		@Override
+		public void end() {
+			if(rt!=null) flush();
+		}
+
+		/**
+		 * Displays the current table, a new one being started on next row
+		 */
+		void flush() {
+			nTables++;
+			rt.show(nTables==1?title:title+"-"+nTables);
+			rt=null;
+		}
+	}
+}
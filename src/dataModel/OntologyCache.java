@@ -0,0 +1,239 @@
+/**
+ * OntologyCache.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+
+import com.google.gson.Gson;
+
+import ij.Prefs;
+import ij.measure.ResultsTable;
+
+/**
+ * This class handles precompiled ontologies: the AtlasEntries parsed from a structure tree file, saved in the
+ * columnar format (see ColumnarArchive) with the structure.[field] columns only, together with ontology.json
+ * (the hash of the parsed content and the version of the parser). Precompiled ontologies are looked for:
+ * -within the jar file, next to the included structure tree files ([file].acb, see readStructureFile.compileInternalStructureFile)
+ * -in the user's cache (ontologies folder of ImageJ's preferences folder, [hash].acb), where ontologies parsed
+ * from any other source are saved.
+ * Precompiled ontologies are only used if they were built from the same content, by the same version of the parser.
+ */
+public class OntologyCache {
+	/** Version of the parser: precompiled ontologies built by other versions are ignored */
+	public static final int VERSION=1;
+
+	/** Name of the column holding the description of the precompiled ontology */
+	static final String ONTOLOGY="ontology.json";
+
+	/**
+	 * Returns the SHA-256 hash of the content of a stream, such as a structure tree file
+	 * @param is the stream to read from
+	 * @return the hash, as an hexadecimal String
+	 * @throws IOException
+	 */
+	public static String hash(InputStream is) throws IOException {
+		MessageDigest md=getDigest();
+		byte[] buffer=new byte[1<<16];
+		int read;
+		while((read=is.read(buffer))!=-1) md.update(buffer, 0, read);
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the content of a ResultsTable holding a structure tree
+	 * @param rt the ResultsTable
+	 * @return the hash, as an hexadecimal String
+	 * @throws IOException
+	 */
+	public static String hash(ResultsTable rt) throws IOException {
+		MessageDigest md=getDigest();
+		int lastColumn=rt.getLastColumn();
+		for(int j=0; j<=lastColumn; j++) if(rt.columnExists(j)) md.update((rt.getColumnHeading(j)+"\t").getBytes(StandardCharsets.UTF_8));
+		for(int i=0; i<rt.size(); i++) {
+			md.update((rt.getLabel(i)==null?"\n":rt.getLabel(i)+"\n").getBytes(StandardCharsets.UTF_8));
+			for(int j=0; j<=lastColumn; j++) if(rt.columnExists(j)) md.update((rt.getStringValue(j, i)+"\t").getBytes(StandardCharsets.UTF_8));
+		}
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Loads a precompiled ontology into the AtlasDataContainer, looking first within the jar file,
+	 * then in the user's cache
+	 * @param adc the AtlasDataContainer in which to store the AtlasEntries
+	 * @param hash hash of the content the ontology should have been built from
+	 * @param resource path to the precompiled ontology within the jar file, null if none
+	 * @return true if a precompiled ontology has been loaded
+	 */
+	public static boolean load(AtlasDataContainer adc, String hash, String resource) {
+		if(resource!=null) {
+			try(InputStream is=OntologyCache.class.getResourceAsStream(resource)) {
+				if(is!=null && read(ColumnarArchive.read(is, resource), adc, hash)) return true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		File cached=getCacheFile(hash);
+		if(cached!=null && cached.exists()) {
+			try(ColumnarArchive ca=ColumnarArchive.open(cached.getPath())) {
+				return read(ca, adc, hash);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Saves the AtlasEntries of the AtlasDataContainer in the user's cache, as a precompiled ontology.
+	 * The AtlasDataContainer should hold the content of the structure tree file only
+	 * @param adc the AtlasDataContainer
+	 * @param hash hash of the content the AtlasEntries were built from
+	 */
+	public static void save(AtlasDataContainer adc, String hash) {
+		File cached=getCacheFile(hash);
+		if(cached==null) return;
+
+		try {
+			if(!cached.getParentFile().exists() && !cached.getParentFile().mkdirs()) throw new IOException("Could not create "+cached.getParent());
+			File tmp=new File(cached.getPath()+".tmp");
+			write(adc, hash, tmp.getPath());
+			if(cached.exists()) cached.delete();
+			if(!tmp.renameTo(cached)) {
+				tmp.delete();
+				throw new IOException("Could not write "+cached.getPath());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the AtlasEntries of the AtlasDataContainer as a precompiled ontology
+	 * @param adc the AtlasDataContainer
+	 * @param hash hash of the content the AtlasEntries were built from
+	 * @param path path to the file
+	 * @throws IOException
+	 */
+	public static void write(AtlasDataContainer adc, String hash, String path) throws IOException {
+		LinkedHashMap<String, ColumnarArchive.column> columns=new LinkedHashMap<String, ColumnarArchive.column>();
+
+		ColumnarArchive.column[] intFields=new ColumnarArchive.column[ColumnarArchive.STRUCTURE_INT_COLUMNS.length];
+		for(int i=0; i<intFields.length; i++) intFields[i]=ColumnarArchive.addColumn(columns, ColumnarArchive.STRUCTURE_INT_COLUMNS[i], ColumnarArchive.INT);
+		ColumnarArchive.column[][] stringFields=new ColumnarArchive.column[ColumnarArchive.STRUCTURE_STRING_COLUMNS.length][];
+		for(int i=0; i<stringFields.length; i++) stringFields[i]=ColumnarArchive.addStringColumn(columns, ColumnarArchive.STRUCTURE_STRING_COLUMNS[i]);
+
+		for(AtlasEntry ae: adc.Atlas.values()) {
+			try {
+				for(int i=0; i<intFields.length; i++) intFields[i].add(ColumnarArchive.STRUCTURE_INT_REFS[i].getInt(ae));
+				for(int i=0; i<stringFields.length; i++) ColumnarArchive.addString(stringFields[i], (String) ColumnarArchive.STRUCTURE_STRING_REFS[i].get(ae));
+			} catch (ReflectiveOperationException e) {
+				throw new IOException(e);
+			}
+		}
+
+		ontology o=new ontology();
+		o.hash=hash;
+		o.version=VERSION;
+		ColumnarArchive.addColumn(columns, ONTOLOGY, ColumnarArchive.BYTE).add(new Gson().toJson(o).getBytes(StandardCharsets.UTF_8));
+
+		ColumnarArchive.writeColumns(columns, path);
+	}
+
+	/**
+	 * Reads the AtlasEntries of a precompiled ontology into the AtlasDataContainer
+	 * @param ca the precompiled ontology
+	 * @param adc the AtlasDataContainer in which to store the AtlasEntries
+	 * @param hash hash of the content the ontology should have been built from
+	 * @return true if the ontology has been read, false if it was built from another content or by another version of the parser
+	 */
+	static boolean read(ColumnarArchive ca, AtlasDataContainer adc, String hash) {
+		ByteBuffer bb=ca.getColumn(ONTOLOGY);
+		if(bb==null) return false;
+
+		byte[] json=new byte[bb.capacity()];
+		ColumnarArchive.get(bb, 0, json);
+		ontology o=new Gson().fromJson(new String(json, StandardCharsets.UTF_8), ontology.class);
+		if(o==null || o.version!=VERSION || !hash.equals(o.hash)) return false;
+
+		for(int s=0; s<ca.getNStructures(); s++) {
+			AtlasEntry ae=ca.getAtlasEntry(s);
+			adc.putInAtlas(ae.id, ae);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the file holding a precompiled ontology in the user's cache
+	 * @param hash hash of the content the ontology was built from
+	 * @return the file, or null if ImageJ's preferences folder is not known
+	 */
+	static File getCacheFile(String hash) {
+		String prefsDir=Prefs.getPrefsDir();
+		if(prefsDir==null) return null;
+		return new File(prefsDir+File.separator+"AtlasUtilities"+File.separator+"ontologies"+File.separator+hash+ColumnarArchive.EXTENSION);
+	}
+
+	/**
+	 * Returns a SHA-256 MessageDigest
+	 * @return the MessageDigest
+	 * @throws IOException if the algorithm is not available
+	 */
+	static MessageDigest getDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Converts bytes to an hexadecimal String
+	 * @param bytes the bytes
+	 * @return the hexadecimal String
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder out=new StringBuilder();
+		for(byte b: bytes) out.append(String.format("%02x", b));
+		return out.toString();
+	}
+
+	/**
+	 * This class holds the content of the ontology.json column
+	 */
+	static class ontology{
+		/** Hash of the content the ontology was built from */
+		String hash;
+
+		/** Version of the parser the ontology was built by */
+		int version;
+	}
+}
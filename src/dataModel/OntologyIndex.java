@@ -0,0 +1,293 @@
+/**
+ * OntologyIndex.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * This class indexes the ontology of an AtlasDataContainer, as a tree of structures:
+ * -the parent of a structure is read from its structure_id_path field (second to last id), or from its
+ * parent_structure_id field if the path is missing. Structures whose parent is not in the ontology are roots.
+ * -the children of each structure are stored as adjacency arrays, sorted by graph_order then id
+ * -the structures are numbered in pre-order: the descendants of a structure are the structures numbered
+ * from its own number to the end of its interval (Euler-tour intervals)
+ * -each structure stores its depth and its 2^k-th ancestors (binary lifting)
+ * Ancestor/descendant tests are answered in constant time, lowest common ancestors in logarithmic time,
+ * and the descendants of a structure are listed in time proportional to their number.
+ */
+public class OntologyIndex {
+	/** Ids of the structures, in pre-order */
+	final int[] ids;
+
+	/** Pre-order number of each structure, by id */
+	final HashMap<Integer, Integer> index;
+
+	/** Pre-order number of the parent of each structure, -1 for roots */
+	final int[] parent;
+
+	/** Offset table of the children of each structure, in childList */
+	final int[] childStart;
+
+	/** Pre-order numbers of the children of each structure */
+	final int[] childList;
+
+	/** Last pre-order number of the subtree of each structure */
+	final int[] last;
+
+	/** Depth of each structure, 0 for roots */
+	final int[] depth;
+
+	/** 2^k-th ancestors of each structure (up[k][node]), the root of its tree once above it */
+	final int[][] up;
+
+	/**
+	 * Builds the index of the ontology described by the input AtlasEntries
+	 * @param entries the AtlasEntries
+	 */
+	public OntologyIndex(Collection<AtlasEntry> entries) {
+		int n=entries.size();
+		AtlasEntry[] aes=entries.toArray(new AtlasEntry[n]);
+		Arrays.sort(aes, (a, b) -> a.graph_order!=b.graph_order?Integer.compare(a.graph_order, b.graph_order):Integer.compare(a.id, b.id));
+
+		HashMap<Integer, Integer> position=new HashMap<Integer, Integer>(2*n);
+		for(int i=0; i<n; i++) position.put(aes[i].id, i);
+
+		//Parents and children, in the graph_order order
+		int[] parentPosition=new int[n];
+		int[] nChildren=new int[n+1];
+		for(int i=0; i<n; i++) {
+			Integer p=position.get(getParentId(aes[i]));
+			parentPosition[i]=p==null || p==i?-1:p;
+			if(parentPosition[i]!=-1) nChildren[parentPosition[i]]++;
+		}
+		int[] start=new int[n+1];
+		for(int i=0; i<n; i++) start[i+1]=start[i]+nChildren[i];
+		int[] children=new int[start[n]];
+		int[] fill=Arrays.copyOf(start, n);
+		for(int i=0; i<n; i++) if(parentPosition[i]!=-1) children[fill[parentPosition[i]]++]=i;
+
+		//Pre-order numbering, iterative depth-first walk from the roots
+		int[] order=new int[n];
+		Arrays.fill(order, -1);
+		int[] preOrder=new int[n];
+		int[] stack=new int[n];
+		int count=0;
+		for(int pass=0; pass<2; pass++) {
+			for(int r=0; r<n; r++) {
+				//First pass: roots. Second pass: structures left unreached (cycles), walked as roots
+				if(order[r]!=-1 || (pass==0 && parentPosition[r]!=-1)) continue;
+				int top=0;
+				stack[top++]=r;
+				while(top>0) {
+					int i=stack[--top];
+					if(order[i]!=-1) continue;
+					order[i]=count;
+					preOrder[count++]=i;
+					for(int c=start[i+1]-1; c>=start[i]; c--) if(order[children[c]]==-1) stack[top++]=children[c];
+				}
+			}
+		}
+
+		ids=new int[n];
+		index=new HashMap<Integer, Integer>(2*n);
+		parent=new int[n];
+		depth=new int[n];
+		for(int v=0; v<n; v++) {
+			int i=preOrder[v];
+			ids[v]=aes[i].id;
+			index.put(ids[v], v);
+			int p=parentPosition[i]==-1?-1:order[parentPosition[i]];
+			parent[v]=p<v?p:-1; //A parent numbered after its child closes a cycle: the child is a root
+			depth[v]=parent[v]==-1?0:depth[parent[v]]+1;
+		}
+
+		childStart=new int[n+1];
+		for(int v=0; v<n; v++) if(parent[v]!=-1) childStart[parent[v]+1]++;
+		for(int v=0; v<n; v++) childStart[v+1]+=childStart[v];
+		childList=new int[childStart[n]];
+		fill=Arrays.copyOf(childStart, n);
+		for(int v=0; v<n; v++) if(parent[v]!=-1) childList[fill[parent[v]]++]=v; //Pre-order keeps the graph_order order
+
+		last=new int[n];
+		for(int v=n-1; v>=0; v--) {
+			if(last[v]<v) last[v]=v;
+			if(parent[v]!=-1 && last[parent[v]]<last[v]) last[parent[v]]=last[v];
+		}
+
+		int levels=1;
+		while((1<<levels)<n) levels++;
+		up=new int[levels][n];
+		for(int v=0; v<n; v++) up[0][v]=parent[v]==-1?v:parent[v];
+		for(int k=1; k<levels; k++) for(int v=0; v<n; v++) up[k][v]=up[k-1][up[k-1][v]];
+	}
+
+	/**
+	 * Returns the id of the parent of a structure, as described by its AtlasEntry
+	 * @param ae the AtlasEntry
+	 * @return the id of the parent, -1 if none
+	 */
+	static int getParentId(AtlasEntry ae) {
+		String path=ae.structure_id_path;
+		if(path!=null) {
+			int end=path.endsWith("/")?path.length()-1:path.length();
+			int lastSlash=path.lastIndexOf('/', end-1);
+			if(lastSlash>0) {
+				int previousSlash=path.lastIndexOf('/', lastSlash-1);
+				try {
+					return Integer.parseInt(path.substring(previousSlash+1, lastSlash));
+				} catch (NumberFormatException e) {
+					//Malformed path: falls back to the parent_structure_id field
+				}
+			}else if(lastSlash==0) {
+				return -1;
+			}
+		}
+		return ae.parent_structure_id;
+	}
+
+	/**
+	 * Returns the number of structures
+	 * @return the number of structures
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns true if the structure is part of the ontology
+	 * @param id the structure's id
+	 * @return true if the structure is part of the ontology
+	 */
+	public boolean contains(int id) {
+		return index.containsKey(id);
+	}
+
+	/**
+	 * Returns the id of the parent of a structure
+	 * @param id the structure's id
+	 * @return the id of the parent, -1 if the structure is a root or is not part of the ontology
+	 */
+	public int getParent(int id) {
+		Integer v=index.get(id);
+		return v==null || parent[v]==-1?-1:ids[parent[v]];
+	}
+
+	/**
+	 * Returns the ids of the children of a structure, sorted by graph_order
+	 * @param id the structure's id
+	 * @return the ids of the children, an empty array if none
+	 */
+	public int[] getChildren(int id) {
+		Integer v=index.get(id);
+		if(v==null) return new int[0];
+		int[] out=new int[childStart[v+1]-childStart[v]];
+		for(int c=0; c<out.length; c++) out[c]=ids[childList[childStart[v]+c]];
+		return out;
+	}
+
+	/**
+	 * Returns the depth of a structure
+	 * @param id the structure's id
+	 * @return the depth, 0 for roots, -1 if the structure is not part of the ontology
+	 */
+	public int getDepth(int id) {
+		Integer v=index.get(id);
+		return v==null?-1:depth[v];
+	}
+
+	/**
+	 * Returns the ids of a structure and of all its descendants, in pre-order
+	 * @param id the structure's id
+	 * @return the ids of the structure and its descendants, an empty array if the structure is not part of the ontology
+	 */
+	public int[] getDescendants(int id) {
+		Integer v=index.get(id);
+		return v==null?new int[0]:Arrays.copyOfRange(ids, v, last[v]+1);
+	}
+
+	/**
+	 * Returns the ids of the ancestors of a structure, from its parent up to the root
+	 * @param id the structure's id
+	 * @return the ids of the ancestors, an empty array if none
+	 */
+	public int[] getAncestors(int id) {
+		Integer v=index.get(id);
+		if(v==null) return new int[0];
+		int[] out=new int[depth[v]];
+		for(int a=parent[v], i=0; a!=-1; a=parent[a]) out[i++]=ids[a];
+		return out;
+	}
+
+	/**
+	 * Returns true if a structure is an ancestor of another, or the structure itself
+	 * @param ancestor the id of the putative ancestor
+	 * @param descendant the id of the putative descendant
+	 * @return true if ancestor is descendant or one of its ancestors
+	 */
+	public boolean isAncestor(int ancestor, int descendant) {
+		Integer a=index.get(ancestor);
+		Integer d=index.get(descendant);
+		return a!=null && d!=null && a<=d && d<=last[a];
+	}
+
+	/**
+	 * Returns the lowest common ancestor of two structures
+	 * @param id1 the id of the first structure
+	 * @param id2 the id of the second structure
+	 * @return the id of the deepest structure having both structures as descendants, -1 if none
+	 */
+	public int getLowestCommonAncestor(int id1, int id2) {
+		Integer v1=index.get(id1);
+		Integer v2=index.get(id2);
+		if(v1==null || v2==null) return -1;
+
+		int a=v1;
+		int b=v2;
+		if(depth[a]<depth[b]) {
+			int tmp=a;
+			a=b;
+			b=tmp;
+		}
+		for(int k=up.length-1; k>=0; k--) if(depth[a]-(1<<k)>=depth[b]) a=up[k][a];
+		if(a==b) return ids[a];
+
+		for(int k=up.length-1; k>=0; k--) {
+			if(up[k][a]!=up[k][b]) {
+				a=up[k][a];
+				b=up[k][b];
+			}
+		}
+		return parent[a]==-1 || parent[a]!=parent[b]?-1:ids[parent[a]];
+	}
+
+	/**
+	 * Returns the ids of the structures, in pre-order: each structure comes before its descendants
+	 * @return the ids of the structures, in pre-order
+	 */
+	public int[] getIdsInPreOrder() {
+		return ids.clone();
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * ParametricMapStack.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import ij.VirtualStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * This class is a read-only virtual stack displaying one or several parametric maps: slices are
+ * only rendered when requested, by the MapRenderer, which keeps the last rendered slices in a small
+ * LRU cache. When several maps are displayed, slices are ordered as a hyperstack (channel=map, then z).
+ */
+public class ParametricMapStack extends VirtualStack {
+	/** The renderer computing the slices */
+	MapRenderer renderer=null;
+
+	/** Indexes, within the renderer, of the maps displayed by this stack (one per channel) */
+	int[] maps=null;
+
+	/** Number of z slices */
+	int depth=0;
+
+	/**
+	 * Creates a new ParametricMapStack
+	 * @param renderer the renderer computing the slices
+	 * @param maps indexes, within the renderer, of the maps to display (one per channel)
+	 */
+	public ParametricMapStack(MapRenderer renderer, int[] maps) {
+		super(renderer.adc.Metadata.imgWidth, renderer.adc.Metadata.imgHeight);
+		this.renderer=renderer;
+		this.maps=maps;
+		depth=renderer.adc.Metadata.imgDepth;
+	}
+
+	/**
+	 * Returns the index, within the renderer, of the map displayed at the input stack position
+	 * @param n the stack position (1-based)
+	 * @return the index of the map
+	 */
+	int getMap(int n) {
+		return maps[(n-1)%maps.length];
+	}
+
+	/**
+	 * Returns the z slice displayed at the input stack position
+	 * @param n the stack position (1-based)
+	 * @return the z slice (1-based)
+	 */
+	int getZ(int n) {
+		return (n-1)/maps.length+1;
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		//Copied: the renderer's cache of rendered slices is shared by all stacks built from it
+		return renderer.getSlice(getZ(n))[getMap(n)].clone();
+	}
+
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		FloatProcessor fp=new FloatProcessor(getWidth(), getHeight(), (float[]) getPixels(n));
+		fp.setMinAndMax(renderer.getMin(getMap(n)), renderer.getMax(getMap(n)));
+		return fp;
+	}
+
+	@Override
+	public void setPixels(Object pixels, int n) {
+		//Read-only: slices are always rendered from the measurements
+	}
+
+	@Override
+	public int getSize() {
+		return depth*maps.length;
+	}
+
+	@Override
+	public int size() {
+		return getSize();
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return renderer.getSpecification(getMap(n)).getTitle();
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 32;
+	}
+}
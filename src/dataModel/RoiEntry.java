@@ -23,6 +23,8 @@
 
 package dataModel;
 
+import java.util.TreeMap;
+
 import ij.gui.Roi;
 
 /**
@@ -36,9 +38,12 @@ public class RoiEntry{
 	/** Stores the detected Roi */
 	public Roi roi;
 
-	/** Stores all extracted measurements relative to the Roi */
+	/** Stores all extracted measurements relative to the Roi, for the active measured image */
 	public MeasurementsEntry Measurements;
 
+	/** Stores all extracted measurements relative to the Roi, per measured image (key: image title, see AtlasDataContainer.getMeasurementKey) */
+	public TreeMap<String, MeasurementsEntry> MeasurementsPerImage=new TreeMap<String, MeasurementsEntry>();
+
 	/**
 	 * Creates a new empty RoiEntry object
 	 */
@@ -59,4 +64,28 @@ public class RoiEntry{
 		Measurements=new MeasurementsEntry();
 		Measurements.area=roi.getStatistics().area;
 	}
+
+	/**
+	 * Creates a new RoiEntry object, feeding it with the provided slice number and Roi.
+	 * It initiates its MeasurementsEntry field using the provided area, avoiding to measure the Roi
+	 * @param slice the slice number on which the Roi was detected
+	 * @param roi the detected Roi
+	 * @param area the Roi's area, in pixels
+	 */
+	public RoiEntry(int slice, Roi roi, double area) {
+		this.slice=slice;
+		this.roi=roi;
+
+		Measurements=new MeasurementsEntry();
+		Measurements.area=area;
+	}
+
+	/**
+	 * Returns the run-length mask of the Roi, built on first request and kept in the RoiMaskCache
+	 * @param cache the RoiMaskCache of the AtlasDataContainer the RoiEntry belongs to
+	 * @return the run-length mask of the Roi
+	 */
+	public RoiMask getMask(RoiMaskCache cache) {
+		return cache.get(this);
+	}
 }
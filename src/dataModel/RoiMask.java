@@ -0,0 +1,176 @@
+/**
+ * RoiMask.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+/**
+ * This class stores the rasterized version of a Roi as a run-length encoded mask: for each line of
+ * the Roi's bounding box, the list of [start, end[ x coordinates of the runs of pixels within the Roi.
+ * It is built once per Roi and kept in the RoiMaskCache, so that repeated measurements do not
+ * require rasterizing the Roi again.
+ */
+public class RoiMask {
+	/** The Roi the mask has been built from */
+	public final Roi roi;
+
+	/** Bounding box of the Roi */
+	public final Rectangle bounds;
+
+	/** For each line of the bounding box, index of its first run in the runs array (size: height+1) */
+	final int[] lineStart;
+
+	/** Runs, stored as pairs of absolute x coordinates: start (included), end (excluded) */
+	final int[] runs;
+
+	/** Number of pixels within the mask */
+	public final int pixelCount;
+
+	/**
+	 * Creates a new RoiMask by rasterizing the input Roi
+	 * @param roi the Roi to rasterize
+	 */
+	public RoiMask(Roi roi) {
+		this.roi=roi;
+		bounds=roi.getBounds();
+		ImageProcessor mask=roi.getMask(); //null for rectangles
+		byte[] maskPixels=mask==null?null:(byte[]) mask.getPixels();
+
+		lineStart=new int[bounds.height+1];
+		int[] tmp=new int[Math.max(16, 2*bounds.height)];
+		int n=0;
+		int count=0;
+
+		for(int y=0; y<bounds.height; y++) {
+			lineStart[y]=n;
+			int x=0;
+			while(x<bounds.width) {
+				//Skips pixels outside the mask, then looks for the end of the run
+				while(x<bounds.width && maskPixels!=null && maskPixels[y*bounds.width+x]==0) x++;
+				if(x==bounds.width) break;
+				int start=x;
+				while(x<bounds.width && (maskPixels==null || maskPixels[y*bounds.width+x]!=0)) x++;
+
+				if(n+2>tmp.length) tmp=Arrays.copyOf(tmp, tmp.length*2);
+				tmp[n++]=bounds.x+start;
+				tmp[n++]=bounds.x+x;
+				count+=x-start;
+			}
+		}
+		lineStart[bounds.height]=n;
+
+		runs=Arrays.copyOf(tmp, n);
+		pixelCount=count;
+	}
+
+	/**
+	 * Returns the approximate memory footprint of the mask, in bytes
+	 * @return the approximate memory footprint of the mask, in bytes
+	 */
+	public long getBytes() {
+		return 64+4L*(lineStart.length+runs.length);
+	}
+
+	/**
+	 * Measures the input ImageProcessor within the mask. Pixels outside the image are ignored.
+	 * @param iproc the ImageProcessor to measure
+	 * @return the measurements, as a MeasurementsEntry
+	 */
+	public MeasurementsEntry measure(ImageProcessor iproc) {
+		return measure(new ImageProcessor[] {iproc})[0];
+	}
+
+	/**
+	 * Measures several ImageProcessors, of identical dimensions, within the mask: the runs are
+	 * walked once, each pixel being read from all ImageProcessors. Pixels outside the images are ignored.
+	 * @param iprocs the ImageProcessors to measure
+	 * @return the measurements, as an array of MeasurementsEntry (same order as the ImageProcessors)
+	 */
+	public MeasurementsEntry[] measure(ImageProcessor[] iprocs) {
+		int width=iprocs[0].getWidth();
+		int height=iprocs[0].getHeight();
+		int nImages=iprocs.length;
+
+		int count=0;
+		double[] sum=new double[nImages];
+		double[] shift=new double[nImages];
+		double[] sumShifted=new double[nImages];
+		double[] sum2Shifted=new double[nImages];
+		double[] min=new double[nImages];
+		double[] max=new double[nImages];
+		Arrays.fill(min, Double.MAX_VALUE);
+		Arrays.fill(max, -Double.MAX_VALUE);
+
+		for(int line=0; line<bounds.height; line++) {
+			int y=bounds.y+line;
+			if(y<0 || y>=height) continue;
+
+			for(int run=lineStart[line]; run<lineStart[line+1]; run+=2) {
+				int start=Math.max(0, runs[run]);
+				int end=Math.min(width, runs[run+1]);
+				for(int i=y*width+start; i<y*width+end; i++) {
+					count++;
+					for(int k=0; k<nImages; k++) {
+						double value=iprocs[k].getf(i);
+						if(count==1) shift[k]=value; //Squares are accumulated around the first value (see MeasurementsAccumulator.fromSums)
+						double shifted=value-shift[k];
+						sum[k]+=value;
+						sumShifted[k]+=shifted;
+						sum2Shifted[k]+=shifted*shifted;
+						if(value<min[k]) min[k]=value;
+						if(value>max[k]) max[k]=value;
+					}
+				}
+			}
+		}
+
+		MeasurementsEntry[] out=new MeasurementsEntry[nImages];
+		for(int k=0; k<nImages; k++) out[k]=MeasurementsEntry.fromMoments(count, sum[k], shift[k], sumShifted[k], sum2Shifted[k], min[k], max[k]);
+		return out;
+	}
+
+	/**
+	 * Fills the mask with a value on a pixels array. Pixels outside the image are ignored.
+	 * @param pixels the pixels array to fill
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param value the value to write
+	 */
+	public void fill(float[] pixels, int width, int height, float value) {
+		for(int line=0; line<bounds.height; line++) {
+			int y=bounds.y+line;
+			if(y<0 || y>=height) continue;
+
+			for(int run=lineStart[line]; run<lineStart[line+1]; run+=2) {
+				int start=Math.max(0, runs[run]);
+				int end=Math.min(width, runs[run+1]);
+				if(start<end) Arrays.fill(pixels, y*width+start, y*width+end, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * RoiMaskCache.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.Prefs;
+
+/**
+ * This class stores the RoiMasks of RoiEntries in a memory-bounded cache: once the total
+ * size of the masks exceeds the limit, the least recently used ones are evicted.
+ * Hits, misses and evictions are counted to allow checking the cache's efficiency.
+ * Each AtlasDataContainer owns its cache (see AtlasDataContainer.getMaskCache): cached RoiEntries
+ * are only kept alive as long as their container, and are released when it is closed.
+ */
+public class RoiMaskCache {
+	/** Key used to store the cache size limit in the ImageJ preferences (in MB) */
+	public static final String CACHE_SIZE_PREF="AtlasUtilities.maskCacheMB";
+
+	/** The cached masks, in access order (RoiEntries are compared by identity) */
+	private final LinkedHashMap<RoiEntry, RoiMask> cache=new LinkedHashMap<RoiEntry, RoiMask>(1024, 0.75f, true);
+
+	/** Total size of the cached masks, in bytes */
+	private long bytes=0;
+
+	/** Number of requests answered from the cache */
+	private long hits=0;
+
+	/** Number of requests for which the mask had to be built */
+	private long misses=0;
+
+	/** Number of masks evicted from the cache */
+	private long evictions=0;
+
+	/**
+	 * Returns the mask of the input RoiEntry, building it if not cached, or if the RoiEntry's Roi has changed
+	 * @param re the RoiEntry for which the mask is requested
+	 * @return the mask of the input RoiEntry
+	 */
+	public RoiMask get(RoiEntry re) {
+		synchronized(cache) {
+			RoiMask mask=cache.get(re);
+			if(mask!=null && mask.roi==re.roi) {
+				hits++;
+				return mask;
+			}
+			misses++;
+		}
+
+		//Rasterizes outside of the lock, as it is the expensive part
+		RoiMask mask=new RoiMask(re.roi);
+
+		synchronized(cache) {
+			RoiMask former=cache.put(re, mask);
+			if(former!=null) bytes-=former.getBytes();
+			bytes+=mask.getBytes();
+			evict();
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Returns the maximum size of the cache, in bytes, as stored in the ImageJ preferences
+	 * @return the maximum size of the cache, in bytes
+	 */
+	public static long getLimit() {
+		return (long) Prefs.get(CACHE_SIZE_PREF, 256)*1024L*1024L;
+	}
+
+	/**
+	 * Evicts the least recently used masks until the cache fits within its size limit.
+	 * Should be called while holding the lock on the cache.
+	 */
+	private void evict() {
+		long limit=getLimit();
+		Iterator<Map.Entry<RoiEntry, RoiMask>> it=cache.entrySet().iterator();
+		while(bytes>limit && it.hasNext()) {
+			bytes-=it.next().getValue().getBytes();
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Empties the cache and resets its statistics. Called when the AtlasDataContainer is closed
+	 */
+	public void clear() {
+		synchronized(cache) {
+			cache.clear();
+			bytes=0;
+			hits=0;
+			misses=0;
+			evictions=0;
+		}
+	}
+
+	/**
+	 * Returns the number of requests answered from the cache
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHits() {
+		synchronized(cache) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Returns the number of requests for which the mask had to be built
+	 * @return the number of requests for which the mask had to be built
+	 */
+	public long getMisses() {
+		synchronized(cache) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Returns the number of masks evicted from the cache
+	 * @return the number of masks evicted from the cache
+	 */
+	public long getEvictions() {
+		synchronized(cache) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * Returns the number of cached masks
+	 * @return the number of cached masks
+	 */
+	public int size() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Returns the total size of the cached masks, in bytes
+	 * @return the total size of the cached masks, in bytes
+	 */
+	public long getBytes() {
+		synchronized(cache) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Returns a summary of the cache's statistics
+	 * @return a summary of the cache's statistics, as a String
+	 */
+	public String getStatistics() {
+		synchronized(cache) {
+			long requests=hits+misses;
+			return "Roi masks cache: "+cache.size()+" mask(s), "+(bytes/1024)+" kB, hits: "+hits+", misses: "+misses
+					+", evictions: "+evictions+(requests==0?"":", hit rate: "+(100*hits/requests)+"%");
+		}
+	}
+}
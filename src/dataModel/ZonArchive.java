@@ -0,0 +1,675 @@
+/**
+ * ZonArchive.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.gui.Roi;
+import ij.io.RoiDecoder;
+import ij.io.RoiEncoder;
+import utilities.jsonRoiEntry;
+import utilities.tools;
+
+/**
+ * This class reads and writes the indexed layout of ZON files (version 3). Rather than a single
+ * AtlasDataContainer.json entry, the zip holds:
+ * -index.json: the layout version and the number of Rois of each structure
+ * -metadata.json: the MetadataContainer
+ * -ontology.json: the AtlasEntries, without Rois nor measurements
+ * -measurements.json: the active measurements key and the measurements of each structure
+ * -profiles.json: the selection profiles
+ * -rois/[id].json: the RoiEntries of each structure having Rois, referring to their Rois
+ * -[id]-[slice]-[Roi name].roi: the Rois, in ImageJ's binary format
+ * Opening such a file only reads the first five entries: the Rois of a structure are read on
+ * first access (see LazyRoiMap). The zip file is therefore kept open until the container is closed
+ * (see AtlasDataContainer.close), being reopened should Rois be read afterwards.
+ * As Rois are stored as .roi entries, the file can also be opened as a RoiSet by the Roi Manager
+ * (once renamed with the .zip extension). Version 2 files, where Rois are stored as base64 strings
+ * within the JSON entries, are still read.
+ */
+public class ZonArchive {
+	/** Version of the layout */
+	public static final int VERSION=3;
+
+	/** Name of the index entry */
+	static final String INDEX="index.json";
+
+	/** Name of the metadata entry */
+	static final String METADATA="metadata.json";
+
+	/** Name of the ontology entry */
+	static final String ONTOLOGY="ontology.json";
+
+	/** Name of the measurements entry */
+	static final String MEASUREMENTS="measurements.json";
+
+	/** Name of the selection profiles entry */
+	static final String PROFILES="profiles.json";
+
+	/** Prefix of the per structure Rois entries */
+	static final String ROIS="rois/";
+
+	/** Path to the ZON file */
+	String path;
+
+	/** Version of the layout of the ZON file */
+	int version=VERSION;
+
+	/** The opened zip file, (re)opened on demand */
+	private ZipFile zip=null;
+
+	/** Rois' measurements replayed from the journal, per structure id, to be applied each time the Rois are read (see ZonJournal) */
+	private final Map<Integer, ArrayList<roisPatch>> patches=new HashMap<Integer, ArrayList<roisPatch>>();
+
+	/** Loaded, unpinned Rois maps of this archive that could be evicted, in access order. Also used as the lock on the eviction process */
+	private final LinkedHashMap<LazyRoiMap, Boolean> evictable=new LinkedHashMap<LazyRoiMap, Boolean>(256, 0.75f, true);
+
+	/**
+	 * Creates a new ZonArchive, pointing at the input file
+	 * @param path path to the ZON file
+	 */
+	ZonArchive(String path) {
+		this.path=path;
+	}
+
+	/**
+	 * Returns true if the input ZON file uses the indexed layout
+	 * @param path path to the ZON file
+	 * @return true if the input ZON file contains an index entry
+	 */
+	public static boolean isIndexed(String path) {
+		try(ZipFile zf=new ZipFile(path)) {
+			return zf.getEntry(INDEX)!=null;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the SHA-256 hash identifying the Rois of a ZON file. For indexed files storing their Rois
+	 * as .roi entries, only the names, CRCs and sizes of these entries are hashed, as read from the zip
+	 * directory: the hash is cheap to compute, and does not change as the file is rewritten with other
+	 * measurements or selection profiles. For other files, the whole file is hashed.
+	 * @param path path to the ZON file
+	 * @return the hash, as an hexadecimal String
+	 * @throws IOException
+	 */
+	public static String getRoisHash(String path) throws IOException {
+		MessageDigest md;
+		try {
+			md=MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		TreeMap<String, ZipEntry> rois=new TreeMap<String, ZipEntry>();
+		try(ZipFile zf=new ZipFile(path)) {
+			Enumeration<? extends ZipEntry> entries=zf.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry ze=entries.nextElement();
+				if(ze.getName().endsWith(".roi")) rois.put(ze.getName(), ze);
+			}
+		}
+
+		if(rois.isEmpty()) {
+			try(InputStream is=new BufferedInputStream(new FileInputStream(path), 1<<16)) {
+				byte[] buffer=new byte[1<<16];
+				int read;
+				while((read=is.read(buffer))!=-1) md.update(buffer, 0, read);
+			}
+		}else {
+			ByteBuffer bb=ByteBuffer.allocate(16);
+			for(ZipEntry ze: rois.values()) {
+				md.update(ze.getName().getBytes(StandardCharsets.UTF_8));
+				bb.clear();
+				bb.putLong(ze.getCrc()).putLong(ze.getSize());
+				md.update(bb.array());
+			}
+		}
+
+		StringBuilder out=new StringBuilder();
+		for(byte b: md.digest()) out.append(String.format("%02x", b));
+		return out.toString();
+	}
+
+	/**
+	 * Returns the name of the entry holding the Rois of a structure
+	 * @param id the structure's id
+	 * @return the name of the entry holding the Rois of the structure
+	 */
+	static String getRoisEntryName(int id) {
+		return ROIS+id+".json";
+	}
+
+	/**
+	 * Returns the name of the entry holding a Roi
+	 * @param id the structure's id
+	 * @param re the RoiEntry holding the Roi
+	 * @return the name of the entry holding the Roi
+	 */
+	static String getRoiEntryName(int id, RoiEntry re) {
+		String name=re.roi==null?null:re.roi.getName();
+		return id+"-"+IJ.pad(re.slice, 4)+(name==null?"":"-"+name.replaceAll("[/\\\\:*?\"<>|]", "_"))+".roi";
+	}
+
+	/**
+	 * Returns the Gson used for all entries but the Rois: AtlasEntries are written without their Rois and measurements
+	 * @return the Gson used for all entries but the Rois
+	 */
+	static Gson getGson() {
+		return new GsonBuilder()
+				.setExclusionStrategies(new ExclusionStrategy() {
+					@Override
+					public boolean shouldSkipField(FieldAttributes f) {
+						return f.getDeclaringClass()==AtlasEntry.class && (f.getName().equals("ROIs") || f.getName().equals("Measurements") || f.getName().equals("MeasurementsPerImage"));
+					}
+
+					@Override
+					public boolean shouldSkipClass(Class<?> clazz) {
+						return false;
+					}
+				})
+				.create();
+	}
+
+	/**
+	 * Returns the zip file, opening it if required
+	 * @return the zip file
+	 * @throws IOException
+	 */
+	synchronized ZipFile getZip() throws IOException {
+		if(zip==null) zip=new ZipFile(path);
+		return zip;
+	}
+
+	/**
+	 * Closes the zip file: it will be reopened on next access
+	 */
+	public synchronized void close() {
+		if(zip!=null) {
+			try {
+				zip.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			zip=null;
+		}
+	}
+
+	/**
+	 * Marks the input map as recently used, then evicts the least recently used maps of the archive if required
+	 * @param map the map that has just been read
+	 */
+	void touch(LazyRoiMap map) {
+		synchronized(evictable) {
+			evictable.put(map, Boolean.TRUE);
+
+			int max=Math.max(1, (int) Prefs.get(LazyRoiMap.MAX_LOADED_PREF, 500));
+			Runtime rt=Runtime.getRuntime();
+			boolean lowMemory=rt.maxMemory()-(rt.totalMemory()-rt.freeMemory())<rt.maxMemory()/10;
+			if(lowMemory) max=Math.max(1, evictable.size()/2);
+
+			Iterator<LazyRoiMap> it=evictable.keySet().iterator();
+			while(evictable.size()>max && it.hasNext()) {
+				LazyRoiMap toEvict=it.next();
+				if(toEvict==map) continue;
+				it.remove();
+				toEvict.evict();
+			}
+		}
+	}
+
+	/**
+	 * Removes the input map from the eviction table, once pinned
+	 * @param map the pinned map
+	 */
+	void forget(LazyRoiMap map) {
+		synchronized(evictable) {
+			evictable.remove(map);
+		}
+	}
+
+	/**
+	 * Returns a reader on the input entry
+	 * @param name name of the entry
+	 * @return a reader on the input entry, null if the entry does not exist
+	 * @throws IOException
+	 */
+	Reader getReader(String name) throws IOException {
+		ZipFile zf=getZip();
+		ZipEntry ze=zf.getEntry(name);
+		if(ze==null) return null;
+		return new BufferedReader(new InputStreamReader(zf.getInputStream(ze), StandardCharsets.UTF_8), 1<<16);
+	}
+
+	/**
+	 * Returns a reader on the input entry, which is mandatory
+	 * @param name name of the entry
+	 * @return a reader on the input entry
+	 * @throws IOException if the entry does not exist
+	 */
+	Reader getRequiredReader(String name) throws IOException {
+		Reader reader=getReader(name);
+		if(reader==null) throw new IOException("Missing entry in "+path+": "+name);
+		return reader;
+	}
+
+	/**
+	 * Reads the Rois of a structure
+	 * @param id the structure's id
+	 * @return the RoiEntries of the structure (empty if none could be read)
+	 */
+	ArrayList<RoiEntry> readRois(int id) {
+		ArrayList<RoiEntry> out=new ArrayList<RoiEntry>();
+		jsonRoiEntry adapter=new jsonRoiEntry(new jsonRoiEntry.roiStore() {
+			@Override
+			public String getReference(RoiEntry re) {
+				return getRoiEntryName(id, re);
+			}
+
+			@Override
+			public Roi resolve(String reference) throws IOException {
+				return readRoi(reference);
+			}
+		});
+
+		try(Reader reader=getReader(getRoisEntryName(id))) {
+			if(reader==null) return out;
+
+			JsonReader in=new JsonReader(reader);
+			in.beginArray();
+			while(in.hasNext()) out.add(adapter.read(in));
+			in.endArray();
+		} catch (IOException | IllegalStateException e) {
+			e.printStackTrace();
+		}
+
+		ArrayList<roisPatch> toApply=null;
+		synchronized(this) {
+			if(patches.containsKey(id)) toApply=new ArrayList<roisPatch>(patches.get(id));
+		}
+		if(toApply!=null) {
+			Map<Integer, RoiEntry> bySlice=new HashMap<Integer, RoiEntry>();
+			for(RoiEntry re: out) bySlice.put(re.slice, re);
+			for(roisPatch patch: toApply) ZonJournal.apply(bySlice, patch.rois, patch.activeMeasurements);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Registers Rois' measurements, replayed from the journal, to be applied each time the Rois of a structure are read
+	 * @param id the structure's id
+	 * @param rois the measurements per slice, then per measured image
+	 * @param activeMeasurements the key of the active measurements
+	 */
+	synchronized void addPatch(int id, TreeMap<Integer, TreeMap<String, MeasurementsEntry>> rois, String activeMeasurements) {
+		patches.computeIfAbsent(id, k -> new ArrayList<roisPatch>()).add(new roisPatch(rois, activeMeasurements));
+	}
+
+	/**
+	 * Returns true if Rois' measurements have been registered for a structure, its Rois entries being then outdated
+	 * @param id the structure's id
+	 * @return true if Rois' measurements have been registered for the structure
+	 */
+	synchronized boolean hasPatches(int id) {
+		return patches.containsKey(id);
+	}
+
+	/**
+	 * Forgets the registered Rois' measurements, once written to the ZON file
+	 */
+	synchronized void clearPatches() {
+		patches.clear();
+	}
+
+	/**
+	 * Reads a Roi stored as a .roi entry
+	 * @param name name of the entry
+	 * @return the Roi, or null if the entry does not exist
+	 * @throws IOException
+	 */
+	Roi readRoi(String name) throws IOException {
+		ZipFile zf=getZip();
+		ZipEntry ze=zf.getEntry(name);
+		if(ze==null) return null;
+
+		try(InputStream is=zf.getInputStream(ze)) {
+			return RoiDecoder.openFromByteArray(tools.readAllBytes(is));
+		}
+	}
+
+	/**
+	 * Copies the entries holding the Rois of a structure to the input zip file, without decoding them
+	 * @param id the structure's id
+	 * @param zos the zip file being written
+	 * @throws IOException
+	 */
+	void copyRois(int id, ZipOutputStream zos) throws IOException {
+		ZipFile zf=getZip();
+		byte[] json;
+		try(InputStream is=zf.getInputStream(zf.getEntry(getRoisEntryName(id)))) {
+			json=tools.readAllBytes(is);
+		}
+
+		zos.putNextEntry(new ZipEntry(getRoisEntryName(id)));
+		zos.write(json);
+		zos.closeEntry();
+
+		//Only the references are parsed from the JSON
+		JsonReader in=new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+		in.beginArray();
+		while(in.hasNext()) {
+			in.beginObject();
+			while(in.hasNext()) {
+				if(in.nextName().equals("roiRef")) {
+					String name=in.nextString();
+					ZipEntry ze=zf.getEntry(name);
+					if(ze==null) continue;
+
+					zos.putNextEntry(new ZipEntry(name));
+					try(InputStream is=zf.getInputStream(ze)) {
+						tools.copy(is, zos);
+					}
+					zos.closeEntry();
+				}else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+		}
+		in.endArray();
+	}
+
+	/**
+	 * Opens an indexed ZON file: the metadata, ontology, measurements and selection profiles are read,
+	 * the Rois of each structure being read on first access
+	 * @param path path to the ZON file
+	 * @return the AtlasDataContainer, or null if the file could not be read
+	 */
+	public static AtlasDataContainer open(String path) {
+		ZonArchive archive=new ZonArchive(path);
+		Gson gson=getGson();
+		AtlasDataContainer adc=new AtlasDataContainer();
+
+		try {
+			index idx;
+			try(Reader reader=archive.getRequiredReader(INDEX)) {
+				idx=gson.fromJson(reader, index.class);
+			}
+			if(idx==null || idx.structures==null) throw new IOException("Invalid entry in "+path+": "+INDEX);
+			if(idx.version>VERSION) throw new IOException("Unsupported ZON layout version: "+idx.version);
+			archive.version=idx.version;
+
+			try(Reader reader=archive.getRequiredReader(METADATA)) {
+				adc.Metadata=gson.fromJson(reader, MetadataContainer.class);
+			}
+			if(adc.Metadata==null) throw new IOException("Invalid entry in "+path+": "+METADATA);
+
+			ArrayList<AtlasEntry> ontology;
+			try(Reader reader=archive.getRequiredReader(ONTOLOGY)) {
+				ontology=gson.fromJson(reader, new TypeToken<ArrayList<AtlasEntry>>(){}.getType());
+			}
+			if(ontology==null) throw new IOException("Invalid entry in "+path+": "+ONTOLOGY);
+			for(AtlasEntry ae: ontology) {
+				if(ae==null) throw new IOException("Invalid entry in "+path+": "+ONTOLOGY);
+				int count=idx.structures.getOrDefault(ae.id, 0);
+				if(count>0) ae.ROIs=new LazyRoiMap(archive, ae.id, count);
+				adc.Atlas.put(ae.id, ae);
+			}
+
+			try(Reader reader=archive.getReader(MEASUREMENTS)) {
+				if(reader!=null) {
+					measurements m=gson.fromJson(reader, measurements.class);
+					if(m==null || m.structures==null) throw new IOException("Invalid entry in "+path+": "+MEASUREMENTS);
+					adc.activeMeasurements=m.activeMeasurements;
+					for(Map.Entry<Integer, structureMeasurements> entry: m.structures.entrySet()) {
+						AtlasEntry ae=adc.Atlas.get(entry.getKey());
+						if(ae==null || entry.getValue()==null) continue;
+						if(entry.getValue().Measurements!=null) ae.Measurements=entry.getValue().Measurements;
+						if(entry.getValue().MeasurementsPerImage!=null) ae.MeasurementsPerImage=entry.getValue().MeasurementsPerImage;
+					}
+				}
+			}
+
+			try(Reader reader=archive.getReader(PROFILES)) {
+				if(reader!=null) adc.selectionProfiles=gson.fromJson(reader, new TypeToken<TreeMap<String, Set<Integer>>>(){}.getType());
+			}
+			if(adc.selectionProfiles==null) adc.selectionProfiles=new TreeMap<String, Set<Integer>>();
+		} catch (IOException | JsonParseException e) {
+			e.printStackTrace();
+			archive.close();
+			return null;
+		}
+
+		adc.archive=archive;
+		adc.rebuildNameIdMap();
+		return adc;
+	}
+
+	/**
+	 * Saves the input AtlasDataContainer as an indexed ZON file. The file is first written next to its
+	 * destination, then moved in place. The Rois of structures not loaded from their source archive are
+	 * copied as is, without being decoded.
+	 * @param adc the AtlasDataContainer to save
+	 * @param path path to the ZON file
+	 * @param level the compression level, from 0 (none) to 9 (maximum)
+	 * @throws IOException
+	 */
+	public static void write(AtlasDataContainer adc, String path, int level) throws IOException {
+		Gson gson=getGson();
+		File tmp=new File(path+".tmp");
+
+		index idx=new index();
+		measurements m=new measurements();
+		m.activeMeasurements=adc.activeMeasurements;
+		for(AtlasEntry ae: adc.Atlas.values()) {
+			if(!ae.ROIs.isEmpty()) idx.structures.put(ae.id, ae.ROIs.size());
+			m.structures.put(ae.id, new structureMeasurements(ae));
+		}
+
+		try(ZipOutputStream zos=new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1<<16))) {
+			zos.setLevel(level);
+			BufferedWriter bw=new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8), 1<<16);
+
+			writeEntry(zos, bw, INDEX, gson, idx);
+			writeEntry(zos, bw, METADATA, gson, adc.Metadata);
+			writeEntry(zos, bw, ONTOLOGY, gson, new ArrayList<AtlasEntry>(adc.Atlas.values()));
+			writeEntry(zos, bw, MEASUREMENTS, gson, m);
+			writeEntry(zos, bw, PROFILES, gson, adc.selectionProfiles);
+
+			for(AtlasEntry ae: adc.Atlas.values()) {
+				if(ae.ROIs.isEmpty()) continue;
+
+				if(ae.ROIs instanceof LazyRoiMap && !((LazyRoiMap) ae.ROIs).isLoaded() && ((LazyRoiMap) ae.ROIs).archive.version==VERSION && !((LazyRoiMap) ae.ROIs).archive.hasPatches(ae.id)) {
+					LazyRoiMap lazy=(LazyRoiMap) ae.ROIs;
+					lazy.archive.copyRois(lazy.id, zos);
+					continue;
+				}
+
+				//Rois first, as .roi entries, then the RoiEntries referring to them
+				for(RoiEntry re: ae.ROIs.values()) {
+					if(re.roi==null) continue;
+					zos.putNextEntry(new ZipEntry(getRoiEntryName(ae.id, re)));
+					zos.write(RoiEncoder.saveAsByteArray(re.roi));
+					zos.closeEntry();
+				}
+
+				jsonRoiEntry adapter=new jsonRoiEntry(new jsonRoiEntry.roiStore() {
+					@Override
+					public String getReference(RoiEntry re) {
+						return getRoiEntryName(ae.id, re);
+					}
+
+					@Override
+					public Roi resolve(String reference) {
+						return null;
+					}
+				});
+
+				zos.putNextEntry(new ZipEntry(getRoisEntryName(ae.id)));
+				JsonWriter writer=new JsonWriter(bw);
+				writer.beginArray();
+				for(RoiEntry re: ae.ROIs.values()) adapter.write(writer, re);
+				writer.endArray();
+				writer.flush();
+				zos.closeEntry();
+			}
+		}
+
+		//The source archive may be the destination: it is closed before being replaced, then reopened on demand
+		if(adc.archive!=null) adc.archive.close();
+		Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		//The replaced file now holds the journaled Rois' measurements
+		if(adc.archive!=null && new File(adc.archive.path).getCanonicalPath().equals(new File(path).getCanonicalPath())) adc.archive.clearPatches();
+	}
+
+	/**
+	 * Writes an object as a JSON zip entry
+	 * @param zos the zip file being written
+	 * @param bw the writer wrapping the zip file
+	 * @param name name of the entry
+	 * @param gson the Gson to use
+	 * @param src the object to write
+	 * @throws IOException
+	 */
+	static void writeEntry(ZipOutputStream zos, BufferedWriter bw, String name, Gson gson, Object src) throws IOException {
+		zos.putNextEntry(new ZipEntry(name));
+		JsonWriter writer=new JsonWriter(bw);
+		gson.toJson(src, src.getClass(), writer);
+		writer.flush();
+		zos.closeEntry();
+	}
+
+	/**
+	 * This class holds the content of the index entry
+	 */
+	static class index{
+		/** Version of the layout */
+		int version=VERSION;
+
+		/** Number of Rois per structure id, for structures having Rois */
+		TreeMap<Integer, Integer> structures=new TreeMap<Integer, Integer>();
+	}
+
+	/**
+	 * This class holds the content of the measurements entry
+	 */
+	static class measurements{
+		/** Key of the active measurements */
+		String activeMeasurements=null;
+
+		/** Measurements per structure id */
+		TreeMap<Integer, structureMeasurements> structures=new TreeMap<Integer, structureMeasurements>();
+	}
+
+	/**
+	 * This class holds the measurements of a single structure
+	 */
+	static class structureMeasurements{
+		/** Measurements of the structure, for the active measured image */
+		MeasurementsEntry Measurements;
+
+		/** Measurements of the structure, per measured image */
+		TreeMap<String, MeasurementsEntry> MeasurementsPerImage;
+
+		/**
+		 * Creates a new empty structureMeasurements
+		 */
+		structureMeasurements() {
+
+		}
+
+		/**
+		 * Creates a new structureMeasurements, referring to the measurements of the input AtlasEntry
+		 * @param ae the AtlasEntry
+		 */
+		structureMeasurements(AtlasEntry ae) {
+			Measurements=ae.Measurements;
+			MeasurementsPerImage=ae.MeasurementsPerImage;
+		}
+	}
+
+	/**
+	 * This class holds Rois' measurements replayed from the journal
+	 */
+	static class roisPatch{
+		/** Measurements per slice, then per measured image */
+		TreeMap<Integer, TreeMap<String, MeasurementsEntry>> rois;
+
+		/** Key of the active measurements */
+		String activeMeasurements;
+
+		/**
+		 * Creates a new roisPatch
+		 * @param rois measurements per slice, then per measured image
+		 * @param activeMeasurements key of the active measurements
+		 */
+		roisPatch(TreeMap<Integer, TreeMap<String, MeasurementsEntry>> rois, String activeMeasurements) {
+			this.rois=rois;
+			this.activeMeasurements=activeMeasurements;
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/**
+ * ZonJournal.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataModel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import ij.IJ;
+
+/**
+ * This class handles the append-only journal of a ZON file: a sidecar file ([ZON file].journal)
+ * recording, one JSON object per line, the changes made to the selection profiles and measurements
+ * since the ZON file was written. Saving changes only appends the pending records, while opening
+ * the ZON file replays the journal over its content. Compaction (see AtlasDataContainer.compact)
+ * rewrites the ZON file and deletes the journal.
+ * The first record describes the ZON file the journal applies to: the journal is ignored if the
+ * ZON file has been replaced since.
+ */
+public class ZonJournal {
+	/** Suffix of the journal file */
+	public static final String SUFFIX=".journal";
+
+	/** Operation: describes the ZON file the journal applies to */
+	static final String BASE="base";
+
+	/** Operation: creates or replaces a selection profile */
+	static final String PUT_PROFILE="putProfile";
+
+	/** Operation: removes a selection profile */
+	static final String REMOVE_PROFILE="removeProfile";
+
+	/** Operation: stores the results of a measurement run */
+	static final String MEASUREMENTS="measurements";
+
+	/**
+	 * Returns the path of the journal of a ZON file
+	 * @param zonPath path to the ZON file
+	 * @return the path of the journal
+	 */
+	public static String getPath(String zonPath) {
+		return zonPath+SUFFIX;
+	}
+
+	/**
+	 * Builds a record creating or replacing a selection profile
+	 * @param name the profile's name
+	 * @param ids the structures' ids
+	 * @return the record
+	 */
+	static change putProfile(String name, Set<Integer> ids) {
+		change r=new change(PUT_PROFILE);
+		r.name=name;
+		r.ids=ids==null?new TreeSet<Integer>():new TreeSet<Integer>(ids);
+		return r;
+	}
+
+	/**
+	 * Builds a record removing a selection profile
+	 * @param name the profile's name
+	 * @return the record
+	 */
+	static change removeProfile(String name) {
+		change r=new change(REMOVE_PROFILE);
+		r.name=name;
+		return r;
+	}
+
+	/**
+	 * Builds a record storing the measurements made on the input images: the measurements of all
+	 * structures and Rois for these images, together with the active measurements
+	 * @param adc the measured AtlasDataContainer
+	 * @param keys the keys of the measured images
+	 * @return the record
+	 */
+	static change measurements(AtlasDataContainer adc, String[] keys) {
+		change r=new change(MEASUREMENTS);
+		r.activeMeasurements=adc.activeMeasurements;
+		r.structures=new TreeMap<Integer, structurePatch>();
+
+		for(AtlasEntry ae: adc.Atlas.values()) {
+			structurePatch sp=new structurePatch();
+			sp.Measurements=ae.Measurements;
+			for(String key: keys) if(ae.MeasurementsPerImage.containsKey(key)) sp.MeasurementsPerImage.put(key, ae.MeasurementsPerImage.get(key));
+
+			for(RoiEntry re: ae.ROIs.values()) {
+				TreeMap<String, MeasurementsEntry> perImage=new TreeMap<String, MeasurementsEntry>();
+				for(String key: keys) if(re.MeasurementsPerImage.containsKey(key)) perImage.put(key, re.MeasurementsPerImage.get(key));
+				sp.rois.put(re.slice, perImage);
+			}
+			r.structures.put(ae.id, sp);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Appends records to the journal of a ZON file, creating it if required. The file is synced to disk
+	 * @param zonPath path to the ZON file
+	 * @param records the records to append
+	 * @throws IOException
+	 */
+	static void append(String zonPath, List<change> records) throws IOException {
+		File journal=new File(getPath(zonPath));
+		boolean create=!journal.exists();
+		Gson gson=new Gson();
+
+		try(FileOutputStream fos=new FileOutputStream(journal, true)) {
+			BufferedWriter bw=new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8), 1<<16);
+			if(create) {
+				File zon=new File(zonPath);
+				change base=new change(BASE);
+				base.length=zon.length();
+				base.modified=zon.lastModified();
+				bw.write(gson.toJson(base));
+				bw.newLine();
+			}
+			for(change r: records) {
+				gson.toJson(r, change.class, bw);
+				bw.newLine();
+			}
+			bw.flush();
+			fos.getFD().sync();
+		}
+	}
+
+	/**
+	 * Deletes the journal of a ZON file, if any
+	 * @param zonPath path to the ZON file
+	 */
+	static void delete(String zonPath) {
+		File journal=new File(getPath(zonPath));
+		if(journal.exists() && !journal.delete()) IJ.log("Could not delete "+journal.getPath());
+	}
+
+	/**
+	 * Replays the journal of a ZON file, if any, over the AtlasDataContainer read from this file.
+	 * The journal is ignored if the ZON file has been replaced since it was created. A truncated
+	 * last record (interrupted save) is ignored.
+	 * @param adc the AtlasDataContainer read from the ZON file
+	 * @param zonPath path to the ZON file
+	 */
+	static void replay(AtlasDataContainer adc, String zonPath) {
+		File journal=new File(getPath(zonPath));
+		if(!journal.exists()) return;
+
+		Gson gson=new Gson();
+		try(BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8), 1<<16)) {
+			String line;
+			int n=0;
+			while((line=br.readLine())!=null) {
+				if(line.isEmpty()) continue;
+
+				change r;
+				try {
+					r=gson.fromJson(line, change.class);
+				} catch (JsonParseException e) {
+					IJ.log("Journal "+journal.getName()+": record "+(n+1)+" is incomplete and has been ignored");
+					break;
+				}
+
+				if(n++==0) {
+					File zon=new File(zonPath);
+					if(!BASE.equals(r.op) || r.length!=zon.length() || r.modified!=zon.lastModified()) {
+						IJ.log("Journal "+journal.getName()+" does not match "+zon.getName()+": it has been ignored");
+						return;
+					}
+					continue;
+				}
+				apply(adc, r);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Applies a record to an AtlasDataContainer. The Rois' measurements of structures whose Rois have
+	 * not been read yet are handed to the ZonArchive, to be applied each time the Rois are read.
+	 * @param adc the AtlasDataContainer
+	 * @param r the record to apply
+	 */
+	static void apply(AtlasDataContainer adc, change r) {
+		switch(r.op) {
+			case PUT_PROFILE:
+				adc.selectionProfiles.put(r.name, r.ids);
+				break;
+
+			case REMOVE_PROFILE:
+				adc.selectionProfiles.remove(r.name);
+				break;
+
+			case MEASUREMENTS:
+				adc.activeMeasurements=r.activeMeasurements;
+				for(Map.Entry<Integer, structurePatch> entry: r.structures.entrySet()) {
+					AtlasEntry ae=adc.Atlas.get(entry.getKey());
+					if(ae==null) continue;
+
+					structurePatch sp=entry.getValue();
+					if(sp.Measurements!=null) ae.Measurements=sp.Measurements;
+					ae.MeasurementsPerImage.putAll(sp.MeasurementsPerImage);
+
+					apply(ae, sp.rois, r.activeMeasurements);
+				}
+				break;
+
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Applies measurements to the Rois of a structure. For Rois read on demand from a ZON file, the measurements
+	 * are registered to the archive, to be applied each time the Rois are read again once evicted (see LazyRoiMap),
+	 * then applied to the Rois already in memory, if any
+	 * @param ae the structure
+	 * @param patch the measurements per slice, then per measured image
+	 * @param activeMeasurements the key of the active measurements
+	 */
+	static void apply(AtlasEntry ae, TreeMap<Integer, TreeMap<String, MeasurementsEntry>> patch, String activeMeasurements) {
+		if(ae.ROIs instanceof LazyRoiMap) {
+			LazyRoiMap lazy=(LazyRoiMap) ae.ROIs;
+			lazy.archive.addPatch(ae.id, patch, activeMeasurements);
+			if(!lazy.isLoaded()) return;
+		}
+		apply(ae.ROIs, patch, activeMeasurements);
+	}
+
+	/**
+	 * Applies measurements to Rois, then exposes the active measurements through their Measurements field
+	 * (see AtlasDataContainer.setActiveMeasurements)
+	 * @param rois the Rois, indexed by slice
+	 * @param patch the measurements per slice, then per measured image
+	 * @param activeMeasurements the key of the active measurements
+	 */
+	static void apply(Map<Integer, RoiEntry> rois, TreeMap<Integer, TreeMap<String, MeasurementsEntry>> patch, String activeMeasurements) {
+		for(Map.Entry<Integer, TreeMap<String, MeasurementsEntry>> entry: patch.entrySet()) {
+			RoiEntry re=rois.get(entry.getKey());
+			if(re==null) continue;
+
+			re.MeasurementsPerImage.putAll(entry.getValue());
+			MeasurementsEntry me=activeMeasurements==null?null:re.MeasurementsPerImage.get(activeMeasurements);
+			if(me==null) {
+				me=new MeasurementsEntry();
+				me.area=re.Measurements==null?0:re.Measurements.area;
+			}
+			re.Measurements=me;
+		}
+	}
+
+	/**
+	 * This class holds a single record of the journal
+	 */
+	static class change{
+		/** The operation */
+		String op;
+
+		/** BASE: length of the ZON file */
+		long length;
+
+		/** BASE: last modification time of the ZON file */
+		long modified;
+
+		/** PUT_PROFILE/REMOVE_PROFILE: name of the profile */
+		String name;
+
+		/** PUT_PROFILE: ids of the structures */
+		TreeSet<Integer> ids;
+
+		/** MEASUREMENTS: key of the active measurements */
+		String activeMeasurements;
+
+		/** MEASUREMENTS: measurements per structure id */
+		TreeMap<Integer, structurePatch> structures;
+
+		/**
+		 * Creates a new empty record
+		 */
+		change() {
+
+		}
+
+		/**
+		 * Creates a new record for the input operation
+		 * @param op the operation
+		 */
+		change(String op) {
+			this.op=op;
+		}
+	}
+
+	/**
+	 * This class holds the measurements of a structure and of its Rois, as recorded in the journal
+	 */
+	static class structurePatch{
+		/** Active measurements of the structure */
+		MeasurementsEntry Measurements;
+
+		/** Measurements of the structure, per measured image */
+		TreeMap<String, MeasurementsEntry> MeasurementsPerImage=new TreeMap<String, MeasurementsEntry>();
+
+		/** Measurements of the Rois, per slice then per measured image */
+		TreeMap<Integer, TreeMap<String, MeasurementsEntry>> rois=new TreeMap<Integer, TreeMap<String, MeasurementsEntry>>();
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * csvReader.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataReader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * This class reads a comma separated values file, one row at a time, straight from a stream (RFC 4180):
+ * cells may be enclosed in double quotes, in which case they may contain separators, line breaks and
+ * doubled double quotes. Both LF and CRLF line endings are accepted, a leading UTF-8 byte order mark is skipped.
+ */
+public class csvReader implements Closeable{
+	/** The Reader to read from */
+	Reader in;
+
+	/** The separator */
+	char separator;
+
+	/** Reusable cell buffer */
+	StringBuilder cell=new StringBuilder(64);
+
+	/** Reusable row buffer */
+	ArrayList<String> row=new ArrayList<String>();
+
+	/** The next character, -2 if not read yet */
+	int next=-2;
+
+	/**
+	 * Creates a new csvReader, reading UTF-8 encoded, comma separated values
+	 * @param is the stream to read from
+	 */
+	public csvReader(InputStream is) {
+		this(new InputStreamReader(is, StandardCharsets.UTF_8), ',');
+	}
+
+	/**
+	 * Creates a new csvReader
+	 * @param in the Reader to read from
+	 * @param separator the separator
+	 */
+	public csvReader(Reader in, char separator) {
+		this.in=in instanceof BufferedReader?in:new BufferedReader(in, 1<<16);
+		this.separator=separator;
+	}
+
+	/**
+	 * Reads a character
+	 * @return the character, -1 at the end of the stream
+	 * @throws IOException
+	 */
+	int read() throws IOException {
+		if(next!=-2) {
+			int out=next;
+			next=-2;
+			return out;
+		}
+		return in.read();
+	}
+
+	/**
+	 * Reads the next row. Empty lines are skipped
+	 * @return the cells of the row, or null at the end of the stream
+	 * @throws IOException
+	 */
+	public String[] nextRow() throws IOException {
+		row.clear();
+		cell.setLength(0);
+
+		int c=read();
+		if(c==0xFEFF) c=read();
+		while(c=='\n' || c=='\r') c=read();
+		if(c==-1) return null;
+
+		boolean quoted=false;
+		boolean wasQuoted=false;
+		while(true) {
+			if(quoted) {
+				if(c==-1) throw new IOException("Unexpected end of file within a quoted cell");
+				if(c=='"') {
+					int following=read();
+					if(following=='"') {
+						cell.append('"');
+					}else {
+						quoted=false;
+						next=following;
+					}
+				}else {
+					cell.append((char) c);
+				}
+			}else if(c==separator) {
+				endCell();
+				wasQuoted=false;
+			}else if(c=='\n' || c=='\r' || c==-1) {
+				if(c=='\r') {
+					int following=read();
+					if(following!='\n') next=following;
+				}
+				endCell();
+				break;
+			}else if(c=='"' && cell.length()==0 && !wasQuoted) {
+				quoted=true;
+				wasQuoted=true;
+			}else {
+				cell.append((char) c);
+			}
+			c=read();
+		}
+
+		return row.toArray(new String[row.size()]);
+	}
+
+	/**
+	 * Adds the current cell to the row
+	 */
+	void endCell() {
+		row.add(cell.toString());
+		cell.setLength(0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
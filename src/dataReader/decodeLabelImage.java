@@ -25,10 +25,8 @@ package dataReader;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 import dataModel.AtlasDataContainer;
 import dataModel.AtlasEntry;
@@ -36,15 +34,16 @@ import dataModel.RoiEntry;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Roi;
-import ij.plugin.filter.ThresholdToSelection;
 import ij.process.ImageProcessor;
+import utilities.parallelExecutor;
 import utilities.tools;
 
 /**
  * This class takes as an input an ImagePlus containing labels and stores
  * as a Map of Map Rois containing the decoded ROIs per index and per slice.
  * The outer-most Map is indexed by labels, the inner Map being indexed by slice.
- * The operation is performed as a multi-threaded process.
+ * The operation is performed as a multi-threaded process, using the shared parallelExecutor:
+ * slices are decoded independently, then merged into the AtlasDataContainer.
  * @author fab
  *
  */
@@ -58,6 +57,9 @@ public class decodeLabelImage {
 	/** Handles outputting debug infos into the console */
 	public boolean debug=false;
 
+	/** Allows cancelling the decoding process */
+	public parallelExecutor.taskHandle handle=new parallelExecutor.taskHandle();
+
 	/**
 	 * Constructs a new decodeLabelImage, based on the input ImagePlus
 	 * @param ip the input ImagePlus
@@ -65,118 +67,144 @@ public class decodeLabelImage {
 	public decodeLabelImage(ImagePlus ip, AtlasDataContainer adc) {
 		this.ip=ip;
 		this.adc=adc;
-		decode();
 	}
 
 	/**
-	 * Builds the Rois Map, as a multi-threaded process
+	 * Builds the Rois Map, as a multi-threaded process. Each slice is walked only once,
+	 * all labels' outlines being traced at the same time (see traceLabelContours).
+	 * Each slice is first decoded into its own private decodedSlice, then all results
+	 * are merged into the AtlasDataContainer: no shared structure is written during decoding.
 	 */
 	public void decode() {
 		long start=System.currentTimeMillis();
-		final AtomicInteger ai = new AtomicInteger(1);
-		final Thread[] threads=new Thread[Runtime.getRuntime().availableProcessors()];
-
-		//Prepare threads with what needs to be done
-		for (int ithread = 0; ithread < threads.length; ithread++){
-			final int ithreadNb=ithread; // To be able to pass it in the run
-			threads[ithread] = new Thread(){
-				public void run() {
-					for (int slice = ai.getAndIncrement(); slice <=ip.getStackSize(); slice = ai.getAndIncrement()) {
-						ImageProcessor iproc=ip.getStack().getProcessor(slice);
-						List<Integer> uniqueIndexes=getUniqueIndexes(iproc, true);
-
-						for(int index : uniqueIndexes){
-							//Threshold to ROIs
-							iproc.setThreshold(index, index);
-							ThresholdToSelection tts=new ThresholdToSelection();
-							Roi roi=tts.convert(iproc);
-							roi.setPosition(slice);
-
-
-							//Unpack
-							AtlasEntry ae=adc.getOrDefaultFromAtlas(index); //Get the AtlasEntry from the AtlasContainer
-							
-							//Add infos to the Roi
-							Color color=Color.decode("#"+(ae!=null?ae.color_hex_triplet:"D3D3D3"));
-							roi.setStrokeColor(color);
-							String name=ae.name;
-							roi.setName(name+"-Slice_"+IJ.pad(slice, 4));
-
-							if(name=="Unknown") {
-								ae.id=index;
-								ae.name="Unknown_id_"+index;
-								name=ae.name;
-							}
-
-							TreeMap<Integer, RoiEntry> rc=ae.ROIs; // Get the RoiDataContainer from the Atlas entry
-							RoiEntry re=new RoiEntry(slice, roi); //Get the RoiEntry from the RoiDataContainer
-
-							//Re-pack
-							try {
-								rc.put(slice, re); //Put the new ROI in the RoiDataContainer
-							} catch (Exception e) {
-								e.printStackTrace();
-								System.out.println("rc: "+rc);
-								System.out.println("Key: "+slice);
-								System.out.println("Value: "+re);
-							}
-							
-
-							ae.ROIs=rc; //Update the RoiDataContainer in the Atlas entry
-							adc.putInAtlas(index, ae); //Pack everything back in the AtlasContainer
-
-							IJ.showStatus("!Decoding image - Thread "+(ithreadNb+1)+"/"+threads.length+" returned results for slice "+slice+", index "+index);
-							if(debug) System.out.println("Thread "+(ithreadNb+1)+" returned: "+index+"/"+slice+"/"+roi);
-							iproc.resetThreshold();
-							iproc.resetRoi();
-						}
-					}
-				}
-			};
-			if(debug) System.out.println("Initialized Thread "+(ithread+1)+"/"+threads.length);
-		}
+		final decodedSlice[] partials=new decodedSlice[ip.getStackSize()+1];
+
+		boolean completed=parallelExecutor.forEach(1, ip.getStackSize()+1, slice -> {
+			ImageProcessor iproc=ip.getStack().getProcessor(slice);
+
+			//Lists all labels with their pixels count and bounding box, then traces them all at once
+			labelCensus census=labelCensus.scan(iproc, true);
+			Roi[] rois=new traceLabelContours(iproc, census).traceAll();
+
+			partials[slice]=new decodedSlice(census.labels, census.counts, rois);
 
-		//Initialize threads
-		for (int ithread = 0; ithread < threads.length; ++ithread){
-			threads[ithread].setPriority(Thread.MAX_PRIORITY);//NORM_PRIORITY);
-			threads[ithread].start();
-			if(debug) System.out.println("Started Thread "+(ithread+1)+"/"+threads.length);
+			if(debug) System.out.println(Thread.currentThread().getName()+" returned: slice "+slice+"/"+census.size()+" label(s)");
+		}, parallelExecutor.statusProgress("Decoding image"), handle);
+
+		merge(partials);
+
+		long end=System.currentTimeMillis();
+		IJ.showStatus("!Decoding image - "+(completed?"Done":"Cancelled")+" in "+tools.formatInterval(end-start));
+	}
+
+	/**
+	 * Merges the decoded slices into the AtlasDataContainer:
+	 * 1-Creates, in ascending order of labels, the AtlasEntries that were not found in the structure tree file
+	 * 2-In parallel, fills each AtlasEntry with its Rois, in ascending order of slices.
+	 * Each label being handled by a single task, its AtlasEntry is only written by one thread.
+	 * The output does not depend on the order in which slices were decoded.
+	 * Storing can not be cancelled: once decoding is over, every label must receive all of its Rois.
+	 * @param partials the decoded slices, indexed by slice number (null when not decoded)
+	 */
+	void merge(decodedSlice[] partials) {
+		int[] labels=getAllLabels(partials);
+
+		for(int label: labels) {
+			if(adc.getFromAtlas(label)==null) adc.putInAtlas(label, adc.getOrDefaultFromAtlas(label));
 		}
 
-		try{
-			for (int ithread = 0; ithread < threads.length; ++ithread) {
-				threads[ithread].join();
-				if(debug) System.out.println("Ended Thread "+(ithread+1)+"/"+threads.length);
+		parallelExecutor.taskHandle storeHandle=new parallelExecutor.taskHandle();
+		storeHandle.cancelOnEscape=false;
+		boolean stored=parallelExecutor.forEach(0, labels.length, labelIndex -> {
+			int label=labels[labelIndex];
+			AtlasEntry ae=adc.getFromAtlas(label);
+			Color color=Color.decode("#"+ae.color_hex_triplet);
+
+			for(int slice=1; slice<partials.length; slice++) {
+				decodedSlice ds=partials[slice];
+				if(ds==null) continue;
+
+				int pos=Arrays.binarySearch(ds.labels, label);
+				if(pos<0) continue;
+
+				//Add infos to the Roi
+				Roi roi=ds.rois[pos];
+				roi.setPosition(slice);
+				roi.setStrokeColor(color);
+				roi.setName(ae.name+"-Slice_"+IJ.pad(slice, 4));
+
+				ae.ROIs.put(slice, new RoiEntry(slice, roi, ds.counts[pos]));
+			}
+		}, parallelExecutor.statusProgress("Storing Rois"), storeHandle);
+
+		if(!stored) throw new IllegalStateException("Rois could not all be stored");
+	}
+
+	/**
+	 * Returns the sorted union of the labels found on all decoded slices
+	 * @param partials the decoded slices, indexed by slice number (null when not decoded)
+	 * @return the sorted union of the labels found on all decoded slices
+	 */
+	int[] getAllLabels(decodedSlice[] partials) {
+		int total=0;
+		for(decodedSlice ds: partials) if(ds!=null) total+=ds.labels.length;
+
+		int[] all=new int[total];
+		int n=0;
+		for(decodedSlice ds: partials) {
+			if(ds!=null) {
+				System.arraycopy(ds.labels, 0, all, n, ds.labels.length);
+				n+=ds.labels.length;
 			}
-		} catch (InterruptedException ie){
-			throw new RuntimeException(ie);
 		}
+		Arrays.sort(all);
 
-		long end=System.currentTimeMillis();
-		IJ.showStatus("!Decoding image - Done in "+tools.formatInterval(end-start));
+		//Removes duplicates
+		int unique=0;
+		for(int i=0; i<n; i++) if(unique==0 || all[i]!=all[unique-1]) all[unique++]=all[i];
+
+		return Arrays.copyOf(all, unique);
 	}
 
 	/**
 	 * From the input ImageProcessor, extracts the unique pixels values
 	 * @param iproc the input ImageProcessor
 	 * @param excludeZero true to exclude the zero label
-	 * @return the unique pixels values as a list of Integers
+	 * @return the unique pixels values as a sorted list of Integers
 	 */
 	public List<Integer> getUniqueIndexes(ImageProcessor iproc, boolean excludeZero) {
-		List<Integer> indexes = new ArrayList<>();
+		int[] labels=labelCensus.scan(iproc, excludeZero).labels;
 
-		//Transforms the ImageProcessor into an array of intensities
-		for(int y=0; y<iproc.getHeight(); y++) {
-			for(int x=0; x<iproc.getWidth(); x++) {
-				int value=(int) iproc.getValue(x, y);
-				if(!(excludeZero && value==0)) indexes.add(value);
-			}
-		}
-
-		//Collects the unique indexes into a List
-		List<Integer> out=indexes.stream().distinct().collect(Collectors.toList());
-		out.sort(null);
+		List<Integer> out = new ArrayList<>(labels.length);
+		for(int label: labels) out.add(label);
 
 		return out;
 	}
+
+	/**
+	 * This class stores the result of decoding a single slice: its sorted labels, together
+	 * with their pixels counts and Rois. It is only written by the thread decoding the slice.
+	 */
+	static class decodedSlice {
+		/** Sorted labels found on the slice */
+		final int[] labels;
+
+		/** Pixels counts, in the same order as labels */
+		final int[] counts;
+
+		/** Rois, in the same order as labels */
+		final Roi[] rois;
+
+		/**
+		 * Creates a new decodedSlice
+		 * @param labels sorted labels found on the slice
+		 * @param counts pixels counts, in the same order as labels
+		 * @param rois Rois, in the same order as labels
+		 */
+		decodedSlice(int[] labels, int[] counts, Roi[] rois) {
+			this.labels=labels;
+			this.counts=counts;
+			this.rois=rois;
+		}
+	}
 }
@@ -0,0 +1,287 @@
+/**
+ * labelCensus.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataReader;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import ij.process.ImageProcessor;
+
+/**
+ * This class performs the census of the labels found on a labeled ImageProcessor.
+ * The pixels array is read directly, in a single pass and without boxing: it returns the
+ * sorted set of labels together with, for each label, its pixels count and bounding box.
+ * 8- and 16-bit images are handled through dense tables, 32-bit images through a primitive
+ * open-addressing hash table.
+ */
+public class labelCensus {
+	/** Sorted labels found on the image */
+	public int[] labels=new int[0];
+
+	/** Number of pixels for each label (same order as labels) */
+	public int[] counts=new int[0];
+
+	/** Bounding boxes of each label: left-most x (same order as labels) */
+	public int[] minX=new int[0];
+
+	/** Bounding boxes of each label: top-most y (same order as labels) */
+	public int[] minY=new int[0];
+
+	/** Bounding boxes of each label: right-most x (same order as labels) */
+	public int[] maxX=new int[0];
+
+	/** Bounding boxes of each label: bottom-most y (same order as labels) */
+	public int[] maxY=new int[0];
+
+	/** Correspondence table label/compact index, only for 8- and 16-bit images (null otherwise) */
+	int[] denseIndex=null;
+
+	/**
+	 * Performs the census of the labels found on the input ImageProcessor
+	 * @param iproc the input ImageProcessor
+	 * @param excludeZero true to exclude the zero label
+	 * @return a labelCensus object describing the labels found on the image
+	 */
+	public static labelCensus scan(ImageProcessor iproc, boolean excludeZero) {
+		labelCensus out=new labelCensus();
+		Object pixels=iproc.getPixels();
+
+		if(pixels instanceof byte[] || pixels instanceof short[]) {
+			out.scanDense(iproc, excludeZero, pixels instanceof byte[]?256:65536);
+		}else {
+			out.scanHashed(iproc, excludeZero);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Returns the number of labels found
+	 * @return the number of labels found
+	 */
+	public int size() {
+		return labels.length;
+	}
+
+	/**
+	 * Returns the compact index of the input label, i.e. its position in the labels array
+	 * @param label the label to look for
+	 * @return the compact index of the input label, or a negative value if not found
+	 */
+	public int indexOf(int label) {
+		if(denseIndex!=null) return label>=0 && label<denseIndex.length?denseIndex[label]:-1;
+		return Arrays.binarySearch(labels, label);
+	}
+
+	/**
+	 * Returns the bounding box of the label found at the input compact index
+	 * @param index the compact index of the label
+	 * @return the bounding box of the label, as a Rectangle
+	 */
+	public Rectangle getBounds(int index) {
+		return new Rectangle(minX[index], minY[index], maxX[index]-minX[index]+1, maxY[index]-minY[index]+1);
+	}
+
+	/**
+	 * Performs the census on 8- and 16-bit images, using tables covering all possible values
+	 * @param iproc the input ImageProcessor
+	 * @param excludeZero true to exclude the zero label
+	 * @param range the number of possible values
+	 */
+	void scanDense(ImageProcessor iproc, boolean excludeZero, int range) {
+		int width=iproc.getWidth();
+		int height=iproc.getHeight();
+		Object pixels=iproc.getPixels();
+		byte[] bytePixels=pixels instanceof byte[]?(byte[]) pixels:null;
+		short[] shortPixels=pixels instanceof short[]?(short[]) pixels:null;
+
+		int[] c=new int[range];
+		int[] x0=new int[range];
+		int[] y0=new int[range];
+		int[] x1=new int[range];
+		int[] y1=new int[range];
+
+		for(int y=0, i=0; y<height; y++) {
+			for(int x=0; x<width; x++, i++) {
+				int value=bytePixels!=null?bytePixels[i]&0xff:shortPixels[i]&0xffff;
+				if(c[value]++==0) {
+					x0[value]=x;
+					y0[value]=y;
+					x1[value]=x;
+				}else {
+					if(x<x0[value]) x0[value]=x;
+					if(x>x1[value]) x1[value]=x;
+				}
+				y1[value]=y;
+			}
+		}
+
+		if(excludeZero) c[0]=0;
+
+		int n=0;
+		for(int value=0; value<range; value++) if(c[value]!=0) n++;
+		allocate(n);
+
+		denseIndex=new int[range];
+		Arrays.fill(denseIndex, -1);
+		for(int value=0, index=0; value<range; value++) {
+			if(c[value]!=0) {
+				labels[index]=value;
+				counts[index]=c[value];
+				minX[index]=x0[value];
+				minY[index]=y0[value];
+				maxX[index]=x1[value];
+				maxY[index]=y1[value];
+				denseIndex[value]=index++;
+			}
+		}
+	}
+
+	/**
+	 * Performs the census on 32-bit images, using a primitive open-addressing hash table
+	 * @param iproc the input ImageProcessor
+	 * @param excludeZero true to exclude the zero label
+	 */
+	void scanHashed(ImageProcessor iproc, boolean excludeZero) {
+		int width=iproc.getWidth();
+		int height=iproc.getHeight();
+		Object pixels=iproc.getPixels();
+		float[] floatPixels=pixels instanceof float[]?(float[]) pixels:null;
+
+		int capacity=1024;
+		int[] keys=new int[capacity];
+		boolean[] filled=new boolean[capacity];
+		int[] slots=new int[capacity];
+		int n=0;
+
+		int[] c=new int[64];
+		int[] x0=new int[64];
+		int[] y0=new int[64];
+		int[] x1=new int[64];
+		int[] y1=new int[64];
+		int[] k=new int[64];
+
+		int lastLabel=0;
+		int lastSlot=-1;
+
+		for(int y=0, i=0; y<height; y++) {
+			for(int x=0; x<width; x++, i++) {
+				int value=floatPixels!=null?(int) floatPixels[i]:(int) iproc.getValue(x, y);
+				if(excludeZero && value==0) continue;
+
+				int slot;
+				if(lastSlot!=-1 && value==lastLabel) {
+					slot=lastSlot;
+				}else {
+					//Looks for the label in the hash table
+					int mask=capacity-1;
+					int pos=mix(value)&mask;
+					while(filled[pos] && keys[pos]!=value) pos=(pos+1)&mask;
+
+					if(filled[pos]) {
+						slot=slots[pos];
+					}else {
+						//New label: stores it, growing the tables if required
+						if(n==c.length) {
+							c=Arrays.copyOf(c, n*2);
+							x0=Arrays.copyOf(x0, n*2);
+							y0=Arrays.copyOf(y0, n*2);
+							x1=Arrays.copyOf(x1, n*2);
+							y1=Arrays.copyOf(y1, n*2);
+							k=Arrays.copyOf(k, n*2);
+						}
+						slot=n++;
+						k[slot]=value;
+						x0[slot]=x;
+						y0[slot]=y;
+						x1[slot]=x;
+						keys[pos]=value;
+						filled[pos]=true;
+						slots[pos]=slot;
+
+						if(n*2>capacity) {
+							capacity*=2;
+							keys=new int[capacity];
+							filled=new boolean[capacity];
+							slots=new int[capacity];
+							for(int s=0; s<n; s++) {
+								int p=mix(k[s])&(capacity-1);
+								while(filled[p]) p=(p+1)&(capacity-1);
+								keys[p]=k[s];
+								filled[p]=true;
+								slots[p]=s;
+							}
+						}
+					}
+					lastLabel=value;
+					lastSlot=slot;
+				}
+
+				c[slot]++;
+				if(x<x0[slot]) x0[slot]=x;
+				if(x>x1[slot]) x1[slot]=x;
+				y1[slot]=y;
+			}
+		}
+
+		//Sorts the labels: key=label (upper bits)/slot (lower bits)
+		long[] order=new long[n];
+		for(int s=0; s<n; s++) order[s]=((long) k[s]<<32)|s;
+		Arrays.sort(order);
+
+		allocate(n);
+		for(int index=0; index<n; index++) {
+			int s=(int) order[index];
+			labels[index]=k[s];
+			counts[index]=c[s];
+			minX[index]=x0[s];
+			minY[index]=y0[s];
+			maxX[index]=x1[s];
+			maxY[index]=y1[s];
+		}
+	}
+
+	/**
+	 * Allocates all output arrays
+	 * @param n the number of labels found
+	 */
+	void allocate(int n) {
+		labels=new int[n];
+		counts=new int[n];
+		minX=new int[n];
+		minY=new int[n];
+		maxX=new int[n];
+		maxY=new int[n];
+	}
+
+	/**
+	 * Scrambles the bits of a label before using it as a position in the hash table
+	 * @param value the label
+	 * @return the scrambled label
+	 */
+	static int mix(int value) {
+		int h=value*0x9E3779B9;
+		return h^(h>>>16);
+	}
+}
@@ -25,12 +25,13 @@ package dataReader;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 
 import dataModel.AtlasDataContainer;
 import dataModel.AtlasEntry;
+import dataModel.ColumnarArchive;
+import dataModel.OntologyCache;
 import ij.IJ;
 import ij.measure.ResultsTable;
 
@@ -47,6 +48,9 @@ public class readStructureFile {
 	/** The ResultsTable in which data are stored */
 	ResultsTable rt=null;
 
+	/** True if the content of the included structure tree files should be displayed in a ResultsTable */
+	boolean showResultsTable=false;
+
 	/** Stores a reference to the AtlasDataContainer in which to store extracted information */
 	AtlasDataContainer adc=null;
 
@@ -66,13 +70,24 @@ public class readStructureFile {
 	 */
 	public void loadFromResultsTable(String title) {
 		rt=ResultsTable.getResultsTable(title);
-		parseStructureTreeFile();
+
+		String hash=null;
+		try {
+			hash=OntologyCache.hash(rt);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if(hash==null || !OntologyCache.load(adc, hash, null)) {
+			parseStructureTreeFile();
+			if(hash!=null) OntologyCache.save(adc, hash);
+		}
 		IJ.showStatus("!Reading structure tree file from ResultsTable \""+title+"\": Done");
 	}
 
 	/**
 	 * Loads the structure tree content from the structure_tree_safe_2017.csv file enclosed in the jar file
-	 * and displays it in a ResultsTable
+	 * and, if requested, displays it in a ResultsTable
 	 */
 	public void loadStructureTreeSafe2017() {
 		loadInternalStructureFile(structure_tree_safe_2017, "structure_tree_safe_2017");
@@ -81,7 +96,7 @@ public class readStructureFile {
 
 	/**
 	 * Loads the structure tree content from the structure_tree_safe.csv file enclosed in the jar file
-	 * and displays it in a ResultsTable
+	 * and, if requested, displays it in a ResultsTable
 	 */
 	public void loadStructureTreeSafe() {
 		loadInternalStructureFile(structure_tree_safe, "structure_tree_safe");
@@ -89,42 +104,105 @@ public class readStructureFile {
 	}
 
 	/**
-	 * Loads the structure tree content from a provided path within the jar file and displays it in 
-	 * a ResultsTable named after the provided title
+	 * Loads the structure tree content from a provided path within the jar file. The precompiled version
+	 * of the file is used when available (see OntologyCache). Otherwise, the file is parsed while being read,
+	 * one AtlasEntry being created per line, and the result is saved in the user's cache. The content is
+	 * displayed in a ResultsTable named after the provided title only if requested (see setShowResultsTable)
 	 * @param path path to the structure tree file within the jar file
 	 * @param title title to be given to the ResultsTable
 	 */
 	public void loadInternalStructureFile(String path, String title) {
-		String content = "";
-		try {
-			// get the text resource as a stream
-			InputStream is = getClass().getResourceAsStream(path);
-			InputStreamReader isr = new InputStreamReader(is);
-			StringBuffer sb = new StringBuffer();
-			char [] b = new char [8192];
-			int n;
-			//read a block and append any characters
-			while ((n = isr.read(b)) > 0)
-				sb.append(b,0, n);
-			// display the text in a TextWindow
-			content = sb.toString();
+		String hash=null;
+		try(InputStream is=getClass().getResourceAsStream(path)) {
+			hash=OntologyCache.hash(is);
 		}
 		catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		rt=new ResultsTable();
-		String[] lines=content.split("\n");
-		String[] headers=lines[0].split(",");
+		if(hash==null || !OntologyCache.load(adc, hash, getPrecompiledPath(path))) {
+			parseInternalStructureFile(path);
+			if(hash!=null) OntologyCache.save(adc, hash);
+		}
+
+		if(showResultsTable) showInternalStructureFile(path, title);
+	}
+
+	/**
+	 * Parses the structure tree content from a provided path within the jar file, one AtlasEntry
+	 * being created per line. Quoted cells are unquoted by the csvReader, AtlasEntry removing any remaining
+	 * double quote (see AtlasEntry.getString): names and acronyms, quoted for 747 structures of
+	 * structure_tree_safe_2017.csv, are therefore the same as when lines were split on commas
+	 * @param path path to the structure tree file within the jar file
+	 */
+	void parseInternalStructureFile(String path) {
+		try(csvReader csv=new csvReader(getClass().getResourceAsStream(path))) {
+			structureTreeFileHeaders=csv.nextRow();
+
+			//Build a dictionary per line (Key=header, Value=fieldValue), reused from one line to the other
+			Map<String, String> perLineDictionary=new HashMap<String, String>();
+			String[] values;
+			while((values=csv.nextRow())!=null) {
+				perLineDictionary.clear();
+				for(int j=0; j<Math.min(values.length, structureTreeFileHeaders.length); j++) perLineDictionary.put(structureTreeFileHeaders[j], values[j]);
+				putInAtlas(perLineDictionary);
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Builds the precompiled version of a structure tree file enclosed in the jar file, to be shipped
+	 * next to it, within the jar file (see OntologyCache)
+	 * @param path path to the structure tree file within the jar file
+	 * @param outPath path to the precompiled file
+	 * @throws IOException
+	 */
+	public static void compileInternalStructureFile(String path, String outPath) throws IOException {
+		readStructureFile rsf=new readStructureFile(new AtlasDataContainer());
+		String hash;
+		try(InputStream is=readStructureFile.class.getResourceAsStream(path)) {
+			hash=OntologyCache.hash(is);
+		}
+		rsf.parseInternalStructureFile(path);
+		OntologyCache.write(rsf.adc, hash, outPath);
+	}
+
+	/**
+	 * Returns the path to the precompiled version of a structure tree file enclosed in the jar file
+	 * @param path path to the structure tree file within the jar file
+	 * @return the path to the precompiled version of the file within the jar file
+	 */
+	static String getPrecompiledPath(String path) {
+		return path.substring(0, path.lastIndexOf('.'))+ColumnarArchive.EXTENSION;
+	}
 
-		for(int i=1; i<lines.length; i++) {
-			String[] columns=lines[i].split(",");
-			for(int j=0; j<headers.length; j++) {
-				rt.setValue(headers[j], i-1, columns[j]);
+	/**
+	 * Displays the content of a structure tree file enclosed in the jar file in a ResultsTable
+	 * named after the provided title
+	 * @param path path to the structure tree file within the jar file
+	 * @param title title to be given to the ResultsTable
+	 */
+	public void showInternalStructureFile(String path, String title) {
+		rt=new ResultsTable();
+		try(csvReader csv=new csvReader(getClass().getResourceAsStream(path))) {
+			String[] headers=csv.nextRow();
+			String[] values;
+			int row=0;
+			while((values=csv.nextRow())!=null) {
+				rt.incrementCounter();
+				for(int j=0; j<Math.min(values.length, headers.length); j++) {
+					if(!headers[j].isEmpty()) rt.setValue(headers[j], row, values[j]);
+				}
+				row++;
 			}
 		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
 		rt.show(title);
-		parseStructureTreeFile();
 	}
 
 	/**
@@ -132,19 +210,37 @@ public class readStructureFile {
 	 * by creating in it one AtlasEntry per line
 	 */
 	public void parseStructureTreeFile() {
-		structureTreeFileHeaders=rt.getHeadings();
+		int lastColumn=rt.getLastColumn();
+		Map<String, String> perLineDictionary=new HashMap<String, String>();
 
 		for(int i=0; i<rt.size(); i++) {
-			String[] values=rt.getRowAsString(i).split("\t");
-
 			//Build a dictionary per line (Key=header, Value=fieldValue)
-			Map<String, String> perLineDictionary=new HashMap<String, String>();
+			perLineDictionary.clear();
+			if(rt.getLabel(i)!=null) perLineDictionary.put("Label", rt.getLabel(i));
+			for(int j=0; j<=lastColumn; j++) {
+				if(rt.columnExists(j)) perLineDictionary.put(rt.getColumnHeading(j), rt.getStringValue(j, i));
+			}
+			putInAtlas(perLineDictionary);
+		}
+	}
 
-			for(int j=0; j<values.length; j++)  perLineDictionary.put(structureTreeFileHeaders[j], values[j]);
+	/**
+	 * Creates an AtlasEntry from the content of a line of the structure tree file and stores it
+	 * in the AtlasDataContainer
+	 * @param perLineDictionary the content of the line (Key=header, Value=fieldValue)
+	 */
+	void putInAtlas(Map<String, String> perLineDictionary) {
+		AtlasEntry ae=new AtlasEntry(perLineDictionary);
+		adc.putInAtlas(Integer.parseInt(perLineDictionary.get("id")), ae);
+	}
 
-			//Build a dictionary per index (Key=index, Value=perLienDictionnary)
-			AtlasEntry ae=new AtlasEntry(perLineDictionary);
-			adc.putInAtlas(Integer.parseInt(perLineDictionary.get("id")), ae);
-		}
+	/**
+	 * Sets whether the content of the included structure tree files should be displayed in a ResultsTable
+	 * once loaded. Building the ResultsTable is only required for display: the AtlasDataContainer is fed
+	 * straight from the file
+	 * @param showResultsTable true to display the ResultsTable
+	 */
+	public void setShowResultsTable(boolean showResultsTable) {
+		this.showResultsTable=showResultsTable;
 	}
 }
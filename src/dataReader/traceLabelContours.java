@@ -0,0 +1,353 @@
+/**
+ * traceLabelContours.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dataReader;
+
+import java.awt.geom.GeneralPath;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.process.ImageProcessor;
+
+/**
+ * This class takes as an input an ImageProcessor containing labels and extracts, in a single
+ * pass over the pixels, the outlines of all labels at once. Outlines are followed along the
+ * pixels' edges (crack following), each label being surrounded clockwise. The output Rois are
+ * built the same way ThresholdToSelection does (even-odd GeneralPath, then simplified), so
+ * that they are identical to the ones obtained by thresholding each label separately.
+ * Labels are retrieved from a labelCensus: edges are stored per compact label index and
+ * chained within each label's bounding box.
+ */
+public class traceLabelContours {
+	/** Edge direction: towards increasing x */
+	static final byte RIGHT=0;
+
+	/** Edge direction: towards increasing y */
+	static final byte DOWN=1;
+
+	/** Edge direction: towards decreasing x */
+	static final byte LEFT=2;
+
+	/** Edge direction: towards decreasing y */
+	static final byte UP=3;
+
+	/** Stores the ImageProcessor to trace */
+	ImageProcessor iproc=null;
+
+	/** Stores the ImageProcessor's width */
+	int width=0;
+
+	/** Stores the ImageProcessor's height */
+	int height=0;
+
+	/** Stores the census of the labels found on the ImageProcessor */
+	labelCensus census=null;
+
+	/** Stores the edges found for each label, indexed by compact label index */
+	edgeList[] edges=null;
+
+	/** Stores the last label for which edges were requested (avoids most lookups) */
+	int lastLabel=0;
+
+	/** Stores the edges of the last label for which edges were requested */
+	edgeList lastEdges=null;
+
+	/**
+	 * Creates a new traceLabelContours, based on the input ImageProcessor
+	 * @param iproc the input ImageProcessor, containing labels
+	 * @param excludeZero true to exclude the zero label
+	 */
+	public traceLabelContours(ImageProcessor iproc, boolean excludeZero) {
+		this(iproc, labelCensus.scan(iproc, excludeZero));
+	}
+
+	/**
+	 * Creates a new traceLabelContours, based on the input ImageProcessor and
+	 * the census of its labels
+	 * @param iproc the input ImageProcessor, containing labels
+	 * @param census the census of the labels to trace: labels not present are ignored
+	 */
+	public traceLabelContours(ImageProcessor iproc, labelCensus census) {
+		this.iproc=iproc;
+		this.census=census;
+		width=iproc.getWidth();
+		height=iproc.getHeight();
+	}
+
+	/**
+	 * Walks the image once, collects the edges of all labels and turns them into Rois
+	 * @return a Map of Rois, indexed by label
+	 */
+	public TreeMap<Integer, Roi> trace() {
+		Roi[] rois=traceAll();
+
+		TreeMap<Integer, Roi> out=new TreeMap<Integer, Roi>();
+		for(int index=0; index<rois.length; index++) {
+			if(rois[index]!=null) out.put(census.labels[index], rois[index]);
+		}
+
+		return out;
+	}
+
+	/**
+	 * Walks the image once, collects the edges of all labels and turns them into Rois
+	 * @return an array of Rois, in the same order as the census' labels
+	 */
+	public Roi[] traceAll() {
+		edges=new edgeList[census.size()];
+		collectEdges();
+
+		//Scratch table of the vertices within a bounding box, sized for the largest box
+		int maxVertices=0;
+		for(int index=0; index<census.size(); index++) {
+			int boxVertices=(census.maxX[index]-census.minX[index]+2)*(census.maxY[index]-census.minY[index]+2);
+			maxVertices=Math.max(maxVertices, boxVertices);
+		}
+		int[] head=new int[maxVertices];
+		Arrays.fill(head, -1);
+
+		Roi[] out=new Roi[census.size()];
+		for(int index=0; index<census.size(); index++) {
+			if(edges[index]!=null) {
+				out[index]=edges[index].toRoi(width+1, census.minX[index], census.minY[index], census.maxX[index]-census.minX[index]+2, head);
+			}
+			edges[index]=null;
+		}
+		lastEdges=null;
+
+		return out;
+	}
+
+	/**
+	 * Goes through the image line by line, comparing each pixel to its upper and left neighbours.
+	 * Each time two labels differ, the separating edge is added to both labels, with opposite directions.
+	 */
+	void collectEdges() {
+		int[] previous=new int[width];
+		int[] current=new int[width];
+		int stride=width+1;
+
+		for(int y=0; y<=height; y++) {
+			if(y<height) readRow(y, current);
+
+			//Horizontal edges, between row y-1 and row y
+			for(int x=0; x<width; x++) {
+				boolean hasAbove=y>0;
+				boolean hasBelow=y<height;
+				if(hasAbove && hasBelow && previous[x]==current[x]) continue;
+
+				if(hasBelow && include(current[x])) getEdges(current[x]).add(y*stride+x, RIGHT); //Top edge of pixel (x, y)
+				if(hasAbove && include(previous[x])) getEdges(previous[x]).add(y*stride+x+1, LEFT); //Bottom edge of pixel (x, y-1)
+			}
+
+			//Vertical edges, within row y
+			if(y<height) {
+				for(int x=0; x<=width; x++) {
+					boolean hasLeft=x>0;
+					boolean hasRight=x<width;
+					if(hasLeft && hasRight && current[x-1]==current[x]) continue;
+
+					if(hasRight && include(current[x])) getEdges(current[x]).add((y+1)*stride+x, UP); //Left edge of pixel (x, y)
+					if(hasLeft && include(current[x-1])) getEdges(current[x-1]).add(y*stride+x, DOWN); //Right edge of pixel (x-1, y)
+				}
+			}
+
+			int[] tmp=previous;
+			previous=current;
+			current=tmp;
+		}
+	}
+
+	/**
+	 * Checks whether a label should be traced, i.e. is part of the census
+	 * @param label the label to check
+	 * @return true if the label should be traced
+	 */
+	boolean include(int label) {
+		return (lastEdges!=null && label==lastLabel) || census.indexOf(label)>=0;
+	}
+
+	/**
+	 * Retrieves, or creates if not existing, the edgeList associated to the input label
+	 * @param label the label for which the edgeList should be retrieved
+	 * @return the edgeList associated to the input label
+	 */
+	edgeList getEdges(int label) {
+		if(lastEdges!=null && label==lastLabel) return lastEdges;
+
+		int index=census.indexOf(label);
+		edgeList out=edges[index];
+		if(out==null) {
+			out=new edgeList();
+			edges[index]=out;
+		}
+		lastLabel=label;
+		lastEdges=out;
+
+		return out;
+	}
+
+	/**
+	 * Reads a full row of the ImageProcessor as integer labels, reading directly from the pixels array
+	 * @param y the row to read
+	 * @param row the array in which to store the labels
+	 */
+	void readRow(int y, int[] row) {
+		Object pixels=iproc.getPixels();
+		int offset=y*width;
+
+		if(pixels instanceof byte[]) {
+			byte[] p=(byte[]) pixels;
+			for(int x=0; x<width; x++) row[x]=p[offset+x]&0xff;
+		}else if(pixels instanceof short[]) {
+			short[] p=(short[]) pixels;
+			for(int x=0; x<width; x++) row[x]=p[offset+x]&0xffff;
+		}else if(pixels instanceof float[]) {
+			float[] p=(float[]) pixels;
+			for(int x=0; x<width; x++) row[x]=(int) p[offset+x];
+		}else {
+			for(int x=0; x<width; x++) row[x]=(int) iproc.getValue(x, y);
+		}
+	}
+
+	/**
+	 * This class stores the oriented edges of a single label: each edge is described by
+	 * its starting vertex (index on the (width+1)x(height+1) grid of pixels' corners)
+	 * and its direction.
+	 */
+	static class edgeList {
+		/** Starting vertices of the edges */
+		int[] from=new int[64];
+
+		/** Directions of the edges */
+		byte[] dir=new byte[64];
+
+		/** Number of stored edges */
+		int size=0;
+
+		/**
+		 * Adds a new edge
+		 * @param vertex the starting vertex of the edge
+		 * @param direction the direction of the edge
+		 */
+		void add(int vertex, byte direction) {
+			if(size==from.length) {
+				from=Arrays.copyOf(from, size*2);
+				dir=Arrays.copyOf(dir, size*2);
+			}
+			from[size]=vertex;
+			dir[size]=direction;
+			size++;
+		}
+
+		/**
+		 * Returns the vertex an edge is pointing to
+		 * @param edge index of the edge
+		 * @param stride width of the vertices' grid
+		 * @return the vertex the edge is pointing to
+		 */
+		int to(int edge, int stride) {
+			switch(dir[edge]) {
+				case RIGHT: return from[edge]+1;
+				case DOWN: return from[edge]+stride;
+				case LEFT: return from[edge]-1;
+				default: return from[edge]-stride;
+			}
+		}
+
+		/**
+		 * Chains the edges into closed outlines and builds the corresponding Roi.
+		 * As each vertex has as many incoming as outgoing edges, walking unused edges
+		 * always ends on the starting vertex. At pinch points, the choice of the next
+		 * edge does not matter as the even-odd rule only depends on the set of edges.
+		 * Vertices are looked up within the label's bounding box only.
+		 * @param stride width of the vertices' grid
+		 * @param boxX left-most x of the label's bounding box
+		 * @param boxY top-most y of the label's bounding box
+		 * @param boxStride width of the vertices' grid within the bounding box
+		 * @param head scratch table, at least as large as the bounding box' vertices grid
+		 * and filled with -1: it is left in the same state on return
+		 * @return the Roi enclosed by the edges, or null if no edge was found
+		 */
+		Roi toRoi(int stride, int boxX, int boxY, int boxStride, int[] head) {
+			if(size==0) return null;
+
+			//Links edges starting from the same vertex: head (per vertex)/next (per edge)
+			int[] local=new int[size];
+			int[] next=new int[size];
+			for(int i=size-1; i>=0; i--) {
+				local[i]=(from[i]/stride-boxY)*boxStride+(from[i]%stride-boxX);
+				next[i]=head[local[i]];
+				head[local[i]]=i;
+			}
+
+			boolean[] used=new boolean[size];
+			int[] loop=new int[size];
+			GeneralPath path=new GeneralPath(GeneralPath.WIND_EVEN_ODD);
+
+			for(int start=0; start<size; start++) {
+				if(used[start]) continue;
+
+				//Walks along unused edges until coming back to the starting vertex
+				int n=0;
+				int edge=start;
+				while(edge!=-1) {
+					used[edge]=true;
+					loop[n++]=edge;
+					int vertex=to(edge, stride);
+					if(vertex==from[start]) {
+						edge=-1;
+					}else {
+						int localVertex=(vertex/stride-boxY)*boxStride+(vertex%stride-boxX);
+						edge=head[localVertex];
+						while(edge!=-1 && used[edge]) edge=next[edge];
+					}
+				}
+
+				//Only keeps corners: vertices where the direction changes
+				boolean first=true;
+				for(int j=0; j<n; j++) {
+					if(dir[loop[j]]!=dir[loop[(j+n-1)%n]]) {
+						int x=from[loop[j]]%stride;
+						int y=from[loop[j]]/stride;
+						if(first) {
+							path.moveTo(x, y);
+							first=false;
+						}else {
+							path.lineTo(x, y);
+						}
+					}
+				}
+				path.closePath();
+			}
+
+			//Leaves the scratch table as it was
+			for(int i=0; i<size; i++) head[local[i]]=-1;
+
+			ShapeRoi shape=new ShapeRoi(path);
+			return shape.trySimplify();
+		}
+	}
+}
@@ -26,19 +26,24 @@ package dataViewer;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 
 import dataModel.AtlasDataContainer;
 import dataModel.AtlasEntry;
 import dataModel.MeasurementsEntry;
 import dataModel.MetadataContainer;
+import dataModel.OntologyIndex;
 import dataModel.RoiEntry;
 import ij.gui.Roi;
 
@@ -62,7 +67,7 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 	public TreeMap <Integer, TreePath> idToTreePath=new TreeMap<Integer, TreePath>();
 	
 	/** A correspondence table between TreePath and Atlas ids */
-	public TreeMap <TreePath, Integer> treePathToId=new TreeMap<TreePath, Integer>();
+	public HashMap <TreePath, Integer> treePathToId=new HashMap<TreePath, Integer>();
 	
 
 	/**
@@ -134,6 +139,7 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 				whereWeAre=(DefaultMutableTreeNode) whereWeAre.getLastChild();
 				TreePath treePath=new TreePath(whereWeAre.getPath()); // Gets the path to the node
 				idToTreePath.put(id, treePath);
+				treePathToId.put(treePath, id);
 			}
 		}
 	}
@@ -161,6 +167,7 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 				//Add to correspondence tables
 				TreePath treePath=new TreePath(ae.getPath());
 				idToTreePath.put(id, treePath);
+				treePathToId.put(treePath, id);
 			}
 		} 
 
@@ -237,14 +244,9 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 		tree.add(structureNode);
 
 		tree.add(getDefaultMutableTreeNode(ae.Measurements, true));
+		if(adc.getOntologyIndex().getChildren(ae.id).length>0) tree.add(getDefaultMutableTreeNode(ae.MeasurementsWithDescendants, true, "Measurements with descendants"));
 
-		DefaultMutableTreeNode roisNode = new DefaultMutableTreeNode("ROIs");
-		for(Integer index:ae.ROIs.keySet()) {
-			roisNode.add(getDefaultMutableTreeNode(ae.ROIs.get(index)));
-		}
-		if(ae.ROIs.isEmpty()) roisNode.add(new DefaultMutableTreeNode("None"));
-
-		tree.add(roisNode);
+		tree.add(new roisTreeNode(ae));
 
 		return tree;
 	}
@@ -256,7 +258,18 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 	 * @return the full content of the input MeasurementsEntry object as a DefaultMutableTreeNode object.
 	 */
 	public DefaultMutableTreeNode getDefaultMutableTreeNode(MeasurementsEntry me, boolean is3D) {
-		DefaultMutableTreeNode tree = new DefaultMutableTreeNode("Measurements");
+		return getDefaultMutableTreeNode(me, is3D, "Measurements");
+	}
+
+	/**
+	 * Returns the full content of the input MeasurementsEntry as a DefaultMutableTreeNode object, named after the input title.
+	 * @param me the input MesurementsEntry
+	 * @param is3D true to log the volume field, false in case only 2D measurements are to be displayed
+	 * @param title the name of the node
+	 * @return the full content of the input MeasurementsEntry object as a DefaultMutableTreeNode object.
+	 */
+	public DefaultMutableTreeNode getDefaultMutableTreeNode(MeasurementsEntry me, boolean is3D, String title) {
+		DefaultMutableTreeNode tree = new DefaultMutableTreeNode(title);
 
 		tree.add(new DefaultMutableTreeNode(is3D?"volume: "+me.volume:"area: "+me.area));
 		tree.add(new DefaultMutableTreeNode("totalIntensity: "+me.totalIntensity));
@@ -313,18 +326,27 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 	
 	/**
 	 * Based on the input array of TreePath, returns the corresponding structures' ids, 
-	 * including all the descendants
+	 * including all the descendants. Descendants of structures are read from the ontology 
+	 * index (see OntologyIndex), each id being returned once
 	 * @param tp the TreePath array for which the structure ids should be retrieved
 	 * @return the ids of the structures corresponding to the input TreePaths, including 
 	 * all descendants, as an array of Integers
 	 */
 	public int[] getDescendantIds(TreePath[] tp) {
-		ArrayList<Integer> out=new ArrayList<Integer>();
+		LinkedHashSet<Integer> out=new LinkedHashSet<Integer>();
+		OntologyIndex oi=adc.getOntologyIndex();
 		
 		for(TreePath t:tp) {
-			for(Entry<Integer, TreePath> tt:idToTreePath.entrySet()) {
-				if(t.isDescendant(tt.getValue())) {
-					out.add(tt.getKey());
+			Integer id=treePathToId.get(t);
+			if(id!=null && oi.contains(id)) {
+				for(int descendant: oi.getDescendants(id)) {
+					if(idToTreePath.containsKey(descendant)) out.add(descendant);
+				}
+			}else if(t.getPathCount()==1) {
+				out.addAll(idToTreePath.keySet()); //The root: all structures
+			}else {
+				for(Entry<Integer, TreePath> tt:idToTreePath.entrySet()) {
+					if(t.isDescendant(tt.getValue())) out.add(tt.getKey());
 				}
 			}
 		}
@@ -359,12 +381,7 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 	 * or -1 if not found
 	 */
 	private int getIdFromOntology(TreePath tp) {
-		for(Entry<Integer, TreePath> t:idToTreePath.entrySet()) {
-			if(tp.equals(t.getValue())) {
-				return t.getKey();
-			}
-		}
-		return -1;
+		return treePathToId.getOrDefault(tp, -1);
 	}
 	
 	/**
@@ -375,10 +392,10 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 	 * or -1 if not found
 	 */
 	private int getIdFromStructure(TreePath tp) {
-		for(Entry<Integer, TreePath> t:idToTreePath.entrySet()) {
-			if(t.getValue().isDescendant(tp)) {
-				return t.getKey();
-			}
+		//Walks up the path, from the selected node to the structure's node
+		for(TreePath t=tp; t!=null; t=t.getParentPath()) {
+			Integer id=treePathToId.get(t);
+			if(id!=null) return id;
 		}
 		return -1;
 	}
@@ -546,4 +563,65 @@ public class AtlasDataTreeModel extends DefaultTreeModel{
 	public boolean hasRois(TreePath treePath) {
 		return getId(treePath)!=-1?!adc.Atlas.get(getId(treePath)).ROIs.isEmpty():false;
 	}
+
+	/**
+	 * This class displays the Rois of an AtlasEntry: its children are only created when first requested,
+	 * so that building the tree does not require reading the Rois of all structures (see LazyRoiMap)
+	 */
+	private class roisTreeNode extends DefaultMutableTreeNode{
+		private static final long serialVersionUID = 1L;
+
+		/** The AtlasEntry whose Rois are displayed */
+		private AtlasEntry ae;
+
+		/**
+		 * Creates a new roisTreeNode
+		 * @param ae the AtlasEntry whose Rois are displayed
+		 */
+		roisTreeNode(AtlasEntry ae) {
+			super("ROIs");
+			this.ae=ae;
+		}
+
+		/**
+		 * Creates the children, if not already done
+		 */
+		private void populate() {
+			if(ae==null) return;
+
+			AtlasEntry entry=ae;
+			ae=null;
+			for(RoiEntry re: entry.ROIs.values()) add(getDefaultMutableTreeNode(re));
+			if(getChildCount()==0) add(new DefaultMutableTreeNode("None"));
+		}
+
+		@Override
+		public int getChildCount() {
+			populate();
+			return super.getChildCount();
+		}
+
+		@Override
+		public TreeNode getChildAt(int index) {
+			populate();
+			return super.getChildAt(index);
+		}
+
+		@Override
+		public int getIndex(TreeNode aChild) {
+			populate();
+			return super.getIndex(aChild);
+		}
+
+		@Override
+		public Enumeration<TreeNode> children() {
+			populate();
+			return super.children();
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return false;
+		}
+	}
 }
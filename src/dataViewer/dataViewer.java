@@ -32,11 +32,16 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.tree.TreePath;
 
 import dataModel.AtlasDataContainer;
+import dataModel.MapSpecification;
+import dataModel.MeasurementSidecar;
+import dataModel.MeasurementsExporter;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
+import ij.gui.GenericDialog;
 import ij.gui.Overlay;
 import ij.gui.Roi;
+import ij.io.SaveDialog;
 import utilities.pluginsInfo;
 import utilities.tools;
 
@@ -69,6 +74,8 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.JCheckBox;
 import javax.swing.JSlider;
 import javax.swing.JTabbedPane;
@@ -82,17 +89,23 @@ public class dataViewer extends JFrame {
 	String adcPath="";
 	String adcName="";
 
+	/** Options for the measurements exported per structure: own Rois only, or with all descendants in the ontology */
+	static final String[] STRUCTURE_MEASUREMENTS=new String[] {"Own Rois only", "Including descendants"};
+
 	private static final long serialVersionUID = 1L;
 	private JPanel contentPane;
 	private JButton openZONButton;
+	private JButton attachMeasurementsButton;
 	private JButton selectNoneButton;
 	private JButton selectAllButton;
 	private JButton measureButton;
 	private JComboBox<String> levelComboBox;
 	private JButton getImageButton;
 	private JButton exportToRoiManagerButton;
+	private JButton exportRoiSetButton;
 	private JButton exportDataButton;
 	private JButton saveZONButton;
+	private JButton saveMeasurementsButton;
 	private JTree structureTree;
 	private JTextPane infosTxtPane;
 
@@ -112,6 +125,20 @@ public class dataViewer extends JFrame {
 			return f.getName().toLowerCase().endsWith(".zon");
 		}
 	};
+
+	/** A file filter for measurement sidecar files */
+	private FileFilter sidecarFilter=new FileFilter() {
+
+		@Override
+		public String getDescription() {
+			return "Measurement sidecar file (*"+MeasurementSidecar.EXTENSION+")";
+		}
+
+		@Override
+		public boolean accept(File f) {
+			return f.isDirectory() || f.getName().toLowerCase().endsWith(MeasurementSidecar.EXTENSION);
+		}
+	};
 	private JLabel searchLabel;
 	private JTextPane searchOutputTxtPane;
 	private JTextField searchTextField;
@@ -186,6 +213,12 @@ public class dataViewer extends JFrame {
 		setTitle(buildTitle());
 
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				if(dataViewer.this.adc!=null) dataViewer.this.adc.close();
+			}
+		});
 		setBounds(100, 100, 631, 512);
 		contentPane = new JPanel();
 		contentPane.setBorder(new EmptyBorder(5, 5, 5, 5));
@@ -274,6 +307,17 @@ public class dataViewer extends JFrame {
 			}
 		});
 
+		attachMeasurementsButton = new JButton("Attach Measurements");
+		sl_openPanel.putConstraint(SpringLayout.NORTH, attachMeasurementsButton, 0, SpringLayout.SOUTH, openZONButton);
+		sl_openPanel.putConstraint(SpringLayout.WEST, attachMeasurementsButton, 0, SpringLayout.WEST, openPanel);
+		sl_openPanel.putConstraint(SpringLayout.EAST, attachMeasurementsButton, 0, SpringLayout.EAST, openPanel);
+		openPanel.add(attachMeasurementsButton);
+		attachMeasurementsButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				attachMeasurements();
+			}
+		});
+
 		//------------------------- SELECT TAB -------------------------
 		selectPanel = new JPanel();
 		actionsTabbedPane.addTab("Select", null, selectPanel, null);
@@ -573,6 +617,11 @@ public class dataViewer extends JFrame {
 		sl_outputPanel.putConstraint(SpringLayout.NORTH, getTableButton, 0, SpringLayout.SOUTH, getImageButton);
 		sl_outputPanel.putConstraint(SpringLayout.WEST, getTableButton, 0, SpringLayout.WEST, outputPanel);
 		sl_outputPanel.putConstraint(SpringLayout.EAST, getTableButton, 0, SpringLayout.EAST, outputPanel);
+		getTableButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showTable();
+			}
+		});
 		outputPanel.add(getTableButton);
 
 		//------------------------- EXPORT TAB -------------------------
@@ -592,10 +641,26 @@ public class dataViewer extends JFrame {
 		exportPanel.setLayout(sl_exportPanel);
 		exportPanel.add(exportToRoiManagerButton);
 
+		exportRoiSetButton = new JButton("Export RoiSet");
+		exportRoiSetButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				exportToRoiSet();
+			}
+		});
+		sl_exportPanel.putConstraint(SpringLayout.NORTH, exportRoiSetButton, 0, SpringLayout.SOUTH, exportToRoiManagerButton);
+		sl_exportPanel.putConstraint(SpringLayout.WEST, exportRoiSetButton, 0, SpringLayout.WEST, exportPanel);
+		sl_exportPanel.putConstraint(SpringLayout.EAST, exportRoiSetButton, 0, SpringLayout.EAST, exportPanel);
+		exportPanel.add(exportRoiSetButton);
+
 		exportDataButton = new JButton("Export Data");
-		sl_exportPanel.putConstraint(SpringLayout.NORTH, exportDataButton, 0, SpringLayout.SOUTH, exportToRoiManagerButton);
+		sl_exportPanel.putConstraint(SpringLayout.NORTH, exportDataButton, 0, SpringLayout.SOUTH, exportRoiSetButton);
 		sl_exportPanel.putConstraint(SpringLayout.WEST, exportDataButton, 0, SpringLayout.WEST, exportPanel);
 		sl_exportPanel.putConstraint(SpringLayout.EAST, exportDataButton, 0, SpringLayout.EAST, exportPanel);
+		exportDataButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				exportData();
+			}
+		});
 		exportPanel.add(exportDataButton);
 
 		saveZONButton = new JButton("Save ZON");
@@ -609,6 +674,17 @@ public class dataViewer extends JFrame {
 		});
 		exportPanel.add(saveZONButton);
 
+		saveMeasurementsButton = new JButton("Save Measurements");
+		sl_exportPanel.putConstraint(SpringLayout.NORTH, saveMeasurementsButton, 0, SpringLayout.SOUTH, saveZONButton);
+		sl_exportPanel.putConstraint(SpringLayout.WEST, saveMeasurementsButton, 0, SpringLayout.WEST, exportPanel);
+		sl_exportPanel.putConstraint(SpringLayout.EAST, saveMeasurementsButton, 0, SpringLayout.EAST, exportPanel);
+		saveMeasurementsButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				saveMeasurements();
+			}
+		});
+		exportPanel.add(saveMeasurementsButton);
+
 		infosTxtPane=new JTextPane();
 		sl_contentPane.putConstraint(SpringLayout.NORTH, infosTxtPane, -24, SpringLayout.SOUTH, contentPane);
 		infosTxtPane.setEditable(false);
@@ -695,6 +771,7 @@ public class dataViewer extends JFrame {
 	public void openZON() {
 		AtlasDataContainer toBeOpened=getAtlasDataContainerFromZON();
 		if(toBeOpened!=null) {
+			if(adc!=null) adc.close();
 			adc=toBeOpened;
 			insertInTitle=adcName;
 			updateTreeAfterChange(false);
@@ -732,12 +809,48 @@ public class dataViewer extends JFrame {
 	}
 
 	/**
-	 * Saves the current AtlasDataContainer to a new ZON file.
+	 * Saves the current AtlasDataContainer. In case it is bound to a ZON file, the user may
+	 * only append the changes to the file's journal (fast), or rewrite the file including all
+	 * changes (compaction), rather than saving it to a new ZON file.
 	 * Does nothing if the AtlasDataContainer is null.
 	 * Displays an error message in case the file is not in the
 	 * appropriate format
 	 */
 	public void saveAsZON() {
+		if(adc!=null && adc.getZONPath()!=null && new File(adc.getZONPath()).exists()) {
+			String[] choices=new String[] {"Save changes (journal)", "Compact ZON file", "Save as a new ZON file"};
+			GenericDialog gd=new GenericDialog("Save ZON");
+			gd.addMessage("Current ZON file: "+new File(adc.getZONPath()).getName());
+			gd.addChoice("Action", choices, choices[adc.hasPendingChanges()?0:2]);
+			gd.showDialog();
+			if(gd.wasCanceled()) return;
+
+			switch(gd.getNextChoiceIndex()) {
+				case 0:
+					if(adc.saveChanges()) {
+						updateTreeAfterChange(false);
+					}else {
+						IJ.error("Error saving ZON file", "The changes could not be appended to the journal of\n"+adc.getZONPath()+"\nPlease try again.");
+					}
+					return;
+				case 1:
+					adc.compact();
+					updateTreeAfterChange(false);
+					return;
+				default:
+					break;
+			}
+		}
+		saveAsNewZON();
+	}
+
+	/**
+	 * Saves the current AtlasDataContainer to a new ZON file.
+	 * Does nothing if the AtlasDataContainer is null.
+	 * Displays an error message in case the file is not in the
+	 * appropriate format
+	 */
+	public void saveAsNewZON() {
 		if(adc!=null) {
 			JFileChooser jfc=new JFileChooser();
 			jfc.addChoosableFileFilter(ZONFilter);
@@ -761,6 +874,84 @@ public class dataViewer extends JFrame {
 		}
 	}
 
+	/**
+	 * Attaches measurement sidecar files to the current AtlasDataContainer (see MeasurementSidecar):
+	 * their measurements become available as any other measured image.
+	 * Does nothing if the AtlasDataContainer is null.
+	 * Displays an error message for each file that does not refer to the current ZON file
+	 */
+	public void attachMeasurements() {
+		if(adc!=null) {
+			JFileChooser jfc=new JFileChooser(adcPath.isEmpty()?null:new File(adcPath).getParentFile());
+			jfc.addChoosableFileFilter(sidecarFilter);
+			jfc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+			jfc.setMultiSelectionEnabled(true);
+			jfc.setAcceptAllFileFilterUsed(false);
+
+			if(jfc.showOpenDialog(null)==JFileChooser.APPROVE_OPTION) {
+				int nAttached=0;
+				for(File f: jfc.getSelectedFiles()) {
+					try {
+						nAttached+=MeasurementSidecar.attach(adc, f.getPath()).length;
+					}catch (Exception e) {
+						IJ.error("Error attaching measurements", "The file "+f.getPath()+"\ncan not be attached:\n"+e.getMessage());
+					}
+				}
+				if(nAttached>0) {
+					updateTreeAfterChange(hasChanged);
+					IJ.showStatus("!"+nAttached+" measured image(s) attached");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves measurements of the current AtlasDataContainer to a sidecar file (see MeasurementSidecar),
+	 * the user choosing the measured images to save. The sidecar file refers to the current ZON file,
+	 * which should therefore have been saved first.
+	 * Does nothing if the AtlasDataContainer is null.
+	 */
+	public void saveMeasurements() {
+		if(adc!=null) {
+			if(adc.getZONPath()==null) {
+				IJ.error("Save Measurements", "The Atlas Data Container should be saved as a ZON file first");
+				return;
+			}
+
+			String[] keys=adc.getMeasurementKeys().toArray(new String[0]);
+			if(keys.length==0) {
+				IJ.error("Save Measurements", "Nothing has been measured yet");
+				return;
+			}
+
+			boolean[] selected=new boolean[keys.length];
+			for(int i=0; i<keys.length; i++) selected[i]=keys[i].equals(adc.activeMeasurements);
+
+			GenericDialog gd=new GenericDialog("Save Measurements");
+			gd.addMessage("Measured images to save");
+			gd.addCheckboxGroup(keys.length, 1, keys, selected);
+			gd.showDialog();
+			if(gd.wasCanceled()) return;
+
+			ArrayList<String> chosen=new ArrayList<String>();
+			for(int i=0; i<keys.length; i++) if(gd.getNextBoolean()) chosen.add(keys[i]);
+			if(chosen.isEmpty()) return;
+
+			JFileChooser jfc=new JFileChooser(new File(adc.getZONPath()).getParentFile());
+			jfc.addChoosableFileFilter(sidecarFilter);
+			jfc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+			jfc.setAcceptAllFileFilterUsed(false);
+
+			if(jfc.showSaveDialog(null)==JFileChooser.APPROVE_OPTION) {
+				try {
+					MeasurementSidecar.write(adc, chosen.toArray(new String[0]), tools.checkFileExtension(jfc.getSelectedFile().getPath(), MeasurementSidecar.EXTENSION));
+				}catch (Exception e) {
+					IJ.error("Error saving measurements", "The file "+jfc.getSelectedFile().getPath()+"\ncan not be written:\n"+e.getMessage());
+				}
+			}
+		}
+	}
+
 	/**
 	 * Loads all profiles contained in a ZON file and adds them to the current Atlas Data Container.
 	 * In case a profile exists with the same name, the added one is added -1, -2, -3... until the naming is Ok.
@@ -775,7 +966,7 @@ public class dataViewer extends JFrame {
 				while(adc.selectionProfiles.get(tmpName)!=null) {
 					tmpName=name+"-"+index++;
 				}
-				adc.selectionProfiles.put(tmpName, openForProfiles.selectionProfiles.get(name));
+				adc.putProfile(tmpName, openForProfiles.selectionProfiles.get(name));
 			}
 			selectNone();
 			updateProfileList();
@@ -1054,7 +1245,7 @@ public class dataViewer extends JFrame {
 		if(allClear) {
 			
 			Set<Integer> values=structureTree.getSelectionPaths()!=null?structureModel.getIdsAsSet(structureTree.getSelectionPaths()):new HashSet<Integer>();
-			adc.selectionProfiles.put(name, values);
+			adc.putProfile(name, values);
 
 			updateProfileList();
 			profileComboBox.setSelectedItem(name);
@@ -1077,7 +1268,7 @@ public class dataViewer extends JFrame {
 			//Required to be able to do addAll
 			Set<Integer> tmp=new HashSet<Integer>(adc.selectionProfiles.get(profile));
 			tmp.addAll(ids);
-			adc.selectionProfiles.put(profile, tmp);
+			adc.putProfile(profile, tmp);
 
 			selectRoisFromProfile();
 
@@ -1091,7 +1282,7 @@ public class dataViewer extends JFrame {
 	public void deleteProfile() {
 		String profile=(String) profileComboBox.getSelectedItem();
 		if(tools.confirmationDialog("Delete Profile", "Are you sure you want to\n delete profile "+profile)) {
-			adc.selectionProfiles.remove(profile);
+			adc.removeProfile(profile);
 			selectNone();
 			updateProfileList();
 			profileComboBox.setSelectedIndex(0);
@@ -1107,7 +1298,7 @@ public class dataViewer extends JFrame {
 		String profile=(String) profileComboBox.getSelectedItem();
 		Set<String> oldList=new HashSet<String>(adc.selectionProfiles.keySet());//KeySet is dynamically modified! Keep track of its current state
 		if(createProfile()) {
-			adc.selectionProfiles.remove(profile);
+			adc.removeProfile(profile);
 			selectNone();
 			updateProfileList();
 			Set<String> newList=adc.selectionProfiles.keySet();
@@ -1150,10 +1341,44 @@ public class dataViewer extends JFrame {
 	//****************************************************************************
 	
 	/**
-	 * Updates all stored measurements with the ones from the active ImagePlus
+	 * Measures the images selected by the user amongst the opened ones having the same dimensions as the
+	 * atlas (all channels/frames of hyperstacks being measured). The active ImagePlus is selected by default.
+	 * Measurements are stored per image, the first measured image becoming the active one.
 	 */
 	public void measure() {
-		adc.measure(getActiveImagePlus());
+		ImagePlus active=getActiveImagePlus();
+
+		ArrayList<ImagePlus> candidates=new ArrayList<ImagePlus>();
+		int[] idList=WindowManager.getIDList();
+		if(idList!=null) {
+			for(int id: idList) {
+				ImagePlus ip=WindowManager.getImage(id);
+				if(ip!=null && ip.getWidth()==adc.Metadata.imgWidth && ip.getHeight()==adc.Metadata.imgHeight && ip.getNSlices()==adc.Metadata.imgDepth) candidates.add(ip);
+			}
+		}
+
+		ImagePlus[] toMeasure=new ImagePlus[] {active};
+		if(candidates.size()>1) {
+			String[] titles=new String[candidates.size()];
+			boolean[] selected=new boolean[candidates.size()];
+			for(int i=0; i<titles.length; i++) {
+				titles[i]=candidates.get(i).getTitle();
+				selected[i]=candidates.get(i)==active;
+			}
+
+			GenericDialog gd=new GenericDialog("Measure");
+			gd.addMessage("Images to measure (all channels/frames)");
+			gd.addCheckboxGroup(titles.length, 1, titles, selected);
+			gd.showDialog();
+			if(gd.wasCanceled()) return;
+
+			ArrayList<ImagePlus> chosen=new ArrayList<ImagePlus>();
+			for(int i=0; i<titles.length; i++) if(gd.getNextBoolean()) chosen.add(candidates.get(i));
+			if(chosen.isEmpty()) return;
+			toMeasure=chosen.toArray(new ImagePlus[chosen.size()]);
+		}
+
+		if(!adc.measure(toMeasure)) return;
 		//Update the display+updates the AtalsDataContainer status
 		updateTreeAfterChange(true);
 	}
@@ -1174,7 +1399,117 @@ public class dataViewer extends JFrame {
 	 * Exports all Rois in case none is selected.
 	 */
 	public void exportToRoiManager() {
-		adc.toRoiManager(structureModel.getIdsAsSet(structureTree.getSelectionPaths()));
+		adc.toRoiManager(getSelectedIds());
+	}
+
+	/**
+	 * Returns the ids of the structures selected in the structure tree
+	 * @return the ids of the selected structures, an empty Set if none is selected
+	 */
+	Set<Integer> getSelectedIds() {
+		TreePath[] paths=structureTree.getSelectionPaths();
+		return paths==null?new HashSet<Integer>():structureModel.getIdsAsSet(paths);
+	}
+
+	/**
+	 * Asks the user for the measured images to export
+	 * @param gd the dialog, to which fields might have been added already
+	 * @return the keys of the measured images, without duplicates (null standing for the active measurements when none is set),
+	 * or null if the dialog was canceled
+	 */
+	String[] chooseMeasurementKeys(GenericDialog gd) {
+		String[] keys=adc.getMeasurementKeys().toArray(new String[0]);
+		String[] labels=new String[keys.length+1];
+		boolean[] selected=new boolean[labels.length];
+		labels[0]="Active measurements";
+		selected[0]=true;
+		System.arraycopy(keys, 0, labels, 1, keys.length);
+
+		gd.addMessage("Measured images to export");
+		gd.addCheckboxGroup(labels.length, 1, labels, selected);
+		gd.showDialog();
+		if(gd.wasCanceled()) return null;
+
+		//The active measurements are also stored under their key: both are exported once
+		ArrayList<String> chosen=new ArrayList<String>();
+		if(gd.getNextBoolean()) chosen.add(adc.activeMeasurements);
+		for(String key: keys) if(gd.getNextBoolean() && !chosen.contains(key)) chosen.add(key);
+		return chosen.toArray(new String[chosen.size()]);
+	}
+
+	/**
+	 * Displays the measurements of the selected structures (all structures if none is selected) as
+	 * ResultsTables, per structure or per Roi depending on the selected level. The rows are streamed to
+	 * tables of limited size (see MeasurementsExporter), all of them remaining open: large exports should
+	 * rather be written to a file (see exportData)
+	 */
+	public void showTable() {
+		if(adc==null) return;
+
+		boolean perRoi=levelComboBox.getSelectedIndex()==1;
+
+		GenericDialog gd=new GenericDialog("Get Table");
+		gd.addNumericField("Maximum_rows_per_table", MeasurementsExporter.getResultsTableRows(), 0);
+		if(!perRoi) gd.addChoice("Structures", STRUCTURE_MEASUREMENTS, STRUCTURE_MEASUREMENTS[0]);
+		String[] keys=chooseMeasurementKeys(gd);
+		if(keys==null || keys.length==0) return;
+		MeasurementsExporter.setResultsTableRows((int) gd.getNextNumber());
+		boolean withDescendants=!perRoi && gd.getNextChoiceIndex()==1;
+
+		new MeasurementsExporter(adc, perRoi, keys).setWithDescendants(withDescendants).toResultsTables((adcName.isEmpty()?"Atlas":adcName)+(perRoi?"_Rois":"_Structures"), getSelectedIds());
+	}
+
+	/**
+	 * Exports the measurements of the selected structures (all structures if none is selected) as a
+	 * CSV or TSV file, per structure or per Roi depending on the selected level. The rows are streamed
+	 * to the file (see MeasurementsExporter)
+	 */
+	public void exportData() {
+		if(adc==null) return;
+
+		boolean perRoi=levelComboBox.getSelectedIndex()==1;
+
+		String[] formats=new String[] {"CSV (comma separated)", "TSV (tab separated)"};
+		GenericDialog gd=new GenericDialog("Export Data");
+		gd.addChoice("Format", formats, formats[0]);
+		if(!perRoi) gd.addChoice("Structures", STRUCTURE_MEASUREMENTS, STRUCTURE_MEASUREMENTS[0]);
+		String[] keys=chooseMeasurementKeys(gd);
+		if(keys==null || keys.length==0) return;
+		boolean csv=gd.getNextChoiceIndex()==0;
+		boolean withDescendants=!perRoi && gd.getNextChoiceIndex()==1;
+
+		String extension=csv?".csv":".tsv";
+		SaveDialog sd=new SaveDialog("Export data as", (adcName.isEmpty()?"Atlas":adcName.replaceAll("(?i)\\.zon$", ""))+(perRoi?"_Rois":"_Structures"), extension);
+		if(sd.getFileName()==null) return;
+
+		try {
+			new MeasurementsExporter(adc, perRoi, keys).setWithDescendants(withDescendants).toFile(tools.checkFileExtension(sd.getDirectory()+sd.getFileName(), extension), csv?',':'\t', getSelectedIds());
+		}catch (Exception e) {
+			IJ.error("Error exporting data", "The file "+sd.getDirectory()+sd.getFileName()+"\ncan not be written:\n"+e.getMessage());
+		}
+	}
+
+	/**
+	 * Saves the selected structures as a RoiSet, without going through the RoiManager.
+	 * Saves all Rois in case none is selected. The user chooses the compression level.
+	 */
+	public void exportToRoiSet() {
+		if(adc==null) return;
+
+		GenericDialog gd=new GenericDialog("Export RoiSet");
+		gd.addNumericField("Compression_level (0-9)", AtlasDataContainer.getZONCompressionLevel(), 0);
+		gd.showDialog();
+		if(gd.wasCanceled()) return;
+		int level=(int) gd.getNextNumber();
+
+		SaveDialog sd=new SaveDialog("Save RoiSet as", adcName.isEmpty()?"RoiSet":adcName.replaceAll("(?i)\\.zon$", "")+"_RoiSet", ".zip");
+		if(sd.getFileName()==null) return;
+
+		try {
+			adc.toRoiSet(tools.checkFileExtension(sd.getDirectory()+sd.getFileName(), ".zip"), getSelectedIds(), level);
+		}catch (Exception e) {
+			IJ.error("Error exporting RoiSet", "The file "+sd.getDirectory()+sd.getFileName()+"\ncan not be written:\n"+e.getMessage());
+		}
 	}
 	
 	
@@ -1202,12 +1537,16 @@ public class dataViewer extends JFrame {
 		
 		ids=ids.length==0?(Integer[]) adc.nameId.values().toArray(new Integer[adc.nameId.values().size()]):ids;
 
-		adc.getImage(0, 0, 0, ids).show();
-		adc.getImage(0, 1, 0, ids).show();
-		adc.getImage(0, 5, 0, ids).show();
-		adc.getImage(1, 0, 0, ids).show();
-		adc.getImage(1, 1, 0, ids).show();
-		adc.getImage(1, 5, 0, ids).show();
+		MapSpecification[] specs=new MapSpecification[] {
+				new MapSpecification(0, 0, 0),
+				new MapSpecification(0, 1, 0),
+				new MapSpecification(0, 5, 0),
+				new MapSpecification(1, 0, 0),
+				new MapSpecification(1, 1, 0),
+				new MapSpecification(1, 5, 0)
+		};
+
+		for(ImagePlus ip: adc.getImages(specs, ids, true)) ip.show();
 
 	}
 
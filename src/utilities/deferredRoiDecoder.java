@@ -0,0 +1,120 @@
+/**
+ * deferredRoiDecoder.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package utilities;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+import dataModel.RoiEntry;
+
+/**
+ * This class allows Rois to be decoded in parallel while a container is being read: the thread reading
+ * the JSON stream only collects the encoded Rois, which are handed, by batches, to the shared pool
+ * (see parallelExecutor) for decoding. The Rois are only guaranteed to be set once await has returned.
+ * At most twice as many batches as the pool has workers are waiting or being decoded at once: once this
+ * limit is reached, the reading thread decodes its batch itself, so that the encoded Rois of a large file
+ * never pile up in memory. On single-processor machines, handing batches over only adds overhead: the
+ * reading thread then decodes all batches itself.
+ */
+public class deferredRoiDecoder {
+	/** Number of Rois per decoding task */
+	static final int BATCH_SIZE=256;
+
+	/** RoiEntries waiting for their Roi, in the current batch */
+	private ArrayList<RoiEntry> entries=new ArrayList<RoiEntry>(BATCH_SIZE);
+
+	/** Encoded Rois, in the current batch (same order as entries) */
+	private ArrayList<String> encoded=new ArrayList<String>(BATCH_SIZE);
+
+	/** Submitted decoding tasks, not joined yet */
+	private final ArrayList<ForkJoinTask<?>> tasks=new ArrayList<ForkJoinTask<?>>();
+
+	/** Number of batches that may still be handed to the pool */
+	private final Semaphore outstanding=new Semaphore(Runtime.getRuntime().availableProcessors()<2?0:2*parallelExecutor.getPool().getParallelism());
+
+	/**
+	 * Queues a Roi for decoding: the RoiEntry's roi field is set once decoded
+	 * @param re the RoiEntry to which the Roi belongs
+	 * @param base64 the encoded Roi (see jsonRoi)
+	 */
+	public void submit(RoiEntry re, String base64) {
+		entries.add(re);
+		encoded.add(base64);
+		if(entries.size()==BATCH_SIZE) flush();
+	}
+
+	/**
+	 * Hands the current batch to the shared pool, or decodes it on the calling thread if too many batches
+	 * are already waiting
+	 */
+	private void flush() {
+		if(entries.isEmpty()) return;
+
+		//Joins the completed tasks, which rethrows their exceptions, if any
+		for(Iterator<ForkJoinTask<?>> it=tasks.iterator(); it.hasNext(); ) {
+			ForkJoinTask<?> task=it.next();
+			if(task.isDone()) {
+				task.join();
+				it.remove();
+			}
+		}
+
+		final ArrayList<RoiEntry> batchEntries=entries;
+		final ArrayList<String> batchEncoded=encoded;
+		if(outstanding.tryAcquire()) {
+			tasks.add(parallelExecutor.getPool().submit(() -> {
+				try {
+					decode(batchEntries, batchEncoded);
+				}finally {
+					outstanding.release();
+				}
+			}));
+		}else {
+			decode(batchEntries, batchEncoded);
+		}
+
+		entries=new ArrayList<RoiEntry>(BATCH_SIZE);
+		encoded=new ArrayList<String>(BATCH_SIZE);
+	}
+
+	/**
+	 * Decodes a batch of Rois
+	 * @param batchEntries the RoiEntries waiting for their Roi
+	 * @param batchEncoded the encoded Rois (same order as batchEntries)
+	 */
+	private static void decode(ArrayList<RoiEntry> batchEntries, ArrayList<String> batchEncoded) {
+		for(int i=0; i<batchEntries.size(); i++) batchEntries.get(i).roi=jsonRoi.decode(batchEncoded.get(i));
+	}
+
+	/**
+	 * Waits for all queued Rois to be decoded
+	 */
+	public void await() {
+		flush();
+		for(ForkJoinTask<?> task: tasks) task.join();
+		tasks.clear();
+	}
+}
@@ -23,19 +23,14 @@
 
 package utilities;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
-import javax.xml.bind.DatatypeConverter;
-
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import ij.gui.Roi;
 import ij.io.RoiDecoder;
@@ -43,42 +38,68 @@ import ij.io.RoiEncoder;
 
 /**
  * This class provides a way to personalize serialization/deserialization of a Roi object.
+ * Tokens are read and written directly, Rois being stored as the base64 encoding of their ImageJ
+ * binary format. The encoding buffer is reused from one Roi to the next: an instance should therefore
+ * not be shared between threads.
  */
-public class jsonRoi implements JsonSerializer<Roi>, JsonDeserializer<Roi>{
+public class jsonRoi extends TypeAdapter<Roi>{
+	/** Reusable buffer holding the base64 encoded Roi */
+	private byte[] encoded=new byte[4096];
 
 	@Override
-	public JsonElement serialize(Roi roi, Type typeOfSrc, JsonSerializationContext context) {
-		if (roi==null) return null;
+	public void write(JsonWriter out, Roi roi) throws IOException {
+		if (roi==null) {
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		out.name("roi").value(encode(roi));
+		out.endObject();
+	}
 
-		//Transforms roi into string from byte array
-		byte[] bytes = null;
-		try {
-			ByteArrayOutputStream bao = new ByteArrayOutputStream(4096);
-			RoiEncoder encoder = new RoiEncoder(bao);
-			encoder.write(roi);
-			bao.close();
-			bytes = bao.toByteArray(); 
-		} catch (IOException e) {
+	@Override
+	public Roi read(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
 			return null;
 		}
 
-		JsonObject job=new JsonObject();
-		job.addProperty("roi", DatatypeConverter.printBase64Binary(bytes));
+		Roi roi=null;
+		in.beginObject();
+		while(in.hasNext()) {
+			if(in.nextName().equals("roi")) {
+				roi=decode(in.nextString());
+			}else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
 
-		return job;
+		return roi;
 	}
 
-	@Override
-	public Roi deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-			throws JsonParseException {
-
-		if (json==null) return null;
+	/**
+	 * Encodes a Roi as the base64 encoding of its ImageJ binary format
+	 * @param roi the Roi to encode
+	 * @return the encoded Roi, as a String
+	 */
+	public String encode(Roi roi) {
+		byte[] bytes=RoiEncoder.saveAsByteArray(roi);
 
-		JsonObject jsonObject = json.getAsJsonObject();
-		Roi roi=RoiDecoder.openFromByteArray(DatatypeConverter.parseBase64Binary(jsonObject.get("roi").getAsString()));
+		int length=4*((bytes.length+2)/3);
+		if(encoded.length<length) encoded=new byte[Math.max(length, 2*encoded.length)];
+		length=Base64.getEncoder().encode(bytes, encoded);
 
-		//TODO: implement mechanism for measurements entry or only do parsing for ij.Roi
+		return new String(encoded, 0, length, StandardCharsets.ISO_8859_1);
+	}
 
-		return roi;
+	/**
+	 * Decodes a Roi from the base64 encoding of its ImageJ binary format
+	 * @param base64 the encoded Roi
+	 * @return the decoded Roi
+	 */
+	public static Roi decode(String base64) {
+		return RoiDecoder.openFromByteArray(Base64.getDecoder().decode(base64));
 	}
 }
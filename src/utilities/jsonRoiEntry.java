@@ -23,88 +23,203 @@
 
 package utilities;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
 
-import javax.xml.bind.DatatypeConverter;
-
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import dataModel.MeasurementsEntry;
 import dataModel.RoiEntry;
 import ij.gui.Roi;
-import ij.io.RoiDecoder;
-import ij.io.RoiEncoder;
 
 /**
  * This class provides a way to personalize serialization/deserialization of a RoiEntry object.
+ * Tokens are read and written directly, without building an intermediate JSON tree, the Roi being
+ * encoded through a jsonRoi whose buffers are reused: an instance should therefore not be shared between threads.
+ * When reading, Rois can be decoded in parallel by a deferredRoiDecoder rather than by the reading thread.
+ * Rois can also be kept outside of the JSON, only references to them being written (see roiStore).
  */
-public class jsonRoiEntry implements JsonSerializer<RoiEntry>, JsonDeserializer<RoiEntry>{
+public class jsonRoiEntry extends TypeAdapter<RoiEntry>{
+	/** Encodes/decodes the Rois */
+	private final jsonRoi roiAdapter=new jsonRoi();
+
+	/** Decodes the Rois in parallel when reading (null to decode them on the reading thread) */
+	private deferredRoiDecoder decoder=null;
+
+	/** Stores the Rois outside of the JSON, only their references being written (null to write them inline) */
+	private roiStore store=null;
+
+	/**
+	 * Interface to implement to store Rois outside of the JSON (for instance as .roi zip entries):
+	 * only a reference to each Roi is then written
+	 */
+	public interface roiStore{
+		/**
+		 * Returns the reference under which the Roi of the input RoiEntry is stored
+		 * @param re the RoiEntry
+		 * @return the reference under which the Roi is stored
+		 */
+		String getReference(RoiEntry re);
+
+		/**
+		 * Retrieves a stored Roi
+		 * @param reference the reference under which the Roi is stored
+		 * @return the Roi, or null if not found
+		 * @throws IOException
+		 */
+		Roi resolve(String reference) throws IOException;
+	}
+
+	/**
+	 * Creates a new jsonRoiEntry, decoding Rois on the reading thread
+	 */
+	public jsonRoiEntry() {
+
+	}
+
+	/**
+	 * Creates a new jsonRoiEntry, handing Rois to the input deferredRoiDecoder when reading
+	 * @param decoder the deferredRoiDecoder to which Rois are handed: its await method should
+	 * be called once reading is over
+	 */
+	public jsonRoiEntry(deferredRoiDecoder decoder) {
+		this.decoder=decoder;
+	}
+
+	/**
+	 * Creates a new jsonRoiEntry, writing and reading references to Rois held by the input roiStore
+	 * rather than the Rois themselves. Inline Rois are still read.
+	 * @param store the roiStore holding the Rois
+	 */
+	public jsonRoiEntry(roiStore store) {
+		this.store=store;
+	}
 
 	@Override
-	public JsonElement serialize(RoiEntry re, Type typeOfSrc, JsonSerializationContext context) {
-		if (re==null) return null;
-
-		//Transforms roi into string from byte array
-		byte[] bytes = null;
-		try {
-			ByteArrayOutputStream bao = new ByteArrayOutputStream(4096);
-			RoiEncoder encoder = new RoiEncoder(bao);
-			encoder.write(re.roi);
-			bao.close();
-			bytes = bao.toByteArray(); 
-		} catch (IOException e) {
-			return null;
+	public void write(JsonWriter out, RoiEntry re) throws IOException {
+		if (re==null) {
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		out.name("slice").value(re.slice);
+		if(store!=null) {
+			if(re.roi!=null) out.name("roiRef").value(store.getReference(re));
+		}else {
+			out.name("roi").value(roiAdapter.encode(re.roi));
 		}
 
-		JsonObject job=new JsonObject();
-		job.addProperty("slice", re.slice);
-		job.addProperty("roi", DatatypeConverter.printBase64Binary(bytes));
-		
-		JsonObject measurements=new JsonObject();
-		measurements.addProperty("area", re.Measurements.area);
-		measurements.addProperty("totalIntensity", re.Measurements.totalIntensity);
-		measurements.addProperty("meanIntensity", re.Measurements.meanIntensity);
-		measurements.addProperty("stdIntensity", re.Measurements.stdIntensity);
-		measurements.addProperty("minIntensity", re.Measurements.minIntensity);
-		measurements.addProperty("maxIntensity", re.Measurements.maxIntensity);
-		
-		job.add("Measurements", measurements);
-		return job;
+		out.name("Measurements");
+		writeMeasurements(out, re.Measurements==null?new MeasurementsEntry():re.Measurements);
+
+		if(!re.MeasurementsPerImage.isEmpty()) {
+			out.name("MeasurementsPerImage").beginObject();
+			for(String key: re.MeasurementsPerImage.keySet()) {
+				out.name(key);
+				writeMeasurements(out, re.MeasurementsPerImage.get(key));
+			}
+			out.endObject();
+		}
+		out.endObject();
 	}
 
 	@Override
-	public RoiEntry deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-			throws JsonParseException {
+	public RoiEntry read(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
 
-		if (json==null) return null;
+		RoiEntry re=new RoiEntry();
+		re.Measurements=new MeasurementsEntry();
 
-		JsonObject jsonObject = json.getAsJsonObject();
-		int slice=jsonObject.get("slice").getAsInt();
-		Roi roi=RoiDecoder.openFromByteArray(DatatypeConverter.parseBase64Binary(jsonObject.get("roi").getAsString()));
-		
-		RoiEntry re=new RoiEntry(slice, roi);
-		MeasurementsEntry me=new MeasurementsEntry();
-		
-		JsonObject measurements=jsonObject.getAsJsonObject("Measurements");
-		if(measurements!=null) {
-			me.area=measurements.get("area").getAsDouble();
-			me.totalIntensity=measurements.get("totalIntensity").getAsDouble();
-			me.meanIntensity=measurements.get("meanIntensity").getAsDouble();
-			me.stdIntensity=measurements.get("stdIntensity").getAsDouble();
-			me.minIntensity=measurements.get("minIntensity").getAsDouble();
-			me.maxIntensity=measurements.get("maxIntensity").getAsDouble();
+		in.beginObject();
+		while(in.hasNext()) {
+			switch(in.nextName()) {
+				case "slice":
+					re.slice=in.nextInt();
+					break;
+				case "roi":
+					if(decoder==null) {
+						re.roi=jsonRoi.decode(in.nextString());
+					}else {
+						decoder.submit(re, in.nextString());
+					}
+					break;
+				case "roiRef":
+					if(store==null) {
+						in.skipValue();
+					}else {
+						re.roi=store.resolve(in.nextString());
+					}
+					break;
+				case "Measurements":
+					re.Measurements=readMeasurements(in);
+					break;
+				case "MeasurementsPerImage":
+					in.beginObject();
+					while(in.hasNext()) {
+						String key=in.nextName();
+						re.MeasurementsPerImage.put(key, readMeasurements(in));
+					}
+					in.endObject();
+					break;
+				default:
+					in.skipValue();
+			}
 		}
-		
-		re.Measurements=me;
-		
+		in.endObject();
+
 		return re;
 	}
+
+	/**
+	 * Writes a MeasurementsEntry as a JSON object
+	 * @param out the JsonWriter to write to
+	 * @param me the MeasurementsEntry to write
+	 * @throws IOException
+	 */
+	void writeMeasurements(JsonWriter out, MeasurementsEntry me) throws IOException {
+		out.beginObject();
+		out.name("area").value(me.area);
+		out.name("totalIntensity").value(me.totalIntensity);
+		out.name("meanIntensity").value(me.meanIntensity);
+		out.name("stdIntensity").value(me.stdIntensity);
+		out.name("minIntensity").value(me.minIntensity);
+		out.name("maxIntensity").value(me.maxIntensity);
+		out.endObject();
+	}
+
+	/**
+	 * Reads a MeasurementsEntry from a JSON object
+	 * @param in the JsonReader to read from
+	 * @return the MeasurementsEntry (empty if the value is null)
+	 * @throws IOException
+	 */
+	MeasurementsEntry readMeasurements(JsonReader in) throws IOException {
+		MeasurementsEntry me=new MeasurementsEntry();
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return me;
+		}
+
+		in.beginObject();
+		while(in.hasNext()) {
+			switch(in.nextName()) {
+				case "area": me.area=in.nextDouble(); break;
+				case "totalIntensity": me.totalIntensity=in.nextDouble(); break;
+				case "meanIntensity": me.meanIntensity=in.nextDouble(); break;
+				case "stdIntensity": me.stdIntensity=in.nextDouble(); break;
+				case "minIntensity": me.minIntensity=in.nextDouble(); break;
+				case "maxIntensity": me.maxIntensity=in.nextDouble(); break;
+				default: in.skipValue();
+			}
+		}
+		in.endObject();
+
+		return me;
+	}
 }
@@ -0,0 +1,242 @@
+/**
+ * parallelExecutor.java
+ *
+ * Created on 17 oct. 2026
+ * Fabrice P. Cordelieres, fabrice.cordelieres at gmail.com
+ *
+ * Copyright (C) 2026 Fabrice P. Cordelieres
+ *
+ * License:
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package utilities;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.Prefs;
+
+/**
+ * This class provides a single, bounded, work-stealing pool shared by all multi-threaded
+ * processes of the plugins (decoding, measuring, images creation). Its parallelism level is
+ * set by the user and persisted in the ImageJ preferences. Workers run at normal priority,
+ * and nested calls are executed within the pool rather than spawning new threads.
+ */
+public class parallelExecutor {
+	/** Key used to store the parallelism level in the ImageJ preferences */
+	public static final String PARALLELISM_PREF="AtlasUtilities.parallelism";
+
+	/** The shared pool, created on first use */
+	private static ForkJoinPool pool=null;
+
+	/** Used to number the workers */
+	private static final AtomicInteger workerCount=new AtomicInteger(1);
+
+	/**
+	 * Interface to implement to describe the work to be done for a single index
+	 */
+	public interface indexedTask{
+		/**
+		 * Performs the work for the input index
+		 * @param index the index to process
+		 */
+		void run(int index);
+	}
+
+	/**
+	 * Interface to implement to be notified each time an index has been processed
+	 */
+	public interface progressListener{
+		/**
+		 * Called each time an index has been processed (possibly from any worker)
+		 * @param done the number of indexes processed so far
+		 * @param total the total number of indexes to process
+		 */
+		void progress(int done, int total);
+	}
+
+	/**
+	 * This class allows cooperative cancellation of a parallel process: remaining indexes
+	 * are skipped once cancel has been called, or once the user has pressed the Esc key
+	 * (if allowed)
+	 */
+	public static class taskHandle{
+		/** True once the process has been cancelled */
+		private final AtomicBoolean cancelled=new AtomicBoolean(false);
+
+		/** True if pressing the Esc key should cancel the process */
+		public boolean cancelOnEscape=true;
+
+		/**
+		 * Requests the process to be cancelled
+		 */
+		public void cancel() {
+			cancelled.set(true);
+		}
+
+		/**
+		 * Returns true if the process has been cancelled
+		 * @return true if the process has been cancelled
+		 */
+		public boolean isCancelled() {
+			if(!cancelled.get() && cancelOnEscape && IJ.escapePressed()) cancelled.set(true);
+			return cancelled.get();
+		}
+	}
+
+	/**
+	 * Returns the default parallelism level: all processors but one, leaving room for the user interface
+	 * @return the default parallelism level
+	 */
+	public static int getDefaultParallelism() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+	}
+
+	/**
+	 * Returns the parallelism level, as stored in the ImageJ preferences
+	 * @return the parallelism level
+	 */
+	public static int getParallelism() {
+		return Math.max(1, (int) Prefs.get(PARALLELISM_PREF, getDefaultParallelism()));
+	}
+
+	/**
+	 * Sets and persists the parallelism level. The shared pool is replaced on next use,
+	 * tasks already running on the former one being left to complete
+	 * @param parallelism the new parallelism level (values below 1 are set to 1)
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		parallelism=Math.max(1, parallelism);
+		Prefs.set(PARALLELISM_PREF, parallelism);
+
+		if(pool!=null && pool.getParallelism()!=parallelism) {
+			pool.shutdown();
+			pool=null;
+		}
+	}
+
+	/**
+	 * Returns the shared pool, creating it if required
+	 * @return the shared pool
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if(pool==null) {
+			pool=new ForkJoinPool(getParallelism(), p -> {
+				ForkJoinWorkerThread worker=ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				worker.setName("Atlas Utilities worker "+workerCount.getAndIncrement());
+				worker.setPriority(Thread.NORM_PRIORITY);
+				worker.setDaemon(true);
+				return worker;
+			}, null, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the input task for all indexes from start (included) to end (excluded), using the shared pool
+	 * @param start the first index to process
+	 * @param end the index following the last index to process
+	 * @param task the work to be done for each index
+	 * @return true if all indexes have been processed, false if the process has been cancelled
+	 */
+	public static boolean forEach(int start, int end, indexedTask task) {
+		return forEach(start, end, task, null, new taskHandle());
+	}
+
+	/**
+	 * Runs the input task for all indexes from start (included) to end (excluded), using the shared pool.
+	 * When called from one of the pool's workers, the work is split within the pool.
+	 * @param start the first index to process
+	 * @param end the index following the last index to process
+	 * @param task the work to be done for each index
+	 * @param listener the listener to notify each time an index has been processed (can be null)
+	 * @param handle the handle used to cancel the process (can be null)
+	 * @return true if all indexes have been processed, false if the process has been cancelled before completion
+	 */
+	public static boolean forEach(int start, int end, indexedTask task, progressListener listener, taskHandle handle) {
+		if(end<=start) return true;
+
+		final taskHandle h=handle==null?new taskHandle():handle;
+		AtomicInteger done=new AtomicInteger(0);
+		rangeTask root=new rangeTask(start, end, task, listener, h, done, end-start);
+
+		ForkJoinPool current=getPool();
+		if(ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool()==current) {
+			root.invoke();
+		}else {
+			if(h.cancelOnEscape) IJ.resetEscape(); //Only top-level calls: an earlier Esc should not cancel the process
+			current.invoke(root);
+		}
+
+		//Cancellation is only checked while indexes are pending: an Esc pressed once all are processed is ignored
+		return done.get()==end-start;
+	}
+
+	/**
+	 * Returns a progressListener displaying the progress in ImageJ's status bar and progress bar
+	 * @param message the message to display in the status bar
+	 * @return a progressListener displaying the progress in ImageJ's status bar and progress bar
+	 */
+	public static progressListener statusProgress(String message) {
+		return (done, total) -> {
+			IJ.showStatus("!"+message+" - "+done+"/"+total);
+			IJ.showProgress(done, total);
+		};
+	}
+
+	/**
+	 * This class recursively splits a range of indexes until a single index remains, then processes it
+	 */
+	private static class rangeTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		final int start;
+		final int end;
+		final indexedTask task;
+		final progressListener listener;
+		final taskHandle handle;
+		final AtomicInteger done;
+		final int total;
+
+		rangeTask(int start, int end, indexedTask task, progressListener listener, taskHandle handle, AtomicInteger done, int total) {
+			this.start=start;
+			this.end=end;
+			this.task=task;
+			this.listener=listener;
+			this.handle=handle;
+			this.done=done;
+			this.total=total;
+		}
+
+		@Override
+		protected void compute() {
+			if(handle.isCancelled()) return;
+
+			if(end-start==1) {
+				task.run(start);
+				int nDone=done.incrementAndGet();
+				if(listener!=null) listener.progress(nDone, total);
+			}else {
+				int middle=(start+end)>>>1;
+				invokeAll(new rangeTask(start, middle, task, listener, handle, done, total), new rangeTask(middle, end, task, listener, handle, done, total));
+			}
+		}
+	}
+}
@@ -45,6 +45,12 @@ public class pluginsInfo {
 	/** Date of the current release of the Atlas ViewerI plugin */
 	public static final String ATLAS_VIEWER_DATE="02/08/23";
 	
+	/** Version of the Convert Atlas Data Container plugin */
+	public static final String CONVERT_CONTAINER_VERSION="1.0.0";
+	
+	/** Date of the current release of the Convert Atlas Data Container plugin */
+	public static final String CONVERT_CONTAINER_DATE="17/10/26";
+	
 	/** Credits/Contact information */
 	public static final String CONTACT="Infos/bug report: fabrice.cordelieres@gmail.com";
 	
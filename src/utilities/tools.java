@@ -27,7 +27,11 @@ import java.awt.Button;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 
@@ -129,6 +133,30 @@ public class tools {
 		return path+(path.toLowerCase().endsWith(extension.toLowerCase())?"":extension);
 	}
 
+	/**
+	 * Copies the remaining content of the input stream to the output stream, which is left open
+	 * @param is the stream to read from
+	 * @param os the stream to write to
+	 * @throws IOException
+	 */
+	public static void copy(InputStream is, OutputStream os) throws IOException {
+		byte[] buffer=new byte[1<<16];
+		int read;
+		while((read=is.read(buffer))!=-1) os.write(buffer, 0, read);
+	}
+
+	/**
+	 * Reads the remaining content of the input stream
+	 * @param is the stream to read from
+	 * @return the content of the stream
+	 * @throws IOException
+	 */
+	public static byte[] readAllBytes(InputStream is) throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		copy(is, out);
+		return out.toByteArray();
+	}
+
 	/**
 	 * Changes the color scheme of the input icon depending on the input target color
 	 * @param imgIcon the input ImageIcon